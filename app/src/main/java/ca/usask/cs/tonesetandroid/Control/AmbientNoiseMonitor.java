@@ -0,0 +1,259 @@
+package ca.usask.cs.tonesetandroid.Control;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import ca.usask.cs.tonesetandroid.Spectral.BandLevelMeter;
+import ca.usask.cs.tonesetandroid.Spectral.Pcm16StreamSource;
+import ca.usask.cs.tonesetandroid.Spectral.PcmSource;
+import ca.usask.cs.tonesetandroid.Spectral.ShortTimeFourierTransform;
+import ca.usask.cs.tonesetandroid.Spectral.WindowFunction;
+
+/**
+ * A class for measuring the ambient noise level during a HearingTest, so that each trial can be tagged with how loud
+ * the room was while it was being performed (eg. to find trials where a door slammed just as the tone was played).
+ *
+ * The monitor reads PCM data from a PcmSource (usually a MicrophonePcmSource, or a .pcm file for testing off-device)
+ * and measures the level of each frame in the octave bands of BandLevelMeter. Totals are accumulated for the whole
+ * run, so the average level over any period can be found by calling mark() at the start of the period and
+ * levelSince() at the end.
+ *
+ * Frames are FRAME_SIZE samples with no overlap, so at Model.INPUT_SAMPLE_RATE this is one FFT of 1024 samples every
+ * 62.5ms, run on a minimum-priority thread: small enough not to interfere with tone synthesis
+ */
+public class AmbientNoiseMonitor {
+
+    /**
+     * The number of samples in each analysis frame
+     */
+    public static final int FRAME_SIZE = 1024;
+
+    /**
+     * The time constant in seconds of the smoothed levels returned by getCurrentLevel()
+     */
+    private static final double SMOOTHING_TIME_S = 1.0;
+
+    /**
+     * The longest time in ms that stop() waits for the monitoring thread to close the source
+     */
+    private static final long STOP_TIMEOUT_MS = 500;
+
+    private final PcmSource source;
+
+    private final ShortTimeFourierTransform stft;
+
+    private final BandLevelMeter meter;
+
+    /**
+     * Weight of each new frame in the smoothed levels
+     */
+    private final double smoothingFactor;
+
+    /**
+     * Running totals of the mean square of every frame so far, in each band and broadband. Only access while
+     * synchronized on this
+     */
+    private final double[] bandTotals;
+    private double broadbandTotal = 0;
+    private long nFrames = 0;
+
+    /**
+     * Exponentially smoothed mean squares in each band and broadband. Only access while synchronized on this
+     */
+    private final double[] smoothedBands;
+    private double smoothedBroadband = 0;
+
+    private volatile boolean running = false;
+
+    private Thread thread = null;
+
+    /**
+     * @param source The source of PCM data to be monitored. Closed when monitoring stops
+     * @param sampleRate The sample rate of the PCM data
+     */
+    public AmbientNoiseMonitor(PcmSource source, float sampleRate) {
+        this.source = source;
+        this.stft = new ShortTimeFourierTransform(
+                FRAME_SIZE, FRAME_SIZE, 1, WindowFunction.WINDOW_HANN, sampleRate);
+        this.meter = new BandLevelMeter(this.stft);
+        this.bandTotals = new double[this.meter.nBands()];
+        this.smoothedBands = new double[this.meter.nBands()];
+        this.smoothingFactor = 1.0 - Math.exp(- FRAME_SIZE / (sampleRate * SMOOTHING_TIME_S));
+    }
+
+    /**
+     * Create a monitor that reads from the device's microphone at Model.INPUT_SAMPLE_RATE
+     *
+     * @throws IllegalStateException If the microphone can't be opened (eg. permission has not been granted)
+     */
+    public static AmbientNoiseMonitor fromMicrophone() throws IllegalStateException {
+        MicrophonePcmSource mic = new MicrophonePcmSource(Model.INPUT_SAMPLE_RATE);
+        return new AmbientNoiseMonitor(mic, mic.sampleRate);
+    }
+
+    /**
+     * Create a monitor that reads raw 16-bit little-endian mono PCM from a file, for testing off-device
+     *
+     * @param pcmFile The file to be read
+     * @param sampleRate The sample rate of the data in the file
+     */
+    public static AmbientNoiseMonitor fromPcmFile(File pcmFile, float sampleRate) throws FileNotFoundException {
+        return new AmbientNoiseMonitor(new Pcm16StreamSource(new FileInputStream(pcmFile)), sampleRate);
+    }
+
+    /**
+     * Begin monitoring on a new thread until stop() is called or the source runs out
+     */
+    public synchronized void start() {
+        if (this.thread != null) throw new IllegalStateException("AmbientNoiseMonitor already started");
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        }, "AmbientNoiseMonitor");
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+        this.thread.start();
+    }
+
+    /**
+     * Stop monitoring, and wait up to STOP_TIMEOUT_MS for the monitoring thread started by start() to finish the frame
+     * it is reading and close the source, so that a new monitor can open the microphone as soon as this returns.
+     * Totals are kept, so marks made before stopping can still be read
+     */
+    public void stop() {
+        Thread reader;
+        synchronized (this) {
+            this.running = false;
+            reader = this.thread;
+        }
+        if (reader == null || reader == Thread.currentThread()) return;
+
+        // not synchronized on this while waiting, since the thread needs the lock to add its last frame
+        try {
+            reader.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (reader.isAlive())
+            Log.w("AmbientNoiseMonitor", "Monitoring thread still running " + STOP_TIMEOUT_MS + "ms after stop()");
+    }
+
+    /**
+     * Monitor on the current thread until stop() is called or the source runs out (eg. at the end of a .pcm file),
+     * then close the source
+     */
+    public void monitor() {
+        this.running = true;
+        this.readFrames();
+    }
+
+    private void readFrames() {
+        double[] bandLevels = new double[this.meter.nBands()];
+        try {
+            ShortTimeFourierTransform.Frames frames = this.stft.frames(this.source);
+            try {
+                while (this.running && frames.next()) {
+                    double broadband = this.meter.measure(frames.spectrum(), bandLevels);
+                    this.addFrame(bandLevels, broadband);
+                }
+            } finally {
+                frames.close();
+            }
+        } catch (IOException e) {
+            Log.e("AmbientNoiseMonitor", "Error reading ambient audio");
+            e.printStackTrace();
+        } finally {
+            this.running = false;
+        }
+    }
+
+    private synchronized void addFrame(double[] bandLevels, double broadband) {
+        for (int i = 0; i < bandLevels.length; i++) {
+            this.bandTotals[i] += bandLevels[i];
+            this.smoothedBands[i] += this.smoothingFactor * (bandLevels[i] - this.smoothedBands[i]);
+        }
+        this.broadbandTotal += broadband;
+        this.smoothedBroadband += this.smoothingFactor * (broadband - this.smoothedBroadband);
+        this.nFrames++;
+    }
+
+    /**
+     * @return A Mark recording the totals at this moment, to be passed to levelSince() or bandLevelsSince() later
+     */
+    public synchronized Mark mark() {
+        return new Mark(this.nFrames, this.broadbandTotal, this.bandTotals.clone());
+    }
+
+    /**
+     * @return The average broadband level in dB (relative to a full-scale sine) since the given mark, or NaN if no
+     * frames have been measured since then
+     */
+    public synchronized float levelSince(Mark mark) {
+        long n = this.nFrames - mark.nFrames;
+        if (n <= 0) return Float.NaN;
+        return BandLevelMeter.toDecibels((this.broadbandTotal - mark.broadbandTotal) / n);
+    }
+
+    /**
+     * @return The average level in dB of each band since the given mark, or NaNs if no frames have been measured
+     * since then
+     */
+    public synchronized float[] bandLevelsSince(Mark mark) {
+        long n = this.nFrames - mark.nFrames;
+        float[] levels = new float[this.bandTotals.length];
+        for (int i = 0; i < levels.length; i++)
+            levels[i] = n <= 0 ? Float.NaN : BandLevelMeter.toDecibels((this.bandTotals[i] - mark.bandTotals[i]) / n);
+        return levels;
+    }
+
+    /**
+     * @return The broadband level in dB averaged over roughly the last SMOOTHING_TIME_S seconds
+     */
+    public synchronized float getCurrentLevel() {
+        return BandLevelMeter.toDecibels(this.smoothedBroadband);
+    }
+
+    /**
+     * @return The level in dB of each band averaged over roughly the last SMOOTHING_TIME_S seconds
+     */
+    public synchronized float[] getCurrentBandLevels() {
+        float[] levels = new float[this.smoothedBands.length];
+        for (int i = 0; i < levels.length; i++) levels[i] = BandLevelMeter.toDecibels(this.smoothedBands[i]);
+        return levels;
+    }
+
+    /**
+     * @return The centre frequency in Hz of each band measured
+     */
+    public float[] getBandCentres() {
+        float[] centres = new float[this.meter.nBands()];
+        for (int i = 0; i < centres.length; i++) centres[i] = this.meter.bandCentre(i);
+        return centres;
+    }
+
+    public boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * The running totals of an AmbientNoiseMonitor at some point in time
+     */
+    public static class Mark {
+
+        private final long nFrames;
+        private final double broadbandTotal;
+        private final double[] bandTotals;
+
+        private Mark(long nFrames, double broadbandTotal, double[] bandTotals) {
+            this.nFrames = nFrames;
+            this.broadbandTotal = broadbandTotal;
+            this.bandTotals = bandTotals;
+        }
+    }
+}
@@ -13,12 +13,22 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.InputMismatchException;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import ca.usask.cs.tonesetandroid.HearingTest.Container.CalibrationTestResults;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.ConfidenceTestResults;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.CrossValidator;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.HearingTestResultsCollection;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.MaximumLikelihoodResults;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.PopulationPrior;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.PredictionReport;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.PredictorResults;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResults;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResultsWithFloorInfo;
@@ -39,11 +49,16 @@ public class FileIOController {
      */
     private static final File PARENT = getResultsDir();
 
+    /**
+     * The pattern of the dates and times in test result files
+     */
+    private static final String DATE_PATTERN = "yyyy-MM-dd_HH:mm:ss";
+
     /**
      * A DateFormat object for printing to test result files (to avoid recreating identical objects every time we
      * save a result)
      */
-    private static final SimpleDateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss");
+    private static final SimpleDateFormat FORMAT = new SimpleDateFormat(DATE_PATTERN);
 
     /**
      * The string that is written in a test result file to indicate the beginning of a test
@@ -55,6 +70,26 @@ public class FileIOController {
      */
     private static final String END_TEST_STRING = "END-TEST";
 
+    /**
+     * The name of the file in PARENT containing the population prior
+     */
+    private static final String PRIOR_FILE_NAME = "population_prior.csv";
+
+    /**
+     * The name of the file in PARENT containing the cross-validation summary
+     */
+    private static final String CROSS_VALIDATION_FILE_NAME = "cross_validation.tsv";
+
+    /**
+     * Matches the names of participant directories (see getConfDirName()), capturing the participant ID
+     */
+    private static final Pattern PART_DIR_PATTERN = Pattern.compile("^subject(\\d+)$");
+
+    /**
+     * Matches the names of confidence test files (see getNewConfFileName())
+     */
+    private static final Pattern CONF_FILE_PATTERN = Pattern.compile("^conf_.+_\\d+$");
+
     /**
      * The current file to which saveString() will write
      */
@@ -86,6 +121,17 @@ public class FileIOController {
         return String.format("conf_%s_%d", FORMAT.format(System.currentTimeMillis()), partID);
     }
 
+    /**
+     * Return the name (not path) of a new confidence report file for the given participant. The name includes the
+     * current time, so only call this immediately before writing the report
+     *
+     * @param partID The participant ID whose new report file name is to be found
+     * @return The name of a new confidence report file for the given participant
+     */
+    public static String getNewReportFileName(int partID) {
+        return String.format("report_%s_%d.csv", FORMAT.format(System.currentTimeMillis()), partID);
+    }
+
     /**
      * Return the name (not path) of the file containing a participant's calibration data
      * @param partID The participant ID whose calibration file name is to be found
@@ -99,7 +145,8 @@ public class FileIOController {
      * Save a single test result to the end of the current file
      */
     public void saveLine(final long startTime, final float freq, final double vol, final String direction,
-                         final boolean correct, final int numClicks, final String clickString) {
+                         final boolean correct, final int numClicks, final String clickString,
+                         final float ambientLevel) {
         String formattedDateTime;
 
         try {
@@ -109,8 +156,11 @@ public class FileIOController {
             e.printStackTrace();
             formattedDateTime = "TimeFetchError";
         }
-        saveString(String.format("%s,%.2f,%.2f,%s,%b,%d,%s%n",
-                                 formattedDateTime, freq, vol, direction, correct, numClicks, clickString));
+        // ambient level goes last: readers skip everything after 'correct' so older files still load, and the click
+        // string can contain commas so new fields must go after it
+        saveString(String.format("%s,%.2f,%.2f,%s,%b,%d,%s,%.1f%n",
+                                 formattedDateTime, freq, vol, direction, correct, numClicks, clickString,
+                                 ambientLevel));
     }
 
     /**
@@ -275,6 +325,242 @@ public class FileIOController {
         }
     }
 
+    /**
+     * Write a report comparing the participant's predictions to the given confidence tests into a new report file in
+     * the participant's directory. The report is streamed to the file as it is generated, so this can take a while
+     * for participants with many results: don't call it from the UI thread. Does not change the current file
+     *
+     * @param p The participant whose results are to be compared
+     * @param results The results to compare: a copy of the participant's results (see
+     *                HearingTestResultsCollection.copy()) if they may change while the report is written
+     * @param report The PredictionReport with which to write the report, in FORMAT_CSV
+     * @param sessions The confidence tests to compare with the participant's results
+     * @throws IOException If an error occurs creating or writing to the file
+     */
+    public void saveReport(Participant p, HearingTestResultsCollection results, PredictionReport report,
+                           List<ConfidenceTestResults> sessions) throws IOException {
+        File file = new File(p.getConfDir(), getNewReportFileName(p.getId()));
+        Writer reportWriter = new BufferedWriter(new FileWriter(file));
+        try {
+            report.write(reportWriter, results, sessions);
+        } finally {
+            reportWriter.close();
+        }
+        // make the device aware of the new file
+        MediaScannerConnection.scanFile(
+                context,
+                new String[]{file.getAbsolutePath()},
+                new String[]{"text/csv"},
+                null);
+    }
+
+    /**
+     * Build a new PopulationPrior from the calibration files of every participant, and save it to the prior file,
+     * replacing any prior saved before. Participants whose files can't be loaded are skipped. This reads every
+     * participant's files, so don't call it from the UI thread
+     *
+     * @return The new prior
+     */
+    public PopulationPrior buildPopulationPrior() {
+        PopulationPrior prior = new PopulationPrior();
+        File[] partDirs = PARENT.listFiles();
+        if (partDirs != null) {
+            for (File partDir : partDirs) {
+                Matcher matcher = PART_DIR_PATTERN.matcher(partDir.getName());
+                if (! partDir.isDirectory() || ! matcher.matches()) continue;
+                try {
+                    prior.addParticipant(this.loadParticipantData(Integer.parseInt(matcher.group(1))).getResults());
+                } catch (FileNotFoundException | RuntimeException e) {
+                    // unfinished or badly formatted files
+                    Log.w("FileIOController", "Skipping " + partDir.getName() + " in population prior: " + e);
+                }
+            }
+        }
+
+        File file = new File(PARENT, PRIOR_FILE_NAME);
+        try {
+            File temp = File.createTempFile(PRIOR_FILE_NAME, ".tmp", PARENT);
+            Writer priorWriter = new BufferedWriter(new FileWriter(temp));
+            try {
+                prior.write(priorWriter);
+            } finally {
+                priorWriter.close();
+            }
+            replaceFile(temp, file);
+            // make the device aware of the new file
+            MediaScannerConnection.scanFile(
+                    context,
+                    new String[]{file.getAbsolutePath()},
+                    new String[]{"text/csv"},
+                    null);
+        } catch (IOException e) {
+            Log.e("FileIOController", "IOException occurred while saving population prior");
+            e.printStackTrace();
+        }
+        return prior;
+    }
+
+    /**
+     * Cross-validate the PredictorResults of every participant against their own confidence tests (see
+     * CrossValidator), and save the summary to the cross-validation file, replacing any summary saved before.
+     * Participants whose calibration files can't be loaded or who have no confidence tests are skipped. The summary is
+     * written to a temporary file and renamed into place. This reads every participant's files and waits for the
+     * evaluation, so don't call it from the UI thread
+     *
+     * @param validator The CrossValidator with which to evaluate the participants
+     * @return The new summary
+     * @throws InterruptedException If interrupted while waiting for the evaluation
+     * @throws ExecutionException If the evaluation failed
+     */
+    public CrossValidator.Summary saveCrossValidation(CrossValidator validator)
+            throws InterruptedException, ExecutionException {
+        ArrayList<CrossValidator.Subject> subjects = new ArrayList<>();
+        File[] partDirs = PARENT.listFiles();
+        if (partDirs != null) {
+            for (File partDir : partDirs) {
+                Matcher matcher = PART_DIR_PATTERN.matcher(partDir.getName());
+                if (! partDir.isDirectory() || ! matcher.matches()) continue;
+                int partID = Integer.parseInt(matcher.group(1));
+                try {
+                    List<ConfidenceTestResults> confResults = this.loadConfidenceResults(partID);
+                    if (confResults.isEmpty()) continue;
+                    subjects.add(new CrossValidator.Subject(
+                            partID, this.loadParticipantData(partID).getResults(), confResults));
+                } catch (FileNotFoundException | RuntimeException e) {
+                    // unfinished or badly formatted files
+                    Log.w("FileIOController", "Skipping " + partDir.getName() + " in cross-validation: " + e);
+                }
+            }
+        }
+
+        CrossValidator.Summary summary = validator.evaluate(subjects).get();
+        File file = new File(PARENT, CROSS_VALIDATION_FILE_NAME);
+        try {
+            File temp = File.createTempFile(CROSS_VALIDATION_FILE_NAME, ".tmp", PARENT);
+            Writer summaryWriter = new BufferedWriter(new FileWriter(temp));
+            try {
+                summaryWriter.write(summary.toString());
+            } finally {
+                summaryWriter.close();
+            }
+            replaceFile(temp, file);
+            // make the device aware of the new file
+            MediaScannerConnection.scanFile(
+                    context,
+                    new String[]{file.getAbsolutePath()},
+                    new String[]{"text/tab-separated-values"},
+                    null);
+        } catch (IOException e) {
+            Log.e("FileIOController", "IOException occurred while saving cross-validation summary");
+            e.printStackTrace();
+        }
+        return summary;
+    }
+
+    /**
+     * Rename a complete temporary file over file, so that anything reading file sees either the old version or the
+     * new one, never a partly written one
+     *
+     * @param temp The new version of file, already closed and in the same directory
+     * @param file The file to replace
+     * @throws IOException If temp couldn't be renamed, in which case it is deleted
+     */
+    private static void replaceFile(File temp, File file) throws IOException {
+        if (! temp.renameTo(file)) {
+            if (! temp.delete()) Log.w("FileIOController", "Unable to delete " + temp.getName());
+            throw new IOException("Unable to rename " + temp.getName() + " to " + file.getName());
+        }
+    }
+
+    /**
+     * Load every confidence test saved for a participant. Files that can't be read are skipped.
+     *
+     * Confidence files only save the frequency and volume of each tone (see HearingTest.saveLine()), so every tone is
+     * loaded as a FreqVolPair whatever type of tone was played
+     *
+     * @param partID The ID of the participant whose confidence tests are to be loaded
+     * @return The results of each of the participant's confidence tests with at least one trial
+     */
+    public List<ConfidenceTestResults> loadConfidenceResults(int partID) {
+        ArrayList<ConfidenceTestResults> allResults = new ArrayList<>();
+        File[] files = new File(PARENT, getConfDirName(partID)).listFiles();
+        if (files == null) return allResults;
+        for (File file : files) {
+            if (! CONF_FILE_PATTERN.matcher(file.getName()).matches()) continue;
+            try {
+                ConfidenceTestResults results = loadConfidenceFile(file);
+                if (! results.isEmpty()) allResults.add(results);
+            } catch (FileNotFoundException | RuntimeException e) {
+                Log.w("FileIOController", "Skipping confidence file " + file.getName() + ": " + e);
+            }
+        }
+        return allResults;
+    }
+
+    /**
+     * Load the results of the confidence test saved in the given file. A file without an end-test label (ie. a test
+     * that was quit part way through) is loaded up to its last trial
+     *
+     * @throws FileNotFoundException If the file does not exist
+     * @throws InputMismatchException If the file wasn't properly formatted
+     */
+    private static ConfidenceTestResults loadConfidenceFile(File file)
+            throws FileNotFoundException, InputMismatchException {
+        Scanner scanner = new Scanner(file);
+        try {
+            scanner.useDelimiter("\\s");  // the header is space-separated
+            String header = scanner.next();
+            if (! header.equals(START_TEST_STRING))
+                throw new InputMismatchException("Expected test header but was not found: found " + header);
+            long startTime;
+            try {
+                startTime = new SimpleDateFormat(DATE_PATTERN).parse(scanner.next()).getTime();
+            } catch (ParseException e) {
+                throw new InputMismatchException("Error parsing date");
+            }
+            String testName = scanner.next();
+            String noiseName = scanner.next();
+            BackgroundNoiseType noiseType = new BackgroundNoiseType(noiseName, scanner.nextInt());
+
+            ConfidenceTestResults results = new ConfidenceTestResults(noiseType, testName);
+            results.setStartTime(startTime);
+            scanner.useDelimiter("[,\n]");  // trials are comma-separated, one per line
+            while (scanner.hasNext()) {
+                if (scanner.next().equals(END_TEST_STRING)) break;  // otherwise that was the time of the trial
+                float freq = scanner.nextFloat();
+                double vol = scanner.nextDouble();
+                scanner.next();  // jump over the direction string; not used
+                boolean correct = scanner.nextBoolean();
+                scanner.nextLine();  // ignore clicks
+                results.addResult(new FreqVolPair(freq, vol), correct);
+            }
+            return results;
+        } finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Load the PopulationPrior saved by buildPopulationPrior()
+     *
+     * @return The saved prior, or null if there is no prior saved or it can't be read
+     */
+    @Nullable
+    public PopulationPrior loadPopulationPrior() {
+        File file = new File(PARENT, PRIOR_FILE_NAME);
+        if (! file.exists()) return null;
+        Scanner scanner = null;
+        try {
+            scanner = new Scanner(file);
+            return PopulationPrior.read(scanner);
+        } catch (FileNotFoundException | InputMismatchException e) {
+            Log.e("FileIOController", "Unable to load population prior: " + e);
+            return null;
+        } finally {
+            if (scanner != null) scanner.close();
+        }
+    }
+
     /**
      * Set the current file to the participant's calibration file
      *
@@ -310,9 +596,15 @@ public class FileIOController {
                     " path: " + calibFile.getAbsolutePath());
         }
 
+        // SimpleDateFormat isn't thread-safe, and participants may be loaded in the background (see
+        // buildPopulationPrior()) while a test is saving lines with FORMAT. Cloning FORMAT would read it while it's
+        // in use, so make a new one
+        SimpleDateFormat format = new SimpleDateFormat(DATE_PATTERN);
+
         // read the file, looking for test results
         HearingTestResultsCollection resultsCollection = new HearingTestResultsCollection();
         RampTestResultsWithFloorInfo lastRamp = null;  // if the most recent test was a ramp, store it here
+        RampTestResultsWithFloorInfo suiteRamp = null;  // the ramp (and reduce) test of the current calibration suite
         Scanner scanner = new Scanner(calibFile);
         while (scanner.hasNext()) {
             // when execution gets here, we should always be at the start of a test's results
@@ -326,7 +618,7 @@ public class FileIOController {
             if ((header = scanner.next()).equals(START_TEST_STRING)) {
                 // get the start time of the test
                 try {
-                    startTime = FORMAT.parse(scanner.next()).getTime();
+                    startTime = format.parse(scanner.next()).getTime();
                 } catch (ParseException e) {
                     throw new InputMismatchException("Error parsing date");
                 }
@@ -367,6 +659,8 @@ public class FileIOController {
                     if (next.equals(END_TEST_STRING)) {
                         // test is over: finalize this one and go back to the top
                         resultsCollection.addResults(testResults);
+                        resultsCollection.addResults(MaximumLikelihoodResults.fromSuite(suiteRamp, testResults));
+                        suiteRamp = null;
                         testCompleted = true;
                         break;  // break from this while loop and jump to top of the outer loop
                     }
@@ -409,6 +703,7 @@ public class FileIOController {
                         resultsCollection.addResults(testResults.getRegularRampResults());
                         testCompleted = true;
                         lastRamp = testResults;
+                        suiteRamp = testResults;
                         scanner.nextLine();
                         break;  // break from this while loop, then jump to the top of the outer loop in the next block
                     }
@@ -448,6 +743,7 @@ public class FileIOController {
                 }
 
                 ReduceTest.ResultsBuilder builder = new ReduceTest.ResultsBuilder();
+                boolean staircase = testName.contains("staircase");  // older reduce tests used a fixed step
                 boolean testCompleted = false;
 
                 // read line-by-line until the test is complete or we run out of lines
@@ -466,9 +762,15 @@ public class FileIOController {
                     // test is not over: read the next line and add it to our results
                     float freq = scanner.nextFloat();
                     double vol = scanner.nextDouble();
-                    scanner.nextLine();  // ignore direction, 'correct', and clicks
-
-                    builder.addResult(freq, vol);
+                    if (staircase) {
+                        scanner.next();  // jump over the direction string; not used
+                        boolean heard = scanner.nextBoolean();
+                        scanner.nextLine();  // ignore clicks
+                        builder.addStaircaseResult(freq, vol, heard);
+                    } else {
+                        scanner.nextLine();  // ignore direction, 'correct', and clicks
+                        builder.addResult(freq, vol);
+                    }
                 }
 
                 if (! testCompleted) {
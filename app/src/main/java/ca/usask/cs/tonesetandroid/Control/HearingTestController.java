@@ -5,8 +5,21 @@ import android.util.Log;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-
-import ca.usask.cs.tonesetandroid.HearingTest.Test.Calibration.SineCalibratonTest;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ca.usask.cs.tonesetandroid.HearingTest.Container.Bootstrap;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.ConfidenceTestResults;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.CrossValidator;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.HearingTestResultsCollection;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.MaximumLikelihoodResults;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.PopulationPrior;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.PredictionReport;
+import ca.usask.cs.tonesetandroid.HearingTest.Test.Calibration.AdaptiveSineCalibrationTest;
+import ca.usask.cs.tonesetandroid.HearingTest.Test.Calibration.CalibrationTest;
 import ca.usask.cs.tonesetandroid.HearingTest.Test.Confidence.ConfidenceTest;
 import ca.usask.cs.tonesetandroid.HearingTest.Test.Confidence.IntervalSineConfidenceTest;
 import ca.usask.cs.tonesetandroid.HearingTest.Test.Confidence.MelodySineConfidenceTest;
@@ -17,6 +30,8 @@ import ca.usask.cs.tonesetandroid.HearingTest.Test.Ramp.SineRampTest;
 import ca.usask.cs.tonesetandroid.HearingTest.Test.Reduce.SineReduceTest;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
 import ca.usask.cs.tonesetandroid.HearingTestView;
+import ca.usask.cs.tonesetandroid.Participant;
+import ca.usask.cs.tonesetandroid.Spectral.ToneVerifier;
 
 /**
  * A class for performing HearingTests and handling UI events
@@ -30,8 +45,54 @@ public class HearingTestController {
     HearingTestView view;
     BackgroundNoiseController noiseController;
     FileIOController fileController;
+    AmbientNoiseMonitor ambientMonitor;
     Context context;
 
+    /**
+     * Finds the intervals shown in the confidence test report, with a fixed seed so the report is reproducible
+     */
+    private final Bootstrap bootstrap = new Bootstrap(Model.WORKER_POOL, Bootstrap.DEFAULT_N_RESAMPLES, 0);
+
+    /**
+     * Writes the confidence test report once each confidence test is complete
+     */
+    private final PredictionReport report =
+            new PredictionReport(Model.WORKER_POOL, PredictionReport.FORMAT_CSV, this.bootstrap);
+
+    /**
+     * Scores every participant's predictions against their confidence tests once each confidence test is complete
+     */
+    private final CrossValidator crossValidator =
+            new CrossValidator(Model.WORKER_POOL, CrossValidator.DEFAULT_N_FOLDS);
+
+    /**
+     * Runs the background jobs that read every participant's files and rewrite a shared file, one at a time, so that
+     * two of them never write the same file at once
+     */
+    private final ExecutorService fileJobs = Executors.newSingleThreadExecutor();
+
+    /**
+     * True while a cross-validation is queued on fileJobs but hasn't started reading files, so that confidence tests
+     * completed in the meantime don't queue another: the queued one will include them
+     */
+    private final AtomicBoolean crossValidationQueued = new AtomicBoolean(false);
+
+    /**
+     * True while a population prior rebuild is queued on fileJobs but hasn't started reading files
+     */
+    private final AtomicBoolean populationPriorQueued = new AtomicBoolean(false);
+
+    /**
+     * The thresholds of all participants, used to warm-start calibration tests. Loaded from file before the first
+     * calibration and rebuilt in the background after each one; null if there isn't one yet
+     */
+    private volatile PopulationPrior populationPrior;
+
+    /**
+     * True if populationPrior has been loaded from file (or found not to exist). Only used from the UI thread
+     */
+    private boolean populationPriorLoaded = false;
+
     // test type identifiers. RR = ramp + reduce
     public static final int TEST_SUITE_FULL = 0;
     public static final int TEST_SUITE_RAMP = 1;
@@ -93,9 +154,13 @@ public class HearingTestController {
         switch (testTypeID) {
             case TEST_SUITE_FULL:
                 if (toneTimbreID == Tone.TIMBRE_SINE) {
-                    this.iModel.setRampTest(new SineRampTest(noiseType));
+                    SineRampTest rampTest = new SineRampTest(noiseType);
+                    rampTest.setPopulationPrior(this.getPopulationPrior());
+                    this.iModel.setRampTest(rampTest);
                     this.iModel.setReduceTest(new SineReduceTest(noiseType));
-                    this.iModel.setCalibrationTest(new SineCalibratonTest(noiseType));
+                    AdaptiveSineCalibrationTest calibrationTest = new AdaptiveSineCalibrationTest(noiseType);
+                    calibrationTest.setPopulationPrior(this.getPopulationPrior());
+                    this.iModel.setCalibrationTest(calibrationTest);
                     this.setupRampTest();
                 } else {
                     throw new TestNotAvailableException();
@@ -111,6 +176,7 @@ public class HearingTestController {
 
         // start bg noise
         this.noiseController.playNoise(this.iModel.getCurrentNoise());
+        this.startAmbientMonitor();
         // show the information dialog to the user, which will start the test once the user closes it
         this.view.showInformationDialog(this.iModel.getCurrentTest().getTestInfo());
     }
@@ -185,19 +251,92 @@ public class HearingTestController {
         this.iModel.getCalibrationTest().setRampResults(this.iModel.getRampTest().getResults());
         this.iModel.getCalibrationTest().setReduceResults(this.iModel.getReduceTest().getLowestVolumes());
         this.iModel.getCalibrationTest().initialize();
+        this.verifyCalibrationOutput();
         this.iModel.setCurrentTest(this.iModel.getCalibrationTest());
         this.fileController.saveTestHeader(this.iModel.getCurrentTest());
         this.iModel.setTestThreadActive(false);
         this.iModel.notifySubscribers();
     }
 
+    /**
+     * Check in the background that every tone in the upcoming calibration test renders at the intended frequency and
+     * level without clipping or distortion, and log the report. Rendering every tone takes a few seconds, so this
+     * runs on Model.WORKER_POOL while the test starts (the rendered audio goes to a capture on that thread only, see
+     * HearingTest.setCapture()). Failures are logged as errors but don't stop the test
+     */
+    private void verifyCalibrationOutput() {
+        final CalibrationTest test = this.iModel.getCalibrationTest();
+        Model.WORKER_POOL.execute(new Runnable() {
+            @Override
+            public void run() {
+                ToneVerifier.Report report = test.verifyOutput();
+                if (report.passed()) Log.i("HearingTestController", report.toString());
+                else Log.e("HearingTestController", report.toString());
+            }
+        });
+    }
+
     /**
      * Perform any final actions that need to be done before the calibration test is officially complete
      */
     public void calibrationTestComplete() {
         this.model.getCurrentParticipant().getResults().addResults(this.iModel.getCalibrationTest().getResults());
+        // also fit all the trials of the suite together
+        this.model.getCurrentParticipant().getResults().addResults(MaximumLikelihoodResults.fromSuite(
+                this.iModel.getRampTest() == null ? null : this.iModel.getRampTest().getResults(),
+                this.iModel.getCalibrationTest().getResults()));
         this.fileController.saveEndTest();
         testComplete();
+        this.rebuildPopulationPrior();
+    }
+
+    /**
+     * @return The population prior, loading it from file the first time this is called
+     */
+    private PopulationPrior getPopulationPrior() {
+        if (! this.populationPriorLoaded) {
+            this.populationPrior = this.fileController.loadPopulationPrior();
+            this.populationPriorLoaded = true;
+        }
+        return this.populationPrior;
+    }
+
+    /**
+     * Rebuild the population prior from every participant's files in the background, to include the latest results.
+     * Does nothing if a rebuild is already queued and hasn't started yet
+     */
+    private void rebuildPopulationPrior() {
+        if (! this.populationPriorQueued.compareAndSet(false, true)) return;
+        this.fileJobs.execute(new Runnable() {
+            @Override
+            public void run() {
+                populationPriorQueued.set(false);
+                PopulationPrior prior = fileController.buildPopulationPrior();
+                Log.i("HearingTestController", prior.toString());
+                populationPrior = prior;
+            }
+        });
+    }
+
+    /**
+     * Cross-validate every participant's results against their confidence tests in the background, to include the
+     * latest confidence test. Does nothing if a cross-validation is already queued and hasn't started yet
+     */
+    private void rebuildCrossValidation() {
+        if (! this.crossValidationQueued.compareAndSet(false, true)) return;
+        this.fileJobs.execute(new Runnable() {
+            @Override
+            public void run() {
+                // clear the flag before reading any files, so that a test completed from now on queues another run
+                crossValidationQueued.set(false);
+                try {
+                    Log.i("HearingTestController", fileController.saveCrossValidation(crossValidator).toString());
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e("HearingTestController", "Error cross-validating participant results");
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
     /**
@@ -253,6 +392,8 @@ public class HearingTestController {
         this.iModel.setConfidenceTest(confTest);
         this.iModel.setCurrentTest(confTest);
         this.fileController.setCurrentConf(model.getCurrentParticipant());
+        this.fileController.saveTestHeader(confTest);
+        this.startAmbientMonitor();
         this.view.showSampleDialog(confTest.sampleTones(), confTest.getTestInfo());
     }
 
@@ -260,16 +401,33 @@ public class HearingTestController {
      * Perform any final actions that need to be done before the confidence test is officially complete
      */
     public void confidenceTestComplete() {
+        this.stopAmbientMonitor();
         this.model.audioTrackCleanup();
-        this.fileController.saveString(
-                this.model.getCurrentParticipant().getResults().compareToConfidenceTest(
-                        this.iModel.getConfidenceTest().getConfResults()));
+        // write the report in the background: with bootstrap intervals it can take a few seconds
+        final Participant participant = this.model.getCurrentParticipant();
+        final ConfidenceTestResults confResults = this.iModel.getConfidenceTest().getConfResults();
+        // copy the results here, since the participant's own results (and their cached fits) may change while the
+        // report is written
+        final HearingTestResultsCollection results = participant.getResults().copy();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fileController.saveReport(participant, results, report, Collections.singletonList(confResults));
+                } catch (IOException e) {
+                    Log.e("HearingTestController", "Error writing confidence test report");
+                    e.printStackTrace();
+                }
+            }
+        }).start();
+        this.fileController.saveEndTest();
         try {
             this.fileController.setCurrentFile(null);
         } catch (IOException e) {
             Log.e("HearingTestController", "Something very very very very strange has happened in confTestComplete()");
             e.printStackTrace();
         }
+        this.rebuildCrossValidation();  // after closing the file, so that the new test is read in full
         this.iModel.reset();
         this.iModel.notifySubscribers();
     }
@@ -278,6 +436,7 @@ public class HearingTestController {
      * To be called once a test or suite of tests is completed and the model etc is to be reset
      */
     private void testComplete() {
+        this.stopAmbientMonitor();
         try {
             this.fileController.setCurrentFile(null);
         } catch (FileNotFoundException e) {
@@ -289,6 +448,31 @@ public class HearingTestController {
         this.iModel.notifySubscribers();
     }
 
+    /**
+     * Start measuring ambient noise through the microphone so that each trial of the upcoming test is saved with
+     * the ambient noise level during that trial. If the microphone is unavailable, the test runs without it
+     */
+    private void startAmbientMonitor() {
+        this.stopAmbientMonitor();
+        try {
+            this.ambientMonitor = AmbientNoiseMonitor.fromMicrophone();
+            this.ambientMonitor.start();
+        } catch (IllegalStateException e) {
+            Log.w("HearingTestController", "Unable to monitor ambient noise: " + e.getMessage());
+            this.ambientMonitor = null;
+        }
+        HearingTest.setAmbientMonitor(this.ambientMonitor);
+    }
+
+    /**
+     * Stop measuring ambient noise, if we were
+     */
+    private void stopAmbientMonitor() {
+        if (this.ambientMonitor != null) this.ambientMonitor.stop();
+        this.ambientMonitor = null;
+        HearingTest.setAmbientMonitor(null);
+    }
+
     //////////////////////////////////// click handlers ////////////////////////////////////////////
 
     /**
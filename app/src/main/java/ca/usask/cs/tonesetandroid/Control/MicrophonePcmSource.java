@@ -0,0 +1,98 @@
+package ca.usask.cs.tonesetandroid.Control;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+
+import ca.usask.cs.tonesetandroid.Spectral.PcmSource;
+
+/**
+ * A PcmSource that records mono 16-bit audio from the device's microphone. Recording starts as soon as this is
+ * created and stops when it is closed. Reads block until enough audio has been recorded
+ */
+public class MicrophonePcmSource implements PcmSource {
+
+    /**
+     * The sample rate to fall back on if the requested one isn't supported (the only rate guaranteed on all devices)
+     */
+    private static final int FALLBACK_SAMPLE_RATE = 44100;
+
+    private final AudioRecord record;
+
+    private final short[] buffer;
+
+    /**
+     * The sample rate at which audio is actually being recorded
+     */
+    public final int sampleRate;
+
+    /**
+     * @param sampleRate The preferred sample rate. If the device doesn't support it, FALLBACK_SAMPLE_RATE is used
+     *                   instead (check this.sampleRate)
+     * @throws IllegalStateException If the microphone couldn't be opened (eg. permission not granted)
+     */
+    public MicrophonePcmSource(int sampleRate) throws IllegalStateException {
+        AudioRecord newRecord = openRecord(sampleRate);
+        if (newRecord == null) {
+            sampleRate = FALLBACK_SAMPLE_RATE;
+            newRecord = openRecord(sampleRate);
+        }
+        if (newRecord == null) throw new IllegalStateException("Unable to open microphone");
+
+        this.record = newRecord;
+        this.sampleRate = sampleRate;
+        this.buffer = new short[AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                                                             AudioFormat.ENCODING_PCM_16BIT) / 2];
+        this.record.startRecording();
+    }
+
+    /**
+     * @return An initialized AudioRecord at the given sample rate, or null if one couldn't be created
+     */
+    private static AudioRecord openRecord(int sampleRate) {
+        int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                                                         AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize <= 0) return null;  // ERROR or ERROR_BAD_VALUE: sample rate not supported
+
+        AudioRecord record;
+        try {
+            record = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioFormat.CHANNEL_IN_MONO,
+                                     AudioFormat.ENCODING_PCM_16BIT, minBufferSize * 4);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            return null;
+        }
+        return record;
+    }
+
+    @Override
+    public int read(float[] buf, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        int n = this.record.read(this.buffer, 0, Math.min(length, this.buffer.length));
+        if (n < 0) throw new IOException("Error reading from microphone: " + n);
+        for (int i = 0; i < n; i++) buf[offset + i] = this.buffer[i] / (float) -Short.MIN_VALUE;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            int m = this.record.read(this.buffer, 0, (int) Math.min(n - skipped, this.buffer.length));
+            if (m < 0) throw new IOException("Error reading from microphone: " + m);
+            skipped += m;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+        this.record.stop();
+        this.record.release();
+    }
+}
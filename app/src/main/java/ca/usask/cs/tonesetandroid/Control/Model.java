@@ -6,13 +6,14 @@ import android.media.AudioManager;
 import android.media.AudioTrack;
 import android.util.Log;
 
-import com.paramsen.noise.Noise;
-import com.paramsen.noise.NoiseOptimized;
-
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import ca.usask.cs.tonesetandroid.HearingTest.Container.CalibrationTestResults;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.HearingTestResultsCollection;
@@ -24,6 +25,15 @@ import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.WavTone;
 import ca.usask.cs.tonesetandroid.MainActivity;
 import ca.usask.cs.tonesetandroid.Participant;
+import ca.usask.cs.tonesetandroid.R;
+import ca.usask.cs.tonesetandroid.Spectral.FFTEngine;
+import ca.usask.cs.tonesetandroid.Spectral.ParallelSpectralAnalyzer;
+import ca.usask.cs.tonesetandroid.Spectral.Pcm16StreamSource;
+import ca.usask.cs.tonesetandroid.Spectral.PeakPicker;
+import ca.usask.cs.tonesetandroid.Spectral.Periodogram;
+import ca.usask.cs.tonesetandroid.Spectral.ShortTimeFourierTransform;
+import ca.usask.cs.tonesetandroid.Spectral.SpectralIndex;
+import ca.usask.cs.tonesetandroid.Spectral.WindowFunction;
 
 /**
  * Contains methods and values for audio, and stores/handles saved test results
@@ -59,6 +69,43 @@ public class Model {
     public static final int OUTPUT_SAMPLE_RATE  = 44100;
 
     public static final int INPUT_SAMPLE_RATE = 16384;    // smaller input sample rate for faster fft
+
+    /**
+     * The number of samples per frame when analysing the spectra of .wav resources (must be a power of 2)
+     */
+    public static final int WAV_FRAME_SIZE = 1024;
+
+    /**
+     * The spectral analysis of the .wav resources, generated at build time. Null if it hasn't been loaded yet or isn't
+     * available, in which case .wav resources are analysed on the device
+     */
+    private static SpectralIndex spectralIndex = null;
+    private static boolean spectralIndexLoaded = false;
+
+    /**
+     * The number of peaks per frame to store when analysing .wav resources on the device (same as the build-time
+     * index)
+     */
+    private static final int WAV_PEAKS_PER_FRAME = 3;
+
+    /**
+     * All .wav resources that may be analysed
+     */
+    private static final int[] WAV_RESOURCE_IDS =
+            {R.raw.f4piano, R.raw.c5piano, R.raw.b5piano, R.raw.g6piano, R.raw.a7piano, R.raw.crowdnoise};
+
+    /**
+     * The pool on which all parallel work in the application is done (spectral analysis, bootstrap intervals, reports
+     * and cross-validation), with one thread per core. There is only ever one, so that its threads are shared rather
+     * than each user of a pool leaving its own idle threads behind. ForkJoinPool.commonPool() needs API 24
+     */
+    public static final ForkJoinPool WORKER_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The analysis of any .wav resources not in spectralIndex, started by analyseWavResources(), or null if not
+     * started yet
+     */
+    private static Future<SpectralIndex> wavAnalysis = null;
     
     /**
      * Minimum size for the audio buffer for lineOut
@@ -108,64 +155,177 @@ public class Model {
     }
 
     /**
-     * Applies a Hann Window to the data set to improve the overall accuracy
-     * This function is slightly less general than a typical Hann window function
-     * Typically, you also want to know the starting index of the data to be windowed
-     * In this case, the index will always begin at 0
-     *
-     * @param data The data that will be windowed
-     * @return The windowed data set
-     *
-     * @author alexscott
+     * Get a periodogram from the given raw PCM data
      */
-    private static float[] applyHannWindow(float[] data) {
-        int length = data.length;
-        for (int i = 0; i < length; i++) {
-            data[i] = (float) (data[i] * 0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / length)));
-        }
-        return data;
+    public static FreqVolPair[] getPeriodogramFromPcmData(float[] rawPCM) {
+        Periodogram periodogram = new Periodogram(rawPCM.length / 2 + 1);
+        getPeriodogramFromPcmData(rawPCM, periodogram);
+
+        FreqVolPair[] freqBins = new FreqVolPair[periodogram.size()];
+        for (int i = 0; i < freqBins.length; i++)
+            freqBins[i] = new FreqVolPair(periodogram.freq(i), periodogram.power(i));
+        return freqBins;
     }
 
     /**
-     * Get a periodogram from the given raw PCM data
+     * Compute a periodogram from the given raw PCM data and store it into the given Periodogram, without boxing
+     * anything. Allocates nothing once an FFT of this size has been pooled and out has enough room
+     *
+     * @param rawPCM PCM data sampled at INPUT_SAMPLE_RATE
+     * @param out The Periodogram in which the results are stored
      */
-    public static FreqVolPair[] getPeriodogramFromPcmData(float[] rawPCM) {
+    public static void getPeriodogramFromPcmData(float[] rawPCM, Periodogram out) {
 
         int freqBinWidth = Model.INPUT_SAMPLE_RATE / rawPCM.length;
 
-        // Object for performing FFTs: handle real inputs of size sampleSize
-        NoiseOptimized noise = Noise.real().optimized().init(rawPCM.length, true);
+        FFTEngine.Plan plan = FFTEngine.acquire(rawPCM.length);
+        try {
+            // apply Hann window to reduce noise, then convert to power spectral density
+            WindowFunction.apply(WindowFunction.getTable(WindowFunction.WINDOW_HANN, rawPCM.length),
+                                 rawPCM, 0, plan.input());
+            float[] psd = plan.powerSpectrum();
+            out.set(psd, psd.length, freqBinWidth / 2.0f, freqBinWidth);
+        } finally {
+            FFTEngine.release(plan);
+        }
+    }
 
-        // apply Hann window to reduce noise
-        float[] fftInput = applyHannWindow(rawPCM);
+    /**
+     * Open the given .wav resource for analysis in nSamples evenly-spaced frames of WAV_FRAME_SIZE samples
+     *
+     * @param wavResId The resource ID for the wav file to be analysed
+     * @param nSamples The number of frames to be analysed
+     * @return The frames of the wav file. Must be closed after use
+     */
+    private static ShortTimeFourierTransform.Frames getWavFrames(int wavResId, int nSamples) throws IOException {
+        InputStream rawPCM = MainActivity.context.getResources().openRawResource(wavResId);
+        int size = rawPCM.available() / 2; // /2 because each sample is 2 bytes
+        int hopSize = Math.max(WAV_FRAME_SIZE, size / nSamples);
+        ShortTimeFourierTransform stft = new ShortTimeFourierTransform(
+                WAV_FRAME_SIZE, hopSize, 1, WindowFunction.WINDOW_HANN, OUTPUT_SAMPLE_RATE);
+        return stft.frames(new Pcm16StreamSource(rawPCM));
+    }
 
-        // perform FFT
-        float[] fftResult = noise.fft(fftInput); // noise.fft() returns from DC bin to Nyquist bin, no slicing req'd
+    /**
+     * Return the entry in the build-time spectral index for the given .wav resource, loading the index from the
+     * assets the first time this is called
+     *
+     * @param wavResId The resource ID for a wav file
+     * @return The index entry for the file, or null if the index isn't available or doesn't contain the file
+     */
+    private static synchronized SpectralIndex.Entry getSpectralIndexEntry(int wavResId) {
+        loadSpectralIndex();
+        String name = MainActivity.context.getResources().getResourceEntryName(wavResId);
+        if (spectralIndex != null && spectralIndex.frameSize == WAV_FRAME_SIZE) {
+            SpectralIndex.Entry entry = spectralIndex.get(name);
+            if (entry != null) return entry;
+        }
+        if (wavAnalysis != null) {
+            // wait for the parallel analysis if it's still going: it will finish sooner than a serial analysis
+            try {
+                return wavAnalysis.get().get(name);
+            } catch (InterruptedException | ExecutionException e) {
+                Log.e("Model", "Error analysing .wav resources");
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load the build-time spectral index from the assets into spectralIndex, if this hasn't been tried yet
+     */
+    private static synchronized void loadSpectralIndex() {
+        if (! spectralIndexLoaded) {
+            spectralIndexLoaded = true;  // only try once
+            try {
+                InputStream in = MainActivity.context.getAssets().open(SpectralIndex.ASSET_NAME);
+                try {
+                    spectralIndex = SpectralIndex.read(new BufferedInputStream(in));
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w("Model", "Spectral index unavailable, .wav files will be analysed on the device: " + e);
+                spectralIndex = null;
+            }
+        }
+    }
 
-        // convert to power spectral density
-        float[] psd =  new float[fftInput.length / 2 + 1];
-        for (int i = 0; i < fftResult.length / 2; i++) {
-            float realPart = fftResult[i * 2];
-            float imagPart = fftResult[i * 2 + 1];
+    /**
+     * Begin analysing every .wav resource that isn't in the build-time spectral index, in the background on all of
+     * the device's cores, so that topNFrequencies() and topFrequencies() don't have to analyse them one at a time
+     * later. Only the first call starts the analysis; later calls return the same Future
+     *
+     * @return A Future which completes once all .wav resources have been analysed
+     */
+    public static synchronized Future<SpectralIndex> analyseWavResources() {
+        if (wavAnalysis != null) return wavAnalysis;
+        loadSpectralIndex();
+
+        ArrayList<ParallelSpectralAnalyzer.Asset> assets = new ArrayList<>();
+        for (final int resId : WAV_RESOURCE_IDS) {
+            final String name = MainActivity.context.getResources().getResourceEntryName(resId);
+            if (spectralIndex != null && spectralIndex.frameSize == WAV_FRAME_SIZE && spectralIndex.get(name) != null)
+                continue;  // already analysed at build time
+            assets.add(new ParallelSpectralAnalyzer.Asset() {
+                @Override
+                public String name() {
+                    return name;
+                }
 
-// Power Spectral Density in dB = magnitude(fftResult) ^ 2
-// From StackOverflow user Jason R
-// https://dsp.stackexchange.com/questions/4691/what-is-the-difference-between-psd-and-squared-magnitude-of-frequency-spectrum?lq=1
-            psd[i] = (float) Math.pow(Math.sqrt(Math.pow(realPart, 2) + Math.pow(imagPart, 2)), 2);
+                @Override
+                public float[] load() throws IOException {
+                    return readWavSamples(resId);
+                }
+            });
         }
 
-        FreqVolPair[] freqBins = new FreqVolPair[psd.length];
-        for (int i = 0; i < psd.length; i++) {
-            float freq = (float) i * freqBinWidth + freqBinWidth / 2.0f;
-            double vol = psd[i];
-            freqBins[i] = new FreqVolPair(freq, vol);
+        wavAnalysis = new ParallelSpectralAnalyzer(WORKER_POOL, OUTPUT_SAMPLE_RATE, WAV_FRAME_SIZE,
+                                                   WAV_PEAKS_PER_FRAME).analyse(assets);
+        return wavAnalysis;
+    }
+
+    /**
+     * Read the whole of a .wav resource as PCM samples, the same way getWavFrames() does (ie. as one stream of 16-bit
+     * samples, header and all)
+     */
+    private static float[] readWavSamples(int wavResId) throws IOException {
+        InputStream rawPCM = MainActivity.context.getResources().openRawResource(wavResId);
+        Pcm16StreamSource source = new Pcm16StreamSource(rawPCM);
+        try {
+            float[] samples = new float[rawPCM.available() / 2];
+            int total = 0, n;
+            while (total < samples.length && (n = source.read(samples, total, samples.length - total)) != -1)
+                total += n;
+            return total == samples.length ? samples : Arrays.copyOf(samples, total);
+        } finally {
+            source.close();
         }
-        return freqBins;
+    }
+
+    /**
+     * Find the frames of an index entry matching the frames that getWavFrames() would analyse: the indexed frame
+     * containing the centre of each one, stopping where getWavFrames() would run out of audio
+     *
+     * @param entry The index entry for a wav file
+     * @param nSamples The number of frames requested
+     * @return The index of each matching frame in entry
+     */
+    private static int[] getIndexedFrames(SpectralIndex.Entry entry, int nSamples) {
+        long hopSize = Math.max(WAV_FRAME_SIZE, entry.totalSamples / nSamples);
+        int n = 0;
+        while (n < nSamples && n * hopSize + WAV_FRAME_SIZE <= entry.totalSamples) n++;
+
+        int[] frames = new int[n];
+        for (int i = 0; i < n; i++)
+            frames[i] = Math.min(entry.frameAt(i * hopSize + WAV_FRAME_SIZE / 2), entry.nFrames() - 1);
+        return frames;
     }
 
     /**
      * Given an ID for a .wav file, return the most prominent frequencies in each sample for some number of
-     * evenly-spaced samples.
+     * evenly-spaced samples. Uses the build-time spectral index if it covers the file.
      *
      * @param wavResId The resource ID for the wav file to be tested
      * @param nSamples The number of samples to test from the file (fewer samples -> faster, less precise)
@@ -173,31 +333,34 @@ public class Model {
      * @return An array of length nSamples containing the most prominent frequencies in each sample
      */
     public static float[][] topNFrequencies(int wavResId, int nSamples, int nFreqsPerSample) {
-        int sampleSize = 1000;
-        InputStream rawPCM = MainActivity.context.getResources().openRawResource(wavResId);
-        byte[] buf = new byte[2];
-        float[] pcm = new float[sampleSize];
         float[][] results = new float[nSamples][];
-        int nSamplesTaken = 0;
 
-        try {
-            int size = rawPCM.available() / 2; // /2 because each sample is 2 bytes
-            for (int i = 0;
-                 i < size - sampleSize;
-                 i += (size - nSamples * sampleSize) / nSamples) {
+        SpectralIndex.Entry entry = getSpectralIndexEntry(wavResId);
+        if (entry != null && nFreqsPerSample <= entry.peaksPerFrame()) {
+            int[] frames = getIndexedFrames(entry, nSamples);
+            for (int i = 0; i < frames.length; i++) {
+                results[i] = new float[nFreqsPerSample];
+                for (int rank = 0; rank < nFreqsPerSample; rank++)
+                    results[i][rank] = entry.peakFrequency(frames[i], rank);
+            }
+            return results;
+        }
 
-                for (int j = 0; j < sampleSize; j++, i++) {      // populate pcm for current set of samples
-                    rawPCM.read(buf, 0, 2);       // read data from stream
+        int nSamplesTaken = 0;
+        PeakPicker picker = new PeakPicker(nFreqsPerSample, false);
 
-                    short sample = (short) (buf[1] << 8 | buf[0] & 0xFF);  // convert to short
-                    pcm[j] = (float) sample / (float) Short.MIN_VALUE;
+        try {
+            ShortTimeFourierTransform.Frames frames = getWavFrames(wavResId, nSamples);
+            try {
+                float[] binFreqs = frames.transform().binFrequencies();
+                while (nSamplesTaken < nSamples && frames.next()) {
+                    picker.pick(binFreqs, frames.spectrum(), binFreqs.length);
+                    float[] maxFreqs = new float[nFreqsPerSample];
+                    System.arraycopy(picker.frequencies(), 0, maxFreqs, 0, nFreqsPerSample);
+                    results[nSamplesTaken++] = maxFreqs;
                 }
-
-                FreqVolPair[] periodogram = Model.getPeriodogramFromPcmData(pcm);   // get fft of pcm data
-                FreqVolPair[] max = FreqVolPair.maxNVols(periodogram, nFreqsPerSample);
-                float[] maxFreqs = new float[max.length];
-                for (int j = 0; j < nFreqsPerSample; j++) maxFreqs[j] = max[j].freq();
-                results[nSamplesTaken++] = maxFreqs;
+            } finally {
+                frames.close();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -206,39 +369,36 @@ public class Model {
     }
 
     /**
-     * Given an ID for a .wav file, return the most prominent frequencies present in the audio
+     * Given an ID for a .wav file, return the most prominent frequencies present in the audio. Uses the build-time
+     * spectral index if it covers the file.
      *
      * @param wavResId The resource ID for the wav file to be tested
      * @param nSamples The number of samples to test from the file (fewer samples -> faster, less precise)
      * @return An array of length nSamples containing the most prominent frequencies in each sample
      */
     public static float[] topFrequencies(int wavResId, int nSamples) {
-        int sampleSize = 1000;
-        InputStream rawPCM = MainActivity.context.getResources().openRawResource(wavResId);
-        byte[] buf = new byte[2];
-        float[] pcm = new float[sampleSize];
         float[] results = new float[nSamples];
+
+        SpectralIndex.Entry entry = getSpectralIndexEntry(wavResId);
+        if (entry != null) {
+            int[] frames = getIndexedFrames(entry, nSamples);
+            for (int i = 0; i < frames.length; i++) results[i] = entry.peakFrequency(frames[i], 0);
+            return results;
+        }
+
         int nSamplesTaken = 0;
+        PeakPicker picker = new PeakPicker(1, false);
 
         try {
-            int size = rawPCM.available() / 2; // /2 because each sample is 2 bytes
-            for (int i = 0;
-                 i < size - sampleSize;
-                 i += (size - nSamples * sampleSize) / nSamples) {
-
-                for (int j = 0; j < sampleSize; j++, i++) {      // populate pcm for current set of samples
-                    rawPCM.read(buf, 0, 2);       // read data from stream
-
-                    byte b = buf[0];              // convert to big-endian
-                    buf[0] = buf[1];
-                    buf[1] = b;
-                    short sample = ByteBuffer.wrap(buf).getShort();           // convert to short
-                    pcm[j] = (float) sample / (float) Short.MIN_VALUE;
+            ShortTimeFourierTransform.Frames frames = getWavFrames(wavResId, nSamples);
+            try {
+                float[] binFreqs = frames.transform().binFrequencies();
+                while (nSamplesTaken < nSamples && frames.next()) {
+                    picker.pick(binFreqs, frames.spectrum(), binFreqs.length);
+                    results[nSamplesTaken++] = picker.frequencies()[0];
                 }
-
-                FreqVolPair[] periodogram = Model.getPeriodogramFromPcmData(pcm);   // get fft of pcm data
-                FreqVolPair max = FreqVolPair.maxVol(periodogram);
-                results[nSamplesTaken++] = max.freq();
+            } finally {
+                frames.close();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,121 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * A smooth curve through a value measured at each tested frequency (eg. the volume floor or ceiling), giving an
+ * estimate of that value at any frequency in between.
+ *
+ * The curve is a monotone piecewise cubic (Fritsch-Butland) in ln(freq): between two neighbouring tested frequencies
+ * it never goes above or below both of their values, so it can't invent a dip or peak that wasn't measured, but unlike
+ * a straight line it has no corners at the tested frequencies. Frequencies below the lowest or above the highest
+ * tested frequency get the value of the nearest one.
+ *
+ * Building the curve is O(n log n) for n tested frequencies; evaluating it is O(log n) with no allocation
+ */
+public class AudiogramCurve {
+
+    /**
+     * ln(freq) of each tested frequency in ascending order, the value at each, and the slope of the curve there
+     */
+    private final double[] x, y, slopes;
+
+    /**
+     * @param freqs The tested frequencies, in any order
+     * @param values The value measured at each frequency
+     * @param n The number of frequencies. If a frequency is repeated, only its first value is used
+     * @throws IllegalStateException If n == 0
+     */
+    public AudiogramCurve(float[] freqs, double[] values, int n) throws IllegalStateException {
+        if (n == 0) throw new IllegalStateException("No results to build a curve from");
+
+        // stable insertion sort: there are only ever a handful of tested frequencies
+        float[] sortedFreqs = Arrays.copyOf(freqs, n);
+        double[] sortedValues = Arrays.copyOf(values, n);
+        for (int i = 1; i < n; i++) {
+            float f = sortedFreqs[i];
+            double v = sortedValues[i];
+            int j = i - 1;
+            for (; j >= 0 && sortedFreqs[j] > f; j--) {
+                sortedFreqs[j + 1] = sortedFreqs[j];
+                sortedValues[j + 1] = sortedValues[j];
+            }
+            sortedFreqs[j + 1] = f;
+            sortedValues[j + 1] = v;
+        }
+
+        int nUnique = 0;
+        double[] x = new double[n], y = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && sortedFreqs[i] == sortedFreqs[i - 1]) continue;
+            x[nUnique] = Math.log(sortedFreqs[i]);
+            y[nUnique++] = sortedValues[i];
+        }
+        this.x = Arrays.copyOf(x, nUnique);
+        this.y = Arrays.copyOf(y, nUnique);
+        this.slopes = findSlopes(this.x, this.y);
+    }
+
+    /**
+     * @return The slope of the curve at each point: the one-sided secant at the ends, and inside a weighted harmonic
+     * mean of the secants on either side (or 0 at a local minimum or maximum), which keeps each piece monotone
+     */
+    private static double[] findSlopes(double[] x, double[] y) {
+        int n = x.length;
+        double[] slopes = new double[n];
+        if (n < 2) return slopes;
+
+        double[] secants = new double[n - 1];
+        for (int i = 0; i < n - 1; i++) secants[i] = (y[i + 1] - y[i]) / (x[i + 1] - x[i]);
+
+        slopes[0] = secants[0];
+        slopes[n - 1] = secants[n - 2];
+        for (int i = 1; i < n - 1; i++) {
+            double before = secants[i - 1], after = secants[i];
+            if (before * after <= 0) continue;
+            double hBefore = x[i] - x[i - 1], hAfter = x[i + 1] - x[i];
+            double wBefore = 2 * hAfter + hBefore, wAfter = hAfter + 2 * hBefore;
+            slopes[i] = (wBefore + wAfter) / (wBefore / before + wAfter / after);
+        }
+        return slopes;
+    }
+
+    /**
+     * @return The estimated value at the given frequency, which is exactly the measured value at a tested frequency
+     */
+    public double value(float freq) {
+        double[] x = this.x, y = this.y;
+        double logFreq = Math.log(freq);
+        int last = x.length - 1;
+        if (! (logFreq > x[0])) return y[0];  // also catches freq <= 0
+        if (logFreq >= x[last]) return y[last];
+
+        int i = Arrays.binarySearch(x, logFreq);
+        if (i >= 0) return y[i];
+        i = -(i + 1) - 1;  // the point just below logFreq
+
+        double h = x[i + 1] - x[i];
+        double t = (logFreq - x[i]) / h;
+        double t2 = t * t, t3 = t2 * t;
+        return (2 * t3 - 3 * t2 + 1) * y[i] + (t3 - 2 * t2 + t) * h * this.slopes[i]
+                + (3 * t2 - 2 * t3) * y[i + 1] + (t3 - t2) * h * this.slopes[i + 1];
+    }
+
+    /**
+     * @return The number of distinct frequencies the curve passes through
+     */
+    public int size() {
+        return this.x.length;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Audiogram curve:");
+        for (int i = 0; i < this.x.length; i++)
+            builder.append(String.format(" %.1f Hz = %.4f;", Math.exp(this.x[i]), this.y[i]));
+        return builder.toString();
+    }
+}
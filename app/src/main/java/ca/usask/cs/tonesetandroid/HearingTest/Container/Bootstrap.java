@@ -0,0 +1,188 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+
+/**
+ * Estimates how much the predictions of a PredictorResults could change due to chance in the trials it was built
+ * from, using the percentile bootstrap: the trial outcomes are resampled with replacement many times (see
+ * PredictorResults.resampleFrom()), the predictions are recomputed from each resample, and the interval containing
+ * the middle (level * 100)% of the recomputed predictions is reported for each tone.
+ *
+ * Resamples are split between tasks on a ForkJoinPool. Each task resamples into its own buffer, reused for all of its
+ * resamples, and writes its predictions into its own rows of one shared array, so no results are shared between
+ * threads. The random numbers of each task are seeded from the Bootstrap's seed and the task's first resample, so the
+ * intervals are the same every time for the same seed
+ */
+public class Bootstrap {
+
+    public static final int DEFAULT_N_RESAMPLES = 1000;
+
+    public static final double DEFAULT_LEVEL = 0.95;
+
+    /**
+     * The most resamples done by a single task before it splits its work in two
+     */
+    private static final int RESAMPLES_PER_TASK = 50;
+
+    private final ForkJoinPool pool;
+
+    public final int nResamples;
+
+    private final long seed;
+
+    /**
+     * @param pool The pool on which to run the resamples
+     * @param nResamples The number of resamples per interval
+     * @param seed The seed for the random resampling
+     */
+    public Bootstrap(ForkJoinPool pool, int nResamples, long seed) {
+        this.pool = pool;
+        this.nResamples = nResamples;
+        this.seed = seed;
+    }
+
+    /**
+     * Find intervals for the probability of hearing each of the given tones, waiting for the result
+     *
+     * @param results The results to make predictions with
+     * @param tones The tones whose probabilities are to be estimated (by frequency and volume, as with
+     *              PredictorResults.getProbabilities())
+     * @param level The proportion of resampled predictions inside each interval, eg. 0.95
+     * @return The estimate and interval for each tone
+     * @throws IllegalStateException If the results are empty
+     */
+    public Estimate[] getProbabilities(PredictorResults results, Tone[] tones, double level)
+            throws IllegalStateException {
+        int n = tones.length;
+        float[] freqs = new float[n];
+        double[] vols = new double[n];
+        for (int i = 0; i < n; i++) {
+            freqs[i] = tones[i].freq();
+            vols[i] = tones[i].vol();
+        }
+        return this.getProbabilities(results, freqs, vols, n, level);
+    }
+
+    /**
+     * Find intervals for the probability of hearing the first n tones given by freqs and vols, waiting for the result
+     *
+     * @see #getProbabilities(PredictorResults, Tone[], double)
+     */
+    public Estimate[] getProbabilities(PredictorResults results, float[] freqs, double[] vols, int n, double level)
+            throws IllegalStateException {
+        double[] estimates = new double[n];
+        results.getProbabilities(freqs, vols, estimates, n);
+
+        // resampled predictions, [resample][tone] flattened
+        double[] resampled = new double[this.nResamples * n];
+        this.pool.invoke(new ResampleTask(results, freqs, vols, n, resampled, 0, this.nResamples));
+
+        Estimate[] out = new Estimate[n];
+        double[] column = new double[this.nResamples];
+        double tail = (1 - level) / 2;
+        for (int i = 0; i < n; i++) {
+            for (int r = 0; r < this.nResamples; r++) column[r] = resampled[r * n + i];
+            Arrays.sort(column);
+            out[i] = new Estimate(estimates[i], percentile(column, tail), percentile(column, 1 - tail));
+        }
+        return out;
+    }
+
+    /**
+     * @return The value below which the given proportion of the sorted values lie, interpolating between neighbours
+     */
+    private static double percentile(double[] sorted, double proportion) {
+        double position = proportion * (sorted.length - 1);
+        int below = (int) Math.floor(position);
+        if (below >= sorted.length - 1) return sorted[sorted.length - 1];
+        return sorted[below] + (position - below) * (sorted[below + 1] - sorted[below]);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A predicted probability and the bootstrap interval around it
+     */
+    public static class Estimate {
+
+        /**
+         * The prediction from the original results
+         */
+        public final double estimate;
+
+        /**
+         * The bounds of the interval
+         */
+        public final double lower, upper;
+
+        public Estimate(double estimate, double lower, double upper) {
+            this.estimate = estimate;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        @NonNull
+        public String toString() {
+            return String.format("%.4f [%.4f, %.4f]", this.estimate, this.lower, this.upper);
+        }
+    }
+
+    /**
+     * Does resamples [first, first + count), splitting in half until the chunks are small enough
+     */
+    private class ResampleTask extends RecursiveAction {
+
+        private final PredictorResults results;
+
+        private final float[] freqs;
+
+        private final double[] vols;
+
+        private final int n;
+
+        private final double[] out;
+
+        private final int first;
+
+        private final int count;
+
+        private ResampleTask(PredictorResults results, float[] freqs, double[] vols, int n, double[] out,
+                             int first, int count) {
+            this.results = results;
+            this.freqs = freqs;
+            this.vols = vols;
+            this.n = n;
+            this.out = out;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.count > RESAMPLES_PER_TASK) {
+                int half = this.count / 2;
+                invokeAll(new ResampleTask(this.results, this.freqs, this.vols, this.n, this.out, this.first, half),
+                          new ResampleTask(this.results, this.freqs, this.vols, this.n, this.out,
+                                           this.first + half, this.count - half));
+                return;
+            }
+
+            Random random = new Random(seed ^ (this.first * 0x9E3779B97F4A7C15L));
+            PredictorResults buffer = this.results.newResampleBuffer();
+            double[] row = new double[this.n];
+            for (int r = this.first; r < this.first + this.count; r++) {
+                buffer.resampleFrom(this.results, random);
+                buffer.getProbabilities(this.freqs, this.vols, row, this.n);
+                System.arraycopy(row, 0, this.out, r * this.n, this.n);
+            }
+        }
+    }
+}
@@ -6,16 +6,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
-import java.util.ListIterator;
-import java.util.NoSuchElementException;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
-import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolDurTrio;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Interval;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Melody;
@@ -30,11 +28,33 @@ import ca.usask.cs.tonesetandroid.UtilFunctions;
  */
 public class CalibrationTestResults extends PredictorResults {
 
+    // identifiers for the ways of estimating the probability of hearing a tone at a tested frequency
+    /**
+     * Estimate linearly between the proportions heard at the tested volumes just above and below
+     */
+    public static final int MODEL_INTERPOLATED = 0;
+    /**
+     * Evaluate a logistic psychometric function fitted to all the volumes tested (see PsychometricFit)
+     */
+    public static final int MODEL_LOGISTIC = 1;
+
     /**
      * Each frequency tested mapped to its corresponding SingleFreqResult
      */
     private HashMap<Float, HearingTestSingleFreqResult> allResults;
 
+    /**
+     * The results in allResults sorted by frequency, or null if it needs to be rebuilt. Only needs rebuilding when a
+     * new frequency is added, since the result for each frequency is updated in place
+     */
+    private FreqIndex freqIndex = null;
+
+    /**
+     * The volume floor and ceiling across all frequencies, or null if they haven't been built since the results last
+     * changed
+     */
+    private AudiogramCurve floorCurve = null, ceilingCurve = null;
+
     public CalibrationTestResults(BackgroundNoiseType backgroundNoise, String testTypeName) {
         super(backgroundNoise, testTypeName);
         allResults = new HashMap<>();
@@ -48,13 +68,35 @@ public class CalibrationTestResults extends PredictorResults {
      */
     @SuppressWarnings("ConstantConditions")
     public void addResult(Tone tone, boolean heard) {
+        this.resultsChanged();
         try {
             allResults.get(tone.freq()).addResult(tone.vol(), heard);
         } catch (NullPointerException e) {
             HearingTestSingleFreqResult r = new HearingTestSingleFreqResult(tone.freq());
             r.addResult(tone.vol(), heard);
-            allResults.put(tone.freq(), r);
+            this.putResult(r);
+        }
+    }
+
+    /**
+     * Add a result for a frequency that isn't already in allResults (or replace the existing one)
+     */
+    private void putResult(HearingTestSingleFreqResult result) {
+        this.allResults.put(result.freq, result);
+        this.freqIndex = null;
+        this.resultsChanged();
+    }
+
+    /**
+     * @return The index of the results in allResults, building it first if necessary
+     */
+    private FreqIndex getFreqIndex() {
+        FreqIndex index = this.freqIndex;
+        if (index == null) {
+            index = new FreqIndex(this.allResults.values());
+            this.freqIndex = index;
         }
+        return index;
     }
 
     @Override
@@ -70,23 +112,108 @@ public class CalibrationTestResults extends PredictorResults {
      */
     @Override
     public double getProbability(Tone tone) throws IllegalStateException {
-        Float[] testedFreqs = this.getTestedFreqs();
-        float[] testedFreqsPrimitive = new float[testedFreqs.length];  // JAVA WHY???
-        for (int i = 0; i < testedFreqs.length; i++) testedFreqsPrimitive[i] = testedFreqs[i];
-        return getProbability(tone.freq(), tone.vol(), testedFreqsPrimitive);
+        return this.getProbability(tone.freq(), tone.vol());
+    }
+
+    /**
+     * @return The probability of hearing the given tone according to a logistic psychometric function fitted at
+     * each tested frequency, estimated linearly between frequencies in the same way as getProbability()
+     */
+    public double getProbabilityLogistic(Tone tone) throws IllegalStateException {
+        return this.getProbability(tone.freq(), tone.vol(), MODEL_LOGISTIC);
+    }
+
+    /**
+     * Return the probability of hearing a tone of the given frequency and volume, estimated linearly between the
+     * results for the tested frequencies just above and below it (or the result for freq itself if it was tested)
+     *
+     * @throws IllegalStateException If there are no results
+     */
+    public float getProbability(float freq, double vol) throws IllegalStateException {
+        return this.getProbability(freq, vol, MODEL_INTERPOLATED);
+    }
+
+    /**
+     * Return the probability of hearing a tone of the given frequency and volume, estimated linearly between the
+     * results for the tested frequencies just above and below it (or the result for freq itself if it was tested)
+     *
+     * @param model How to estimate the probability at each tested frequency (one of MODEL_*)
+     * @throws IllegalStateException If there are no results
+     */
+    public float getProbability(float freq, double vol, int model) throws IllegalStateException {
+        FreqIndex index = this.getFreqIndex();
+        if (index.freqs.length == 0) throw new IllegalStateException("No calibration results");
+        return getProbability(index, Arrays.binarySearch(index.freqs, freq), freq, vol, model);
+    }
+
+    @Override
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n) throws IllegalStateException {
+        this.getProbabilities(freqs, vols, out, n, MODEL_INTERPOLATED);
+    }
+
+    @Override
+    public String[] getModelNames() {
+        return new String[]{"interpolated", "logistic"};
+    }
+
+    /**
+     * Estimate the probability of hearing each of n sines, ie. out[i] = getProbability(freqs[i], vols[i], model). Each
+     * search for the tested frequencies either side of freqs[i] first checks the bracket found for freqs[i - 1], so
+     * when freqs are sorted (or repeated, as in a melody) most lookups skip the binary search
+     *
+     * @param model How to estimate the probability at each tested frequency (one of MODEL_*)
+     * @throws IllegalStateException If there are no results
+     */
+    @Override
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n, int model)
+            throws IllegalStateException {
+        FreqIndex index = this.getFreqIndex();
+        float[] tested = index.freqs;
+        if (tested.length == 0) throw new IllegalStateException("No calibration results");
+
+        int pos = -1;  // as returned by Arrays.binarySearch: the index of a tested freq, or -(insertion point) - 1
+        for (int i = 0; i < n; i++) {
+            float freq = freqs[i];
+            if (! inBracket(tested, pos, freq)) pos = Arrays.binarySearch(tested, freq);
+            out[i] = getProbability(index, pos, freq, vols[i], model);
+        }
+    }
+
+    /**
+     * @return True if pos (as returned by Arrays.binarySearch) is also the result of searching tested for freq
+     */
+    private static boolean inBracket(float[] tested, int pos, float freq) {
+        if (pos >= 0) return tested[pos] == freq;
+        int above = -pos - 1;
+        return (above == 0 || tested[above - 1] < freq) && (above == tested.length || freq < tested[above]);
+    }
+
+    /**
+     * @param pos The result of Arrays.binarySearch(index.freqs, freq)
+     * @return The probability of hearing the given tone, interpolated between the results either side of pos
+     */
+    private static float getProbability(FreqIndex index, int pos, float freq, double vol, int model) {
+        int n = index.freqs.length;
+        if (pos >= 0) return index.results[pos].getProbOfHearing(vol, model);
+
+        // if freq is higher than the highest or lower than the lowest, return the probability of the nearest
+        int above = -pos - 1;
+        if (above == n) return index.results[n - 1].getProbOfHearing(vol, model);
+        if (above == 0) return index.results[0].getProbOfHearing(vol, model);
+
+        float freqBelow = index.freqs[above - 1], freqAbove = index.freqs[above];
+        float probBelow = index.results[above - 1].getProbOfHearing(vol, model);
+        float probAbove = index.results[above].getProbOfHearing(vol, model);
+        float pctBetween = (freq - freqBelow) / (freqAbove - freqBelow);
+        return probBelow + pctBetween * (probAbove - probBelow);
     }
 
     protected double getProbability(Interval tone) throws IllegalStateException {
-        double f1Prob = getProbability(new FreqVolPair(tone.freq(), tone.vol()));
-        double f2Prob = getProbability(new FreqVolPair(tone.freq2(), tone.vol()));
-        return UtilFunctions.mean(new double[]{f1Prob, f2Prob});
+        return this.getMeanProbability(tone);
     }
 
     protected double getProbability(Melody tone) {
-        FreqVolDurTrio[] tones = tone.getAudibleTones();
-        double[] probs = new double[tones.length];
-        for (int i = 0; i < tones.length; i++) probs[i] = this.getProbability(tones[i]);
-        return UtilFunctions.mean(probs);
+        return this.getMeanProbability(tone);
     }
 
     protected double getProbability(WavTone tone) {
@@ -97,14 +224,13 @@ public class CalibrationTestResults extends PredictorResults {
 
         float[][] topFreqs = Model.topNFrequencies(tone.wavID(), nAudioSamples, 3);
 
-        ArrayList<Number> probEstimates = new ArrayList<>();
-
+        float[] freqs = new float[nAudioSamples * nFreqsPerSample];
+        int n = 0;
         for (int i = 0; i < nAudioSamples; i++)
             for (int j = 0; j < nFreqsPerSample; j++)
-                if (topFreqs[i] != null && topFreqs[i][j] > 100)
-                    probEstimates.add(getProbability(new FreqVolPair(topFreqs[i][j], tone.vol())));
+                if (topFreqs[i] != null && topFreqs[i][j] > 100) freqs[n++] = topFreqs[i][j];
 
-        return UtilFunctions.mean(probEstimates);
+        return this.getMeanProbability(freqs, tone.vol(), n);
     }
 
     /**
@@ -178,6 +304,21 @@ public class CalibrationTestResults extends PredictorResults {
         }
     }
 
+    /**
+     * Returns the proportion of trials so far in which the given tone was heard. The counts are updated with each
+     * result, so this can be used while the test is still running
+     *
+     * @param freq The frequency of the tone
+     * @param vol The volume of the tone
+     * @return The proportion of trials of the tone in which it was heard
+     * @throws IllegalArgumentException If the tone has not been tested
+     */
+    public float getHitRate(float freq, double vol) throws IllegalArgumentException {
+        HearingTestSingleFreqResult result = this.allResults.get(freq);
+        if (result == null) throw new IllegalArgumentException("Frequency not present in results");
+        return result.getActualProb(vol);
+    }
+
     /**
      * Returns a list of all volumes tested for the given frequency
      *
@@ -216,21 +357,8 @@ public class CalibrationTestResults extends PredictorResults {
      * @param freq The frequency whose volume floor is to be estimated
      * @return An estimate of the volume floor for the given frequency
      */
-    @SuppressWarnings("ConstantConditions")
     public double getVolFloorEstimate(float freq) {
-        if (this.freqTested(freq)) return this.allResults.get(freq).getVolFloor();
-
-        float nearestBelow = UtilFunctions.findNearestBelow(freq, this.getTestedFreqs());
-        float nearestAbove = UtilFunctions.findNearestAbove(freq, this.getTestedFreqs());
-
-        if (nearestAbove == -1 || nearestBelow == -1)
-            return this.allResults.get(this.getNearestTestedFreq(freq)).getVolFloor();
-
-        float pctBetween = (freq - nearestBelow) / (nearestAbove - nearestBelow);
-        double floorBelow = this.allResults.get(nearestBelow).getVolFloor();
-        double floorAbove = this.allResults.get(nearestAbove).getVolFloor();
-
-        return floorBelow + (floorAbove - floorBelow) * pctBetween;
+        return this.getFloorCurve().value(freq);
     }
 
     /**
@@ -240,21 +368,82 @@ public class CalibrationTestResults extends PredictorResults {
      * @param freq The frequency whose volume ceiling is to be estimated
      * @return An estimate of the volume ceiling for the given frequency
      */
-    @SuppressWarnings("ConstantConditions")
     public double getVolCeilingEstimate(float freq) {
-        if (this.freqTested(freq)) return this.allResults.get(freq).getVolCeiling();
+        return this.getCeilingCurve().value(freq);
+    }
+
+    /**
+     * @return A curve through the volume floor of each tested frequency, building it first if necessary
+     * @throws IllegalStateException If there are no results stored in this container
+     */
+    public AudiogramCurve getFloorCurve() throws IllegalStateException {
+        AudiogramCurve curve = this.floorCurve;
+        if (curve == null) {
+            FreqIndex index = this.getFreqIndex();
+            double[] floors = new double[index.freqs.length];
+            for (int i = 0; i < floors.length; i++) floors[i] = index.results[i].getVolFloor();
+            curve = new AudiogramCurve(index.freqs, floors, floors.length);
+            this.floorCurve = curve;
+        }
+        return curve;
+    }
 
-        float nearestBelow = UtilFunctions.findNearestBelow(freq, this.getTestedFreqs());
-        float nearestAbove = UtilFunctions.findNearestAbove(freq, this.getTestedFreqs());
+    /**
+     * @return A curve through the volume ceiling of each tested frequency, building it first if necessary
+     * @throws IllegalStateException If there are no results stored in this container
+     */
+    public AudiogramCurve getCeilingCurve() throws IllegalStateException {
+        AudiogramCurve curve = this.ceilingCurve;
+        if (curve == null) {
+            FreqIndex index = this.getFreqIndex();
+            double[] ceilings = new double[index.freqs.length];
+            for (int i = 0; i < ceilings.length; i++) ceilings[i] = index.results[i].getVolCeiling();
+            curve = new AudiogramCurve(index.freqs, ceilings, ceilings.length);
+            this.ceilingCurve = curve;
+        }
+        return curve;
+    }
 
-        if (nearestAbove == -1 || nearestBelow == -1)
-            return this.allResults.get(this.getNearestTestedFreq(freq)).getVolCeiling();
+    @Override
+    protected void resultsChanged() {
+        super.resultsChanged();
+        this.floorCurve = null;
+        this.ceilingCurve = null;
+    }
 
-        float pctBetween = (freq - nearestBelow) / (nearestAbove - nearestBelow);
-        double floorBelow = this.allResults.get(nearestBelow).getVolCeiling();
-        double floorAbove = this.allResults.get(nearestAbove).getVolCeiling();
+    /**
+     * Both models are linear in frequency between the tested frequencies and constant outside them, so nodes at the
+     * tested frequencies and the ends of the grid's range make every cell exact along the frequency axis
+     */
+    @Override
+    protected float[] getGridFreqs(int model) {
+        float[] tested = this.getFreqIndex().freqs;
+        float[] nodes = Arrays.copyOf(tested, tested.length + 2);
+        nodes[tested.length] = ProbabilityGrid.MIN_FREQ;
+        nodes[tested.length + 1] = ProbabilityGrid.MAX_FREQ;
+        return ProbabilityGrid.sortedUnique(nodes);
+    }
 
-        return floorBelow + (floorAbove - floorBelow) * pctBetween;
+    /**
+     * The interpolated model is linear in volume between the volumes tested at each frequency and constant outside
+     * them, so with a node at every volume tested at any frequency (and the ends of the grid's range) its grid is
+     * exact. The logistic model gets those nodes along with the default log-spaced ones
+     */
+    @Override
+    protected double[] getGridVols(int model) {
+        FreqIndex index = this.getFreqIndex();
+        int nTested = 0;
+        for (HearingTestSingleFreqResult result : index.results) nTested += result.nVols;
+        double[] tested = new double[nTested + 2];
+        int n = 0;
+        for (HearingTestSingleFreqResult result : index.results) {
+            System.arraycopy(result.vols, 0, tested, n, result.nVols);
+            n += result.nVols;
+        }
+        if (model != MODEL_INTERPOLATED) return ProbabilityGrid.logSpacedVols(Arrays.copyOf(tested, nTested));
+        tested[n] = ProbabilityGrid.MIN_VOL;
+        tested[n + 1] = ProbabilityGrid.MAX_VOL;
+        return ProbabilityGrid.sortedUnique(tested);
     }
 
     public double getVolFloorEstimateForEarcon(int wavResId) {
@@ -292,20 +481,21 @@ public class CalibrationTestResults extends PredictorResults {
      * @return The tested frequency nearest to nearestTo
      */
     public float getNearestTestedFreq(float nearestTo) {
-        float curClosest = -1;
-        float minDiff = Float.MAX_VALUE;
-        for (float f : this.allResults.keySet())
-            if (Math.abs(f - nearestTo) < minDiff) {
-                curClosest = f;
-                minDiff = Math.abs(f - nearestTo);
-            }
-        if (curClosest == -1) throw new RuntimeException("Found unexpected value -1");
-        return curClosest;
+        float[] freqs = this.getFreqIndex().freqs;
+        if (freqs.length == 0) throw new RuntimeException("Found unexpected value -1");
+        int i = Arrays.binarySearch(freqs, nearestTo);
+        if (i >= 0) return freqs[i];
+
+        int above = -i - 1;
+        if (above == freqs.length) return freqs[above - 1];
+        if (above == 0) return freqs[0];
+        return nearestTo - freqs[above - 1] <= freqs[above] - nearestTo ? freqs[above - 1] : freqs[above];
     }
 
     /**
      * Return a new CalibrationTestResults with the same results as this one, but only containing the first n
-     * results for each frequency-volume pair (ie. as though Model.NUMBER_OF_TESTS_PER_VOL == n)
+     * results for each frequency-volume pair (ie. as though Model.NUMBER_OF_TESTS_PER_VOL == n). Pairs tested fewer
+     * than n times keep all their results
      *
      * @param n The number of trials per freq-vol pair in the new container
      * @return A new container containing a subset of this one's results
@@ -319,18 +509,114 @@ public class CalibrationTestResults extends PredictorResults {
 
         CalibrationTestResults newContainer = new CalibrationTestResults(this.getNoiseType(), this.getTestTypeName());
         for (HearingTestSingleFreqResult htsr : this.allResults.values())
-            newContainer.allResults.put(htsr.freq, htsr.getSubsetResult(n));
+            newContainer.putResult(htsr.getSubsetResult(n));
         return newContainer;
     }
 
     /**
-     * @return The number of trials in this hearing test (assumes all FVPs tested equal number of times)
+     * Return a new CalibrationTestResults for k-fold cross-validation over trials: the t'th trial at each frequency,
+     * counting in the order the trials were done whatever their volumes, belongs to fold (t % nFolds). Each fold gets
+     * an even share of every frequency even when most volumes were only tested once (eg. in an adaptive test)
+     *
+     * @param nFolds The number of folds
+     * @param fold The fold to select
+     * @param inFold If true, keep only the trials in the given fold (the holdout set), otherwise keep every trial
+     *               except those (the training set)
+     * @return A new container containing the selected trials
+     */
+    public CalibrationTestResults getFoldResults(int nFolds, int fold, boolean inFold) {
+        CalibrationTestResults newContainer = new CalibrationTestResults(this.getNoiseType(), this.getTestTypeName());
+        for (HearingTestSingleFreqResult htsr : this.allResults.values()) {
+            HearingTestSingleFreqResult selected = htsr.getFoldResult(nFolds, fold, inFold);
+            if (selected.nVols > 0) newContainer.putResult(selected);
+        }
+        return newContainer;
+    }
+
+    /**
+     * Return a new CalibrationTestResults containing only the results for the given frequencies, so that any model
+     * can be evaluated as though only those frequencies were tested (see also getProbability(freq, vol, subset))
+     *
+     * @param subset A subset of the tested frequencies
+     * @return A new container containing copies of the results for those frequencies
+     * @throws IllegalArgumentException If the given subset is not a subset of the tested frequencies
+     */
+    public CalibrationTestResults getFrequencySubsetResults(float[] subset) throws IllegalArgumentException {
+        CalibrationTestResults newContainer = new CalibrationTestResults(this.getNoiseType(), this.getTestTypeName());
+        for (float freq : subset) {
+            HearingTestSingleFreqResult htsr = this.allResults.get(freq);
+            if (htsr == null)
+                throw new IllegalArgumentException("Subset argument must be a subset of tested frequencies");
+            newContainer.putResult(htsr.getSubsetResult(Integer.MAX_VALUE));
+        }
+        return newContainer;
+    }
+
+    /**
+     * @return The number of distinct frequency-volume pairs tested
+     */
+    public int getNumTestedTones() {
+        int n = 0;
+        for (HearingTestSingleFreqResult htsr : this.allResults.values()) n += htsr.nVols;
+        return n;
+    }
+
+    /**
+     * Copy every frequency-volume pair tested and the number of trials in which it was and wasn't heard into the
+     * given arrays, which must have at least getNumTestedTones() elements
+     *
+     * @return The number of pairs copied
+     */
+    public int getTestedTones(float[] freqs, double[] vols, int[] nHeard, int[] nNotHeard) {
+        int n = 0;
+        for (HearingTestSingleFreqResult htsr : this.allResults.values()) {
+            for (int i = 0; i < htsr.nVols; i++) {
+                freqs[n] = htsr.freq;
+                vols[n] = htsr.vols[i];
+                nHeard[n] = htsr.timesHeard[i];
+                nNotHeard[n++] = htsr.timesNotHeard[i];
+            }
+        }
+        return n;
+    }
+
+    @Override
+    protected PredictorResults newResampleBuffer() {
+        CalibrationTestResults buffer = new CalibrationTestResults(this.getNoiseType(), this.getTestTypeName());
+        for (HearingTestSingleFreqResult htsr : this.allResults.values())
+            buffer.putResult(htsr.getSubsetResult(Integer.MAX_VALUE));
+        return buffer;
+    }
+
+    /**
+     * Resample the trials at each frequency-volume pair with replacement, keeping the number of trials of each
+     */
+    @Override
+    protected void resampleFrom(PredictorResults original, Random random) {
+        CalibrationTestResults calibOriginal = (CalibrationTestResults) original;
+        for (HearingTestSingleFreqResult htsr : this.allResults.values())
+            htsr.resampleFrom(calibOriginal.allResults.get(htsr.freq), random);
+        this.resultsChanged();
+    }
+
+    /**
+     * @return The most trials at any one frequency-volume pair, ie. the number of trials per pair for a test that
+     * played every pair the same number of times, or 0 if there are no results
      */
-    @SuppressWarnings("ConstantConditions")
     public int getNumOfTrials() {
-        HearingTestSingleFreqResult aResult = this.allResults.get(this.getTestedFreqs()[0]);
-        double aVol = aResult.getVolumes().iterator().next();
-        return aResult.getNumSamples(aVol);
+        int max = 0;
+        for (HearingTestSingleFreqResult htsr : this.allResults.values()) max = Math.max(max, htsr.getMaxNumSamples());
+        return max;
+    }
+
+    /**
+     * @return The fewest trials at any one tested frequency (over all its volumes), or 0 if there are no results
+     */
+    public int getMinTrialsPerFreq() {
+        if (this.allResults.isEmpty()) return 0;
+        int min = Integer.MAX_VALUE;
+        for (HearingTestSingleFreqResult htsr : this.allResults.values()) min = Math.min(min, htsr.getNumTrials());
+        return min;
     }
 
     @Override
@@ -344,43 +630,136 @@ public class CalibrationTestResults extends PredictorResults {
 
     @Override
     public String getPredictionString(Tone tone) {
-        return String.format("%s: %.4f",
-                this.getTestIdentifier(), this.getFormattedStartTime(), this.getProbability(tone));
+        return String.format("%s: interpolated %.4f logistic %.4f",
+                this.getTestIdentifier(), this.getProbability(tone), this.getProbabilityLogistic(tone));
+    }
+
+    @Override
+    public String[] getPredictionStrings(Tone[] tones) {
+        int n = tones.length;
+        float[] freqs = new float[n];
+        double[] vols = new double[n], interpolated = new double[n], logistic = new double[n];
+        for (int i = 0; i < n; i++) {
+            freqs[i] = tones[i].freq();
+            vols[i] = tones[i].vol();
+        }
+        this.getProbabilities(freqs, vols, interpolated, n, MODEL_INTERPOLATED);
+        this.getProbabilities(freqs, vols, logistic, n, MODEL_LOGISTIC);
+
+        String[] predictions = new String[n];
+        for (int i = 0; i < n; i++)
+            predictions[i] = String.format("%s: interpolated %.4f logistic %.4f",
+                                           this.getTestIdentifier(), interpolated[i], logistic[i]);
+        return predictions;
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
+    /**
+     * The tested frequencies in ascending order as primitives, and the result for each frequency at the same position,
+     * so that the results on either side of any frequency can be found by binary search without boxing
+     */
+    private class FreqIndex {
+
+        private final float[] freqs;
+
+        private final HearingTestSingleFreqResult[] results;
+
+        private FreqIndex(Collection<HearingTestSingleFreqResult> unsorted) {
+            HearingTestSingleFreqResult[] sorted = new HearingTestSingleFreqResult[unsorted.size()];
+            unsorted.toArray(sorted);
+            Arrays.sort(sorted, new Comparator<HearingTestSingleFreqResult>() {
+                @Override
+                public int compare(HearingTestSingleFreqResult r1, HearingTestSingleFreqResult r2) {
+                    return Float.compare(r1.freq, r2.freq);
+                }
+            });
+            this.results = sorted;
+            this.freqs = new float[sorted.length];
+            for (int i = 0; i < sorted.length; i++) this.freqs[i] = sorted[i].freq;
+        }
+    }
+
     /**
      * A class for storing the hearing test results for a single frequency at multiple volumes
      */
     protected class HearingTestSingleFreqResult {
 
+        /**
+         * The number of volumes that can be stored before the arrays have to grow
+         */
+        private static final int INITIAL_VOL_CAPACITY = 8;
+
+        /**
+         * The number of trials at one volume that can be numbered before its array of trial numbers has to grow
+         */
+        private static final int INITIAL_TRIAL_CAPACITY = 4;
+
+        /**
+         * The floor and ceiling can only be read from the trials themselves if every volume was tested at least this
+         * many times; with fewer (eg. after an AdaptiveSineCalibrationTest, which rarely repeats a volume) they are
+         * the volumes at which a logistic fit gives FLOOR_PROBABILITY and CEILING_PROBABILITY
+         */
+        private static final int MIN_TRIALS_FOR_OBSERVED_BOUNDS = 2;
+
+        private static final double FLOOR_PROBABILITY = 0.1, CEILING_PROBABILITY = 0.9;
+
         /**
          * The frequency of the tones that this result represents
          */
         private final float freq;
 
         /**
-         * Each volume at which this frequency was tested mapped to the number of trials in which it was heard
+         * Each volume at which this frequency was tested, in ascending order. Only the first nVols elements of this and
+         * the arrays parallel to it are used; they grow as new volumes are tested
+         */
+        private double[] vols;
+
+        /**
+         * The number of trials at each volume in which the tone was heard / not heard
+         */
+        private int[] timesHeard, timesNotHeard;
+
+        /**
+         * The user's responses to the trials at each volume in order: bit j of outcomes[i] is set if the tone was heard
+         * in trial j at vols[i]
+         */
+        private long[][] outcomes;
+
+        /**
+         * The order of the trials: trialNumbers[i][j] is the position of trial j at vols[i] among all nTrials trials at
+         * this frequency, counting from 0
+         */
+        private int[][] trialNumbers;
+
+        private int nVols = 0, nTrials = 0;
+
+        /**
+         * The index in vols of the current volume floor (the largest volume never heard) and ceiling (the smallest
+         * volume never missed), or -1 if there is no such volume. Kept up to date by addResult() so that reading the
+         * floor and ceiling never requires a scan
          */
-        private HashMap<Double, Integer> timesHeardPerVol;  // do not mutate these maps except in addResult()
+        private int floorIndex = -1, ceilingIndex = -1;
 
         /**
-         * Each volume at which this frequency was tested mapped to the number of trials in which it was not heard
+         * A logistic curve fitted to the results for this frequency, or null if it hasn't been fitted since the last
+         * new result
          */
-        private HashMap<Double, Integer> timesNotHeardPerVol;
+        private PsychometricFit logisticFit = null;
 
         /**
-         * Each volume at which this frequency was tested mapped to a list containing the user's responses to each
-         * trial in order
+         * A fit with a positive slope from which the floor and ceiling are read when the volumes weren't repeated
+         * enough (see MIN_TRIALS_FOR_OBSERVED_BOUNDS), or null if it hasn't been fitted since the last new result
          */
-        private HashMap<Double, List<Boolean>> testResultsPerVol;
+        private PsychometricFit boundsFit = null;
 
         private HearingTestSingleFreqResult(float freq) {
             this.freq = freq;
-            this.timesHeardPerVol = new HashMap<>();
-            this.timesNotHeardPerVol = new HashMap<>();
-            this.testResultsPerVol = new HashMap<>();
+            this.vols = new double[INITIAL_VOL_CAPACITY];
+            this.timesHeard = new int[INITIAL_VOL_CAPACITY];
+            this.timesNotHeard = new int[INITIAL_VOL_CAPACITY];
+            this.outcomes = new long[INITIAL_VOL_CAPACITY][];
+            this.trialNumbers = new int[INITIAL_VOL_CAPACITY][];
         }
 
         /**
@@ -389,21 +768,80 @@ public class CalibrationTestResults extends PredictorResults {
          * @param vol The volume of the trial
          * @param heard Was the tone heard in the trial?
          */
-        @SuppressWarnings("ConstantConditions")
         public void addResult(double vol, boolean heard) {
-            // update testResultsPerVol
-            if (!testResultsPerVol.containsKey(vol)) testResultsPerVol.put(vol, new ArrayList<Boolean>());
+            this.logisticFit = null;
+            this.boundsFit = null;
+
+            int i = Arrays.binarySearch(this.vols, 0, this.nVols, vol);
+            if (i < 0) {
+                i = -(i + 1);
+                this.insertVolume(i, vol);
+            }
+
+            int trial = this.timesHeard[i] + this.timesNotHeard[i];
+            int[] numbers = this.trialNumbers[i];
+            if (trial == numbers.length) this.trialNumbers[i] = numbers = Arrays.copyOf(numbers, numbers.length * 2);
+            numbers[trial] = this.nTrials++;
+            long[] bits = this.outcomes[i];
+            if (trial / 64 >= bits.length) this.outcomes[i] = bits = Arrays.copyOf(bits, bits.length * 2);
+            if (heard) {
+                bits[trial / 64] |= 1L << (trial % 64);
+                this.timesHeard[i]++;
+            } else {
+                this.timesNotHeard[i]++;
+            }
+            this.updateFloorAndCeiling(i);
+        }
+
+        /**
+         * Update floorIndex and ceilingIndex after a new trial at vols[i]. A volume can only leave the floor or ceiling
+         * the first time it gets the opposite response, so the search for a replacement is rare, and only covers the
+         * volumes below the old floor or above the old ceiling
+         */
+        private void updateFloorAndCeiling(int i) {
+            if (this.timesHeard[i] == 0) {
+                if (i > this.floorIndex) this.floorIndex = i;
+            } else if (i == this.floorIndex) {
+                int j = i - 1;
+                while (j >= 0 && this.timesHeard[j] != 0) j--;
+                this.floorIndex = j;
+            }
 
-            testResultsPerVol.get(vol).add(heard);
-            // update to timesHeard / timesNotHeard
-            if (heard)
-                if (timesHeardPerVol.containsKey(vol))
-                    timesHeardPerVol.put(vol, timesHeardPerVol.get(vol) + 1);
-                else timesHeardPerVol.put(vol, 1);
-            else
-                if (timesNotHeardPerVol.containsKey(vol))
-                    timesNotHeardPerVol.put(vol, timesNotHeardPerVol.get(vol) + 1);
-                else timesNotHeardPerVol.put(vol, 1);
+            if (this.timesNotHeard[i] == 0) {
+                if (this.ceilingIndex == -1 || i < this.ceilingIndex) this.ceilingIndex = i;
+            } else if (i == this.ceilingIndex) {
+                int j = i + 1;
+                while (j < this.nVols && this.timesNotHeard[j] != 0) j++;
+                this.ceilingIndex = j == this.nVols ? -1 : j;
+            }
+        }
+
+        /**
+         * Insert a new volume with no trials at index i, growing the arrays if necessary
+         */
+        private void insertVolume(int i, double vol) {
+            if (this.nVols == this.vols.length) {
+                int capacity = this.vols.length * 2;
+                this.vols = Arrays.copyOf(this.vols, capacity);
+                this.timesHeard = Arrays.copyOf(this.timesHeard, capacity);
+                this.timesNotHeard = Arrays.copyOf(this.timesNotHeard, capacity);
+                this.outcomes = Arrays.copyOf(this.outcomes, capacity);
+                this.trialNumbers = Arrays.copyOf(this.trialNumbers, capacity);
+            }
+            int nAfter = this.nVols - i;
+            System.arraycopy(this.vols, i, this.vols, i + 1, nAfter);
+            System.arraycopy(this.timesHeard, i, this.timesHeard, i + 1, nAfter);
+            System.arraycopy(this.timesNotHeard, i, this.timesNotHeard, i + 1, nAfter);
+            System.arraycopy(this.outcomes, i, this.outcomes, i + 1, nAfter);
+            System.arraycopy(this.trialNumbers, i, this.trialNumbers, i + 1, nAfter);
+            this.vols[i] = vol;
+            this.timesHeard[i] = 0;
+            this.timesNotHeard[i] = 0;
+            this.outcomes[i] = new long[1];
+            this.trialNumbers[i] = new int[INITIAL_TRIAL_CAPACITY];
+            this.nVols++;
+            if (this.floorIndex >= i) this.floorIndex++;
+            if (this.ceilingIndex >= i) this.ceilingIndex++;
         }
 
         /**
@@ -415,31 +853,55 @@ public class CalibrationTestResults extends PredictorResults {
          */
         public float getProbOfHearing(double vol) {
             // sanity check
-            if (testResultsPerVol.isEmpty()) throw new IllegalStateException("testResultsPerVol unexpectedly empty");
+            if (this.nVols == 0) throw new IllegalStateException("Results unexpectedly empty");
 
             // find volumes just above and below, or if they are smaller than the smallest or larger than the
             // largest, then return the probability of the nearest volume
-            double volBelow, volAbove;
-            try {
-                volBelow = UtilFunctions.findNearestBelow(vol, this.getVolumes());
-            } catch (IllegalArgumentException e) {
-                return this.getActualProb(UtilFunctions.findNearestAbove(vol, this.getVolumes()));
-            }
-            try {
-                volAbove = UtilFunctions.findNearestAbove(vol, this.getVolumes());
-            } catch (IllegalArgumentException e) {
-                return this.getActualProb(UtilFunctions.findNearestBelow(vol, this.getVolumes()));
-            }
+            int i = Arrays.binarySearch(this.vols, 0, this.nVols, vol);
+            if (i >= 0) return this.getActualProbAt(i);
+            int above = -(i + 1);
+            if (above == 0) return this.getActualProbAt(0);
+            if (above == this.nVols) return this.getActualProbAt(this.nVols - 1);
+            int below = above - 1;
 
             // what percentage of the way between volBelow and volAbove is vol?
-            float pctBetween = (float) (vol - volBelow) / (float) (volAbove - volBelow);
+            float pctBetween = (float) (vol - this.vols[below]) / (float) (this.vols[above] - this.vols[below]);
 
             // return value on the line between the probabilities of the volumes just above and below the given volume
-            float probOfVolBelow = this.getActualProb(volBelow);
-            float probOfVolAbove = this.getActualProb(volAbove);
+            float probOfVolBelow = this.getActualProbAt(below);
+            float probOfVolAbove = this.getActualProbAt(above);
             return probOfVolBelow + pctBetween * (probOfVolAbove - probOfVolBelow);
         }
 
+        /**
+         * Get the probability of hearing a tone of this.freq Hz at the given volume
+         *
+         * @param model How to estimate the probability (one of MODEL_*)
+         */
+        public float getProbOfHearing(double vol, int model) {
+            switch (model) {
+                case MODEL_INTERPOLATED:    return this.getProbOfHearing(vol);
+                case MODEL_LOGISTIC:        return (float) this.getLogisticFit().probability(vol);
+                default: throw new IllegalArgumentException("Unknown model: " + model);
+            }
+        }
+
+        /**
+         * @return A logistic curve fitted to all the results for this frequency. The fit is cached until the next
+         * call to addResult()
+         */
+        public PsychometricFit getLogisticFit() {
+            PsychometricFit fit = this.logisticFit;
+            if (fit == null) {
+                if (this.nVols == 0) throw new IllegalStateException("Results unexpectedly empty");
+                int[] nTrials = new int[this.nVols];
+                for (int i = 0; i < this.nVols; i++) nTrials[i] = this.timesHeard[i] + this.timesNotHeard[i];
+                fit = PsychometricFit.fitLogistic(this.vols, this.timesHeard, nTrials, this.nVols);
+                this.logisticFit = fit;
+            }
+            return fit;
+        }
+
         /**
          * Gets the actual probability found of hearing the given volume
          *
@@ -447,42 +909,69 @@ public class CalibrationTestResults extends PredictorResults {
          * @return The probability of hearing the volume
          * @throws IllegalArgumentException If the given volume was not tested
          */
-        @SuppressWarnings("ConstantConditions")
         public float getActualProb(double vol) throws IllegalArgumentException {
-            if (! this.getVolumes().contains(vol)) throw new IllegalArgumentException("Volume not present in results");
-            int timesHeard, timesNotHeard;
-            try {
-                timesHeard = timesHeardPerVol.get(vol);
-            } catch (NullPointerException e) {
-                timesHeard = 0;
-            }
-            try {
-                timesNotHeard = timesNotHeardPerVol.get(vol);
-            } catch (NullPointerException e) {
-                timesNotHeard = 0;
-            }
-            return (float) timesHeard / (float) (timesHeard + timesNotHeard);
+            int i = Arrays.binarySearch(this.vols, 0, this.nVols, vol);
+            if (i < 0) throw new IllegalArgumentException("Volume not present in results");
+            return this.getActualProbAt(i);
+        }
+
+        /**
+         * @return The proportion of trials at vols[i] in which the tone was heard
+         */
+        private float getActualProbAt(int i) {
+            return (float) this.timesHeard[i] / (float) (this.timesHeard[i] + this.timesNotHeard[i]);
         }
 
         /**
-         * @return The largest volume which was never heard, or the lowest tested volume if all were heard
+         * @return The largest volume which was never heard, or the lowest tested volume if all were heard. If the
+         * volumes weren't repeated enough for this to mean anything, the volume heard FLOOR_PROBABILITY of the time
+         * according to getBoundsFit() instead
          */
         public double getVolFloor() {
-            ArrayList<Double> unheardVols = new ArrayList<>();
-            for (double vol : this.getVolumes()) if (! timesHeardPerVol.containsKey(vol)) unheardVols.add(vol);
-            if (unheardVols.isEmpty()) return Collections.min(this.getVolumes());
-            else return Collections.max(unheardVols);
+            if (this.nVols == 0) throw new IllegalStateException("Results unexpectedly empty");
+            if (! this.volumesRepeated()) return this.getBoundsFit().volumeAt(FLOOR_PROBABILITY);
+            return this.floorIndex == -1 ? this.vols[0] : this.vols[this.floorIndex];
         }
 
         /**
          * @return The smallest volume which was heard in every trial, or the highest tested volume if none were
-         * heard every time
+         * heard every time. If the volumes weren't repeated enough for this to mean anything, the volume heard
+         * CEILING_PROBABILITY of the time according to getBoundsFit() instead
          */
         public double getVolCeiling() {
-            ArrayList<Double> alwaysHeardVols = new ArrayList<>();
-            for (double vol : this.getVolumes()) if (! timesNotHeardPerVol.containsKey(vol)) alwaysHeardVols.add(vol);
-            if (alwaysHeardVols.isEmpty()) return Collections.max(this.getVolumes());
-            else return Collections.min(alwaysHeardVols);
+            if (this.nVols == 0) throw new IllegalStateException("Results unexpectedly empty");
+            if (! this.volumesRepeated())
+                return Math.min(Short.MAX_VALUE, this.getBoundsFit().volumeAt(CEILING_PROBABILITY));
+            return this.ceilingIndex == -1 ? this.vols[this.nVols - 1] : this.vols[this.ceilingIndex];
+        }
+
+        /**
+         * @return True if every volume was tested at least MIN_TRIALS_FOR_OBSERVED_BOUNDS times
+         */
+        private boolean volumesRepeated() {
+            for (int i = 0; i < this.nVols; i++)
+                if (this.timesHeard[i] + this.timesNotHeard[i] < MIN_TRIALS_FOR_OBSERVED_BOUNDS) return false;
+            return true;
+        }
+
+        /**
+         * @return A logistic curve fitted to all the results for this frequency with PsychometricFit.fitThresholdSlope,
+         * whose slope is always positive so that the floor read from it is always below the ceiling. The fit is cached
+         * until the next call to addResult()
+         */
+        private PsychometricFit getBoundsFit() {
+            PsychometricFit fit = this.boundsFit;
+            if (fit == null) {
+                double[] logVols = new double[this.nVols];
+                int[] nTrials = new int[this.nVols];
+                for (int i = 0; i < this.nVols; i++) {
+                    logVols[i] = Math.log(this.vols[i]);
+                    nTrials[i] = this.timesHeard[i] + this.timesNotHeard[i];
+                }
+                fit = PsychometricFit.fitThresholdSlope(logVols, this.timesHeard, nTrials, this.nVols, null);
+                this.boundsFit = fit;
+            }
+            return fit;
         }
 
         /**
@@ -491,46 +980,106 @@ public class CalibrationTestResults extends PredictorResults {
          * @param vol The volume whose number of samples is to be returned
          * @return The number of times that the given volume was sampled
          */
-        @SuppressWarnings("ConstantConditions")
         public int getNumSamples(double vol) {
-            int heard, notHeard;
-            try {
-                heard = this.timesHeardPerVol.get(vol);
-            } catch (NullPointerException e) {
-                heard = 0;
-            }
-            try {
-                notHeard = this.timesNotHeardPerVol.get(vol);
-            } catch (NullPointerException e) {
-                notHeard = 0;
+            int i = Arrays.binarySearch(this.vols, 0, this.nVols, vol);
+            return i < 0 ? 0 : this.timesHeard[i] + this.timesNotHeard[i];
+        }
+
+        /**
+         * @return The most trials at any one volume tested at this frequency, or 0 if there are none
+         */
+        public int getMaxNumSamples() {
+            int max = 0;
+            for (int i = 0; i < this.nVols; i++) max = Math.max(max, this.timesHeard[i] + this.timesNotHeard[i]);
+            return max;
+        }
+
+        /**
+         * @return The number of trials at this frequency, over all volumes
+         */
+        public int getNumTrials() {
+            return this.nTrials;
+        }
+
+        /**
+         * Fill volIndices and heard with the index in vols and the response of each trial at this frequency, in the
+         * order the trials were done. Both arrays must have at least nTrials elements
+         */
+        private void getTrialsInOrder(int[] volIndices, boolean[] heard) {
+            for (int i = 0; i < this.nVols; i++) {
+                int n = this.timesHeard[i] + this.timesNotHeard[i];
+                for (int t = 0; t < n; t++) {
+                    int number = this.trialNumbers[i][t];
+                    volIndices[number] = i;
+                    heard[number] = (this.outcomes[i][t / 64] & (1L << (t % 64))) != 0;
+                }
             }
-            return heard + notHeard;
         }
 
         /**
          * Returns a new HearingTestSingleFreqResult containing the first n results for each volume stored within this
-         * object
+         * object, in the order they were added here
          *
-         * @param n The number of results for each frequency
+         * @param n The number of results for each volume; volumes tested fewer times keep all their results
          * @return A new HearingTestSingleFreqResult containing a subset of the results in this one
          */
-        @SuppressWarnings("ConstantConditions")
         public HearingTestSingleFreqResult getSubsetResult(int n) {
-            ListIterator<Boolean> iter = null;
-            HearingTestSingleFreqResult newResult = null;
-            newResult = new HearingTestSingleFreqResult(this.freq);
-            for (Double vol : this.getVolumes()) {
-                // addResult for the first n responses in the hearing test
-                iter  = this.testResultsPerVol.get(vol).listIterator();
-                    for (int i = 0; i < n; i++) {
-                        try {
-                            newResult.addResult(vol, iter.next());
-                        } catch (NoSuchElementException e) {
-                            break;  // if not enough trials for volume, use as many samples
-                                    // as possible
-                        }
+            HearingTestSingleFreqResult newResult = new HearingTestSingleFreqResult(this.freq);
+            int[] volIndices = new int[this.nTrials];
+            boolean[] heard = new boolean[this.nTrials];
+            this.getTrialsInOrder(volIndices, heard);
+            int[] nKept = new int[this.nVols];
+            for (int t = 0; t < this.nTrials; t++) {
+                int i = volIndices[t];
+                if (nKept[i]++ < n) newResult.addResult(this.vols[i], heard[t]);
+            }
+            return newResult;
+        }
+
+        /**
+         * Replace the outcomes of the trials at each volume with outcomes drawn with replacement from the given
+         * result, which must have been tested at the same volumes with the same numbers of trials
+         */
+        private void resampleFrom(HearingTestSingleFreqResult original, Random random) {
+            this.logisticFit = null;
+            this.boundsFit = null;
+            this.floorIndex = -1;
+            this.ceilingIndex = -1;
+            for (int i = 0; i < this.nVols; i++) {
+                int nTrials = original.timesHeard[i] + original.timesNotHeard[i];
+                double pHeard = (double) original.timesHeard[i] / nTrials;
+                long[] bits = this.outcomes[i];
+                Arrays.fill(bits, 0);
+                int heard = 0;
+                for (int t = 0; t < nTrials; t++) {
+                    if (random.nextDouble() < pHeard) {
+                        bits[t / 64] |= 1L << (t % 64);
+                        heard++;
                     }
+                }
+                this.timesHeard[i] = heard;
+                this.timesNotHeard[i] = nTrials - heard;
+                this.updateFloorAndCeiling(i);
             }
+        }
+
+        /**
+         * Returns a new HearingTestSingleFreqResult containing either the trials in one fold of this object's results
+         * or all the trials outside it, where the t'th trial at this frequency (whatever its volume) belongs to fold
+         * (t % nFolds)
+         *
+         * @param nFolds The number of folds
+         * @param fold The fold to select
+         * @param inFold If true keep only the trials in the fold, otherwise keep only the trials outside it
+         * @return A new HearingTestSingleFreqResult containing the selected trials
+         */
+        public HearingTestSingleFreqResult getFoldResult(int nFolds, int fold, boolean inFold) {
+            HearingTestSingleFreqResult newResult = new HearingTestSingleFreqResult(this.freq);
+            int[] volIndices = new int[this.nTrials];
+            boolean[] heard = new boolean[this.nTrials];
+            this.getTrialsInOrder(volIndices, heard);
+            for (int t = 0; t < this.nTrials; t++)
+                if ((t % nFolds == fold) == inFold) newResult.addResult(this.vols[volIndices[t]], heard[t]);
             return newResult;
         }
 
@@ -539,49 +1088,46 @@ public class CalibrationTestResults extends PredictorResults {
         @SuppressWarnings("ConstantConditions")
         public String toString() {
             StringBuilder builder = new StringBuilder();
-            ArrayList<Double> testedVolumes = new ArrayList<>(this.getVolumes());
-            Collections.sort(testedVolumes);
-
             builder.append("Frequency: ");
             builder.append(this.freq);
             builder.append('\n');
-            for (Double d : testedVolumes) {
-                int timesHeard;
-                try {
-                    timesHeard = this.timesHeardPerVol.get(d);
-                } catch (NullPointerException e) {
-                    timesHeard = 0;
-                }
-                int timesNotHeard;
-                try {
-                    timesNotHeard = this.timesNotHeardPerVol.get(d);
-                } catch (NullPointerException e) {
-                    timesNotHeard = 0;
-                }
-                float pHeard = (float) timesHeard / (float) (timesHeard + timesNotHeard);
+            for (int i = 0; i < this.nVols; i++) {
                 builder.append("Volume ");
-                builder.append(String.format("%.4f", d));
+                builder.append(String.format("%.4f", this.vols[i]));
                 builder.append(": P(heard) = ");
-                builder.append(String.format("%.4f\n", pHeard));
+                builder.append(String.format("%.4f\n", this.getActualProbAt(i)));
             }
             return builder.toString();
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * @return A new map of each volume at which the tone was heard at least once to the number of times it was heard
+         */
         public HashMap<Double, Integer> getTimesHeardPerVol() {
-            return (HashMap<Double, Integer>) this.timesHeardPerVol.clone();
+            HashMap<Double, Integer> map = new HashMap<>();
+            for (int i = 0; i < this.nVols; i++)
+                if (this.timesHeard[i] > 0) map.put(this.vols[i], this.timesHeard[i]);
+            return map;
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * @return A new map of each volume at which the tone was missed at least once to the number of times it was
+         * missed
+         */
         public HashMap<Double, Integer> getTimesNotHeardPerVol() {
-            return (HashMap<Double, Integer>) this.timesNotHeardPerVol.clone();
+            HashMap<Double, Integer> map = new HashMap<>();
+            for (int i = 0; i < this.nVols; i++)
+                if (this.timesNotHeard[i] > 0) map.put(this.vols[i], this.timesNotHeard[i]);
+            return map;
         }
 
         /**
-         * @return a Collection containing all volumes that were tested at this frequency
+         * @return a new Collection containing all volumes that were tested at this frequency, in ascending order
          */
         public Collection<Double> getVolumes() {
-            return this.testResultsPerVol.keySet();
+            ArrayList<Double> volumes = new ArrayList<>(this.nVols);
+            for (int i = 0; i < this.nVols; i++) volumes.add(this.vols[i]);
+            return volumes;
         }
     }
 }
@@ -34,7 +34,10 @@ public class ConfidenceTestResults extends HearingTestResults {
     public void addResult(Tone tone, boolean wasCorrect) {
         SingleToneResult result;
         if (allResults.containsKey(tone.freq())) result = allResults.get(tone.freq());
-        else result = new SingleToneResult(tone);
+        else {
+            result = new SingleToneResult(tone);
+            allResults.put(tone.freq(), result);
+        }
         result.addResult(wasCorrect);
     }
 
@@ -68,6 +71,26 @@ public class ConfidenceTestResults extends HearingTestResults {
         else return ((double) result.getCorrect()) / (result.getCorrect() + result.getIncorrect());
     }
 
+    /**
+     * @return The number of trials of the tone with the given frequency that the user answered correctly
+     * @throws IllegalArgumentException If the given frequency was not tested
+     */
+    public int getNumCorrect(float freq) throws IllegalArgumentException {
+        SingleToneResult result = this.allResults.get(freq);
+        if (result == null) throw new IllegalArgumentException("Frequency not found in results: " + freq);
+        return result.getCorrect();
+    }
+
+    /**
+     * @return The number of trials of the tone with the given frequency that the user answered incorrectly
+     * @throws IllegalArgumentException If the given frequency was not tested
+     */
+    public int getNumIncorrect(float freq) throws IllegalArgumentException {
+        SingleToneResult result = this.allResults.get(freq);
+        if (result == null) throw new IllegalArgumentException("Frequency not found in results: " + freq);
+        return result.getIncorrect();
+    }
+
     @Override
     public boolean isEmpty() {
         return this.allResults.isEmpty();
@@ -0,0 +1,393 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+
+/**
+ * Measures how well each kind of PredictorResults predicts what participants actually heard, by scoring its
+ * predictions with the Brier score (mean squared difference between P(heard) and the outcome of each trial) and log
+ * loss (mean negative log-likelihood of each outcome). Lower is better for both.
+ *
+ * Each participant's results are scored in three ways:
+ *
+ *      SPLIT_ALL:              every PredictorResults as it is, against the participant's confidence tests
+ *      SPLIT_TRIAL_FOLDS:      k-fold cross-validation over the trials of each calibration test: a model is built
+ *                              from all but one fold and scored against the trials in that fold, and against the
+ *                              confidence tests
+ *      SPLIT_LEAVE_FREQ_OUT:   for each frequency in each calibration test, a model is built from the other
+ *                              frequencies and scored against the trials of the one left out, and against the
+ *                              confidence tests
+ *
+ * Every participant, PredictorResults and fold is evaluated as its own task on a ForkJoinPool. A task only ever reads
+ * the original results (folds and subsets are copies), so no results are shared between threads
+ */
+public class CrossValidator {
+
+    // identifiers for the ways in which the results are split into a model and the data it is scored against
+    public static final int SPLIT_ALL = 0;
+    public static final int SPLIT_TRIAL_FOLDS = 1;
+    public static final int SPLIT_LEAVE_FREQ_OUT = 2;
+
+    // identifiers for the data that predictions are scored against
+    /**
+     * The tones in the participant's confidence tests, where the outcome of a trial is whether it was answered
+     * correctly
+     */
+    public static final int TARGET_CONFIDENCE = 0;
+    /**
+     * The calibration trials that were left out of the model
+     */
+    public static final int TARGET_HOLDOUT = 1;
+
+    public static final int DEFAULT_N_FOLDS = 5;
+
+    /**
+     * Predictions are clamped to [MIN_PROBABILITY, 1 - MIN_PROBABILITY] for the log loss, so that a single confident
+     * miss (eg. P(heard) = 0 below a volume floor for a tone that was heard) costs a large but finite amount
+     */
+    public static final double MIN_PROBABILITY = 0.001;
+
+    /**
+     * All the data for one participant: their calibration-type results and the confidence tests to score them against
+     */
+    public static class Subject {
+
+        public final int id;
+
+        public final HearingTestResultsCollection results;
+
+        public final List<ConfidenceTestResults> confResults;
+
+        public Subject(int id, HearingTestResultsCollection results, Collection<ConfidenceTestResults> confResults) {
+            this.id = id;
+            this.results = results;
+            this.confResults = new ArrayList<>(confResults);
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * The number of folds for SPLIT_TRIAL_FOLDS. Tests with fewer trials at some frequency use one fold per trial of
+     * that frequency
+     */
+    public final int nFolds;
+
+    /**
+     * @param pool The pool on which to run the evaluation
+     * @param nFolds The number of folds for cross-validation over trials
+     */
+    public CrossValidator(ForkJoinPool pool, int nFolds) {
+        this.pool = pool;
+        this.nFolds = nFolds;
+    }
+
+    /**
+     * Begin evaluating the given participants in the background
+     *
+     * @return A Future which completes with the scores of every kind of PredictorResults, summed over all participants
+     */
+    public Future<Summary> evaluate(List<Subject> subjects) {
+        return this.pool.submit(new EvaluationTask(new ArrayList<>(subjects)));
+    }
+
+    /**
+     * @return The name under which the scores of the given results are grouped
+     */
+    private static String predictorName(PredictorResults results) {
+        return results.getClass().getSimpleName() + " " + results.getTestTypeName();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A running total of the scores of a set of predictions
+     */
+    public static class Score {
+
+        private int nParticipants = 0;
+
+        private long nTrials = 0;
+
+        private double sumSquaredError = 0, sumLogLoss = 0;
+
+        /**
+         * Add nHeard trials which were heard and nNotHeard which weren't, all with predicted probability p
+         */
+        public void add(double p, int nHeard, int nNotHeard) {
+            if (Double.isNaN(p)) return;
+            double clamped = Math.max(MIN_PROBABILITY, Math.min(1 - MIN_PROBABILITY, p));
+            this.nTrials += nHeard + nNotHeard;
+            this.sumSquaredError += nHeard * (1 - p) * (1 - p) + nNotHeard * p * p;
+            this.sumLogLoss -= nHeard * Math.log(clamped) + nNotHeard * Math.log(1 - clamped);
+        }
+
+        /**
+         * Add all the trials in another score to this one
+         */
+        public void add(Score other) {
+            this.nParticipants += other.nParticipants;
+            this.nTrials += other.nTrials;
+            this.sumSquaredError += other.sumSquaredError;
+            this.sumLogLoss += other.sumLogLoss;
+        }
+
+        /**
+         * @return The number of participants whose trials contributed to this score
+         */
+        public int nParticipants() {
+            return this.nParticipants;
+        }
+
+        public long nTrials() {
+            return this.nTrials;
+        }
+
+        /**
+         * @return The mean squared difference between the predicted probability and the outcome (0 or 1) of each trial
+         */
+        public double brierScore() {
+            return this.sumSquaredError / this.nTrials;
+        }
+
+        /**
+         * @return The mean negative natural log of the predicted probability of the actual outcome of each trial
+         */
+        public double logLoss() {
+            return this.sumLogLoss / this.nTrials;
+        }
+    }
+
+    /**
+     * The scores of every kind of PredictorResults under every split and target
+     */
+    public static class Summary {
+
+        /**
+         * The scores keyed by predictor name, then split * 2 + target, in name order so that the table is stable
+         */
+        private final TreeMap<String, Score[]> scores = new TreeMap<>();
+
+        /**
+         * @return The score for the given predictor, split and target, creating an empty one if there isn't one
+         */
+        private Score get(String predictor, int split, int target) {
+            Score[] row = this.scores.get(predictor);
+            if (row == null) {
+                row = new Score[6];
+                for (int i = 0; i < row.length; i++) row[i] = new Score();
+                this.scores.put(predictor, row);
+            }
+            return row[split * 2 + target];
+        }
+
+        /**
+         * @return The score for the given predictor, split (SPLIT_*) and target (TARGET_*), or null if there were no
+         * trials for it
+         */
+        public Score getScore(String predictor, int split, int target) {
+            Score[] row = this.scores.get(predictor);
+            if (row == null || row[split * 2 + target].nTrials == 0) return null;
+            return row[split * 2 + target];
+        }
+
+        /**
+         * Add all the scores in another summary to this one
+         */
+        private void add(Summary other) {
+            for (String predictor : other.scores.keySet()) {
+                Score[] row = other.scores.get(predictor);
+                for (int i = 0; i < row.length; i++) this.get(predictor, i / 2, i % 2).add(row[i]);
+            }
+        }
+
+        /**
+         * Count every score with any trials as having one participant. Only for summaries of a single participant
+         */
+        private void setSingleParticipant() {
+            for (Score[] row : this.scores.values())
+                for (Score score : row) score.nParticipants = score.nTrials > 0 ? 1 : 0;
+        }
+
+        /**
+         * @return A tab-separated table with one line for each predictor, split and target that has any trials
+         */
+        @Override
+        @NonNull
+        public String toString() {
+            String[] splitNames = {"all", "trial folds", "leave freq out"};
+            String[] targetNames = {"confidence", "holdout"};
+            StringBuilder builder = new StringBuilder();
+            builder.append("predictor\tsplit\ttarget\tparticipants\ttrials\tbrier\tlog loss\n");
+            for (String predictor : this.scores.keySet()) {
+                Score[] row = this.scores.get(predictor);
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i].nTrials == 0) continue;
+                    builder.append(String.format("%s\t%s\t%s\t%d\t%d\t%.4f\t%.4f\n",
+                            predictor, splitNames[i / 2], targetNames[i % 2], row[i].nParticipants,
+                            row[i].nTrials, row[i].brierScore(), row[i].logLoss()));
+                }
+            }
+            return builder.toString();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Evaluates every participant in parallel, then adds up their scores
+     */
+    private class EvaluationTask extends RecursiveTask<Summary> {
+
+        private final ArrayList<Subject> subjects;
+
+        private EvaluationTask(ArrayList<Subject> subjects) {
+            this.subjects = subjects;
+        }
+
+        @Override
+        protected Summary compute() {
+            ArrayList<SubjectTask> tasks = new ArrayList<>();
+            for (Subject subject : this.subjects) tasks.add(new SubjectTask(subject));
+            invokeAll(tasks);
+            Summary summary = new Summary();
+            for (SubjectTask task : tasks) summary.add(task.getRawResult());
+            return summary;
+        }
+    }
+
+    /**
+     * Evaluates every split of every PredictorResults of one participant in parallel
+     */
+    private class SubjectTask extends RecursiveTask<Summary> {
+
+        private final Subject subject;
+
+        private SubjectTask(Subject subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        protected Summary compute() {
+            ArrayList<FoldTask> tasks = new ArrayList<>();
+            for (PredictorResults results : this.subject.results.resultsList) {
+                if (results.isEmpty()) continue;
+                tasks.add(new FoldTask(this.subject, results, SPLIT_ALL, 0));
+                if (! (results instanceof CalibrationTestResults)) continue;
+
+                CalibrationTestResults calibResults = (CalibrationTestResults) results;
+                int k = Math.min(nFolds, calibResults.getMinTrialsPerFreq());
+                if (k > 1) for (int fold = 0; fold < k; fold++)
+                    tasks.add(new FoldTask(this.subject, results, SPLIT_TRIAL_FOLDS, fold));
+                int nFreqs = calibResults.getTestedFreqs().length;
+                if (nFreqs > 1) for (int freq = 0; freq < nFreqs; freq++)
+                    tasks.add(new FoldTask(this.subject, results, SPLIT_LEAVE_FREQ_OUT, freq));
+            }
+            invokeAll(tasks);
+
+            Summary summary = new Summary();
+            for (FoldTask task : tasks) summary.add(task.getRawResult());
+            summary.setSingleParticipant();
+            return summary;
+        }
+    }
+
+    /**
+     * Builds the model and holdout set for one fold of one PredictorResults, and scores the model
+     */
+    private class FoldTask extends RecursiveTask<Summary> {
+
+        private final Subject subject;
+
+        private final PredictorResults results;
+
+        private final int split;
+
+        /**
+         * The fold to hold out for SPLIT_TRIAL_FOLDS, or the index of the frequency to hold out for
+         * SPLIT_LEAVE_FREQ_OUT
+         */
+        private final int fold;
+
+        private FoldTask(Subject subject, PredictorResults results, int split, int fold) {
+            this.subject = subject;
+            this.results = results;
+            this.split = split;
+            this.fold = fold;
+        }
+
+        @Override
+        protected Summary compute() {
+            PredictorResults model;
+            CalibrationTestResults holdout = null;
+            switch (this.split) {
+                case SPLIT_ALL:
+                    model = this.results;
+                    break;
+                case SPLIT_TRIAL_FOLDS: {
+                    CalibrationTestResults calibResults = (CalibrationTestResults) this.results;
+                    int k = Math.min(nFolds, calibResults.getMinTrialsPerFreq());
+                    model = calibResults.getFoldResults(k, this.fold, false);
+                    holdout = calibResults.getFoldResults(k, this.fold, true);
+                    break;
+                }
+                case SPLIT_LEAVE_FREQ_OUT: {
+                    CalibrationTestResults calibResults = (CalibrationTestResults) this.results;
+                    Float[] tested = calibResults.getTestedFreqs();
+                    Arrays.sort(tested);
+                    float[] kept = new float[tested.length - 1];
+                    for (int i = 0, j = 0; i < tested.length; i++) if (i != this.fold) kept[j++] = tested[i];
+                    model = calibResults.getFrequencySubsetResults(kept);
+                    holdout = calibResults.getFrequencySubsetResults(new float[]{tested[this.fold]});
+                    break;
+                }
+                default: throw new IllegalStateException("Unknown split: " + this.split);
+            }
+
+            Summary summary = new Summary();
+            String name = predictorName(this.results);
+            if (! model.isEmpty()) {
+                scoreConfidence(model, this.subject.confResults, summary.get(name, this.split, TARGET_CONFIDENCE));
+                if (holdout != null && ! holdout.isEmpty())
+                    scoreHoldout(model, holdout, summary.get(name, this.split, TARGET_HOLDOUT));
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Add the model's predictions for every tone in the given confidence tests to score
+     */
+    private static void scoreConfidence(PredictorResults model, List<ConfidenceTestResults> confResults,
+                                        Score score) {
+        for (ConfidenceTestResults conf : confResults) {
+            for (Tone tone : conf.getTestedTones()) {
+                float freq = tone.freq();
+                score.add(model.getProbability(tone), conf.getNumCorrect(freq), conf.getNumIncorrect(freq));
+            }
+        }
+    }
+
+    /**
+     * Add the model's predictions for every trial in holdout to score, in one batch
+     */
+    private static void scoreHoldout(PredictorResults model, CalibrationTestResults holdout, Score score) {
+        int n = holdout.getNumTestedTones();
+        float[] freqs = new float[n];
+        double[] vols = new double[n], probs = new double[n];
+        int[] nHeard = new int[n], nNotHeard = new int[n];
+        holdout.getTestedTones(freqs, vols, nHeard, nNotHeard);
+        model.getProbabilities(freqs, vols, probs, n);
+        for (int i = 0; i < n; i++) score.add(probs[i], nHeard[i], nNotHeard[i]);
+    }
+}
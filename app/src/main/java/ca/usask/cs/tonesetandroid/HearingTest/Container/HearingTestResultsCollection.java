@@ -3,11 +3,9 @@ package ca.usask.cs.tonesetandroid.HearingTest.Container;
 import android.support.annotation.NonNull;
 
 import java.util.ArrayList;
-import java.util.List;
-import java.util.ListIterator;
+import java.util.HashMap;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
-import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
 
 /**
  * A class for storing the results of multiple HearingTests whose results can be used to make predictions
@@ -19,8 +17,20 @@ public class HearingTestResultsCollection {
      */
     ArrayList<PredictorResults> resultsList;
 
+    /**
+     * The results in resultsList grouped by noise type ID, each group sorted by noise volume then priority
+     */
+    private HashMap<Integer, ArrayList<PredictorResults>> resultsByNoiseID;
+
+    /**
+     * The answers given by getPreferredResults() since results were last added, keyed by noise type ID and volume
+     */
+    private HashMap<Long, PredictorResults> preferredResults;
+
     public HearingTestResultsCollection() {
         this.resultsList = new ArrayList<>();
+        this.resultsByNoiseID = new HashMap<>();
+        this.preferredResults = new HashMap<>();
     }
 
     /**
@@ -28,6 +38,24 @@ public class HearingTestResultsCollection {
      */
     public void addResults(PredictorResults results) {
         resultsList.add(results);
+        int noiseID = results.getNoiseType().noiseTypeID;
+        ArrayList<PredictorResults> sameNoiseID = this.resultsByNoiseID.get(noiseID);
+        if (sameNoiseID == null) {
+            sameNoiseID = new ArrayList<>();
+            this.resultsByNoiseID.put(noiseID, sameNoiseID);
+        }
+        insertByNoiseVolume(sameNoiseID, results);
+        this.preferredResults.clear();
+    }
+
+    /**
+     * @return A new collection holding a copy of each of these results (see PredictorResults.copy()), eg. to be read
+     * on another thread while results may still be added to this one
+     */
+    public HearingTestResultsCollection copy() {
+        HearingTestResultsCollection copy = new HearingTestResultsCollection();
+        for (PredictorResults results : this.resultsList) copy.addResults(results.copy());
+        return copy;
     }
 
     /**
@@ -66,6 +94,11 @@ public class HearingTestResultsCollection {
      * noiseTypeID. CalibrationTestResults are preferred over RampTestResultsWithFloorInfo, which
      * are preferred over RampTestResults
      *
+     * Results with the same noise type ID are always preferred, and among those the ones whose noise volume is closest.
+     * If no results have the same noise type ID, the results whose noise volume is closest are used regardless of
+     * type. Ties are broken by priority, then by which results were added first. Answers are memoized until the next
+     * call to addResults()
+     *
      * @param noiseType The background noise type to which the selected HearingTestResults' noise
      *                  type should be closest
      * @return The HearingTestResults with background noise type closest to noiseTypeID
@@ -75,110 +108,89 @@ public class HearingTestResultsCollection {
         if (this.resultsList.isEmpty()) throw new IllegalStateException("No results stored"); // error if none stored
         if (this.resultsList.size() == 1) return this.resultsList.get(0); // if only one result, return it
 
-        ArrayList<PredictorResults> resultsWithSameNoiseID = new ArrayList<>();
-
-        // find all results with same noise type
-        for (PredictorResults results : this.resultsList)
-            if (results.getNoiseType().noiseTypeID == noiseType.noiseTypeID)
-                resultsWithSameNoiseID.add(results);
+        Long key = ((long) noiseType.noiseTypeID << 32) | (noiseType.volume & 0xFFFFFFFFL);
+        PredictorResults preferred = this.preferredResults.get(key);
+        if (preferred != null) return preferred;
 
-        if (resultsWithSameNoiseID.isEmpty()) { // no results with same noise type
-            // return results with closest volume, regardless of type
-            return sortByProximityToVol(this.resultsList, noiseType.volume).get(0);
+        ArrayList<PredictorResults> sameNoiseID = this.resultsByNoiseID.get(noiseType.noiseTypeID);
+        if (sameNoiseID != null) {
+            preferred = findClosest(sameNoiseID, noiseType.volume);
         } else {
-            // if only one found, return it
-            if (resultsWithSameNoiseID.size() == 1) return resultsWithSameNoiseID.get(0);
-            // else return closest with highest priority
-            else return sortByProximityToVol(this.resultsList, noiseType.volume).get(0);
+            // no results with same noise type: return results with closest volume, regardless of type
+            for (ArrayList<PredictorResults> list : this.resultsByNoiseID.values()) {
+                PredictorResults closest = findClosest(list, noiseType.volume);
+                if (preferred == null || this.isPreferred(closest, preferred, noiseType.volume)) preferred = closest;
+            }
         }
+        this.preferredResults.put(key, preferred);
+        return preferred;
     }
 
     /**
-     * Return a list of HearingTestResults sorted by their BackgroundNoiseType's volume's proximity to the given
-     * volume (closest to farthest), with CalibrationTestResults preferred over RampTestResultsWithFloorInfo, which
-     * are preferred over RampTestResults (if volumes are equal).
+     * Insert results into a list kept in order of noise volume, then priority (highest first), then the order in
+     * which they were added
      */
-    @NonNull
-    private static List<PredictorResults> sortByProximityToVol(List<PredictorResults> resultsList,
-                                                                 double vol) {
-
-        if (resultsList.isEmpty()) return new ArrayList<>();
-        else if (resultsList.size() == 1) return resultsList;
-
-        ArrayList<PredictorResults> outputList = new ArrayList<>();
+    private static void insertByNoiseVolume(ArrayList<PredictorResults> list, PredictorResults toInsert) {
+        int volume = toInsert.getNoiseType().volume, priority = getPriority(toInsert);
+        int lo = 0, hi = list.size();
+        while (lo < hi) {  // find the first element that must come after toInsert
+            int mid = (lo + hi) >>> 1;
+            PredictorResults results = list.get(mid);
+            int midVolume = results.getNoiseType().volume;
+            if (midVolume < volume || midVolume == volume && getPriority(results) >= priority) lo = mid + 1;
+            else hi = mid;
+        }
+        list.add(lo, toInsert);
+    }
 
-        // add all subsequent items in appropriate spot
-        for (PredictorResults results : resultsList) insert(outputList, results, vol);
+    /**
+     * Find the preferred results for the given noise volume in a list sorted by insertByNoiseVolume()
+     */
+    private PredictorResults findClosest(ArrayList<PredictorResults> list, int volume) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {  // find the first element with noise volume >= volume
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid).getNoiseType().volume < volume) lo = mid + 1;
+            else hi = mid;
+        }
 
-        return outputList;
+        // candidates are the first (ie. best) results at the nearest volume above, and at the nearest volume below
+        PredictorResults above = lo < list.size() ? list.get(lo) : null;
+        PredictorResults below = null;
+        if (lo > 0) {
+            int belowVolume = list.get(lo - 1).getNoiseType().volume;
+            int first = lo - 1;
+            while (first > 0 && list.get(first - 1).getNoiseType().volume == belowVolume) first--;
+            below = list.get(first);
+        }
+        if (above == null) return below;
+        if (below == null) return above;
+        return this.isPreferred(below, above, volume) ? below : above;
     }
 
     /**
-     * Insert the the HearingTestResults into resultsList at the appropriate place given the type of the test and its
-     * proximity to vol (for use with sortByProximityToVol)
-     *
-     * @param resultsList A list of HearingTestResults
-     * @param toInsert The HearingTestResults to be inserted into the list
-     * @param vol The volume to which toInsert's volume is to be compared
+     * @return True if results1 is preferred over results2 for the given noise volume
      */
-    private static void insert(List<PredictorResults> resultsList, PredictorResults toInsert, double vol) {
-        double inputVolDistance = Math.abs(toInsert.getNoiseType().volume - vol);
-        ListIterator<PredictorResults> resultsListIter = resultsList.listIterator();
-
-        // move forward until resultsListIter.next() is farther than toInsert, or end of list reached
-        while (resultsListIter.hasNext()) {
-            PredictorResults nextResult = resultsListIter.next();
-            double curVolDistance = Math.abs(nextResult.getNoiseType().volume - vol);
-            if (inputVolDistance < curVolDistance) {
-                resultsListIter.add(toInsert);
-                return;
-            } else if (inputVolDistance == curVolDistance) {
-                // input at appropriate spot for priority level
-                while (getPriority(nextResult) > getPriority(toInsert)) nextResult = resultsListIter.next();
-                resultsListIter.add(toInsert);
-                return;
-            }
-        }
-        resultsList.add(toInsert); // toInsert is farthest in list if not returned yet
+    private boolean isPreferred(PredictorResults results1, PredictorResults results2, int volume) {
+        int distance1 = Math.abs(results1.getNoiseType().volume - volume);
+        int distance2 = Math.abs(results2.getNoiseType().volume - volume);
+        if (distance1 != distance2) return distance1 < distance2;
+        if (getPriority(results1) != getPriority(results2)) return getPriority(results1) > getPriority(results2);
+        return this.resultsList.indexOf(results1) < this.resultsList.indexOf(results2);
     }
 
     /**
-     * Ranks the HearingTestResults by its priority in sortByProximityToVol, based on its type
+     * Ranks the HearingTestResults by its priority in getPreferredResults, based on its type. MaximumLikelihoodResults
+     * are only used when there are no other results, until they have been compared against confidence tests
      */
-    private static int getPriority(HearingTestResults results) {
+    static int getPriority(HearingTestResults results) {
         if (results instanceof CalibrationTestResults) return 2;
         if (results instanceof RampTestResultsWithFloorInfo) return 1;
         if (results instanceof RampTestResults) return 0;
+        if (results instanceof MaximumLikelihoodResults) return -1;
         throw new RuntimeException("Unknown HearingTestResults type");
     }
 
-    /**
-     * Create a String containing, for each Tone tested in confResults, the probability found in the confidence test
-     * for that tone followed by probability estimates for that same tone generated by all HearingTestResults stored
-     * within this collection.
-     */
-    public String compareToConfidenceTest(ConfidenceTestResults confResults) {
-        StringBuilder builder = new StringBuilder();
-
-        for (Tone curTone : confResults.getTestedTones()) {
-            builder.append("Tone: ");
-            builder.append(curTone.toString());
-            builder.append('\n');
-            builder.append(String.format("\t%s at %s : P(heard) = %.4f\n",
-                    confResults.getTestTypeName(),
-                    confResults.getFormattedStartTime(),
-                    confResults.getProbability(curTone.freq())
-            ));
-            for (PredictorResults results : this.resultsList)
-                builder.append(String.format("\t%s at %s : %s\n",
-                        results.getTestTypeName(),
-                        results.getFormattedStartTime(),
-                        results.getPredictionString(curTone)
-                ));
-        }
-        return builder.toString();
-    }
-
     /**
      * @return A string containing HearingTestResults.toString() for all results stored in this collection
      */
@@ -0,0 +1,423 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+
+/**
+ * Predictions from a psychometric function fitted by maximum likelihood to every trial at each frequency, whichever
+ * test it came from:
+ *
+ *      P(heard | vol) = 1 / (1 + exp(-slope * (ln(vol) - ln(threshold))))
+ *
+ * Calibration trials are used as they are. Each ramp-up counts as one trial heard at the volume where the user pressed
+ * "heard" and one missed at RAMP_MISSED_RATIO times quieter, since the tone was playing at that volume just before
+ * and wasn't noticed. Each reduce test result counts as one missed trial at that volume.
+ *
+ * The parameters are fitted by PsychometricFit.fitThresholdSlope(), whose weak priors keep them finite when every
+ * trial was heard or when the results are perfectly separated. Each frequency is refitted the first time it's needed
+ * after its trials change, starting from its last fit if it has one: a bootstrap resample starts from the fit to the
+ * original trials, so it only costs a few iterations. Between tested frequencies, ln(threshold) and the slope are
+ * interpolated linearly in ln(freq); outside them the nearest tested frequency is used
+ */
+public class MaximumLikelihoodResults extends PredictorResults {
+
+    /**
+     * A ramp-up heard at some volume also counts as a miss at this many times quieter
+     */
+    public static final double RAMP_MISSED_RATIO = 1.3;
+
+    /**
+     * The probabilities of hearing a tone at the volume floor and ceiling estimates
+     */
+    public static final double FLOOR_PROBABILITY = 0.01, CEILING_PROBABILITY = 0.99;
+
+    /**
+     * The trials at each tested frequency
+     */
+    private final TreeMap<Float, FreqTrials> allResults;
+
+    /**
+     * The tested frequencies in ascending order, and the fitted ln(threshold) and slope for each at the same position,
+     * or null if any frequency has new trials since they were last found
+     */
+    private float[] fitFreqs = null;
+    private double[] fitThresholds, fitSlopes;
+
+    public MaximumLikelihoodResults(BackgroundNoiseType noiseType, String testTypeName) {
+        super(noiseType, testTypeName);
+        this.allResults = new TreeMap<>();
+    }
+
+    /**
+     * Create results from all the trials of one calibration suite
+     *
+     * @param ramp The ramp test (with the reduce test, if there was one) from before the calibration test, or null if
+     *             there wasn't one
+     * @param calibration The calibration test
+     * @return Results containing all the trials of all the given tests, with the calibration test's noise and start
+     *         time
+     */
+    public static MaximumLikelihoodResults fromSuite(@Nullable RampTestResults ramp,
+                                                     CalibrationTestResults calibration) {
+        MaximumLikelihoodResults results =
+                new MaximumLikelihoodResults(calibration.getNoiseType(), "maximum-likelihood");
+        results.setStartTime(calibration.getStartTime());
+        if (ramp != null) {
+            results.addRampResults(ramp);
+            if (ramp instanceof RampTestResultsWithFloorInfo) {
+                FreqVolPair[] reduceResults = ((RampTestResultsWithFloorInfo) ramp).getReduceResults();
+                if (reduceResults != null) results.addReduceResults(reduceResults);
+            }
+        }
+        results.addCalibrationResults(calibration);
+        return results;
+    }
+
+    /**
+     * Add the result of a single trial
+     *
+     * @param tone The tone played in the trial
+     * @param heard Was the tone heard?
+     */
+    public void addResult(Tone tone, boolean heard) {
+        this.addResults(tone.freq(), tone.vol(), heard ? 1 : 0, heard ? 0 : 1);
+    }
+
+    /**
+     * Add nHeard trials in which a sine of the given frequency and volume was heard, and nNotHeard in which it wasn't
+     */
+    public void addResults(float freq, double vol, int nHeard, int nNotHeard) {
+        if (nHeard + nNotHeard == 0) return;
+        FreqTrials trials = this.allResults.get(freq);
+        if (trials == null) {
+            trials = new FreqTrials();
+            this.allResults.put(freq, trials);
+        }
+        trials.add(Math.log(vol), nHeard, nNotHeard);
+        this.fitFreqs = null;
+        this.resultsChanged();
+    }
+
+    /**
+     * Add both ramp-ups at each frequency of the given ramp test, each as one trial heard at the volume selected and
+     * one missed RAMP_MISSED_RATIO times quieter
+     */
+    public void addRampResults(RampTestResults ramp) {
+        for (Map.Entry<Float, RampTestResults.VolPair> entry : ramp.allResults.entrySet()) {
+            for (double vol : new double[]{entry.getValue().vol1(), entry.getValue().vol2()}) {
+                this.addResults(entry.getKey(), vol, 1, 0);
+                this.addResults(entry.getKey(), vol / RAMP_MISSED_RATIO, 0, 1);
+            }
+        }
+    }
+
+    /**
+     * Add each "inaudible" volume found by a reduce test as one missed trial
+     */
+    public void addReduceResults(FreqVolPair[] reduceResults) {
+        for (FreqVolPair result : reduceResults) this.addResults(result.freq(), result.vol(), 0, 1);
+    }
+
+    /**
+     * Add every trial of the given calibration test
+     */
+    public void addCalibrationResults(CalibrationTestResults calibration) {
+        int n = calibration.getNumTestedTones();
+        float[] freqs = new float[n];
+        double[] vols = new double[n];
+        int[] nHeard = new int[n], nNotHeard = new int[n];
+        calibration.getTestedTones(freqs, vols, nHeard, nNotHeard);
+        for (int i = 0; i < n; i++) this.addResults(freqs[i], vols[i], nHeard[i], nNotHeard[i]);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.allResults.isEmpty();
+    }
+
+    /**
+     * @return a Collection containing all frequencies tested
+     */
+    public Collection<Float> getTestedFreqs() {
+        return this.allResults.keySet();
+    }
+
+    @Override
+    public double getProbability(Tone tone) throws IllegalStateException {
+        return this.getProbability(tone.freq(), tone.vol());
+    }
+
+    /**
+     * @return The fitted probability of hearing a sine of the given frequency and volume
+     * @throws IllegalStateException If there are no results
+     */
+    public double getProbability(float freq, double vol) throws IllegalStateException {
+        double[] out = new double[1];
+        this.getProbabilities(new float[]{freq}, new double[]{vol}, out, 1);
+        return out[0];
+    }
+
+    @Override
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n) throws IllegalStateException {
+        this.updateFits();
+        double[] fit = new double[2];
+        for (int i = 0; i < n; i++) {
+            this.interpolateFit(freqs[i], fit);
+            out[i] = vols[i] <= 0 ? 0 : logistic(fit[1] * (Math.log(vols[i]) - fit[0]));
+        }
+    }
+
+    @Override
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n, int model)
+            throws IllegalStateException {
+        if (model != 0) throw new IllegalArgumentException("Unknown model: " + model);
+        this.getProbabilities(freqs, vols, out, n);
+    }
+
+    @Override
+    public String[] getModelNames() {
+        return new String[]{"maximum-likelihood"};
+    }
+
+    /**
+     * @return The volume at which the fitted P(heard) = 0.5 for the given frequency
+     * @throws IllegalStateException If there are no results
+     */
+    public double getThresholdEstimate(float freq) throws IllegalStateException {
+        return this.getVolForProbability(freq, 0.5);
+    }
+
+    /**
+     * @return The volume at which the fitted P(heard) = FLOOR_PROBABILITY for the given frequency
+     */
+    @Override
+    public double getVolFloorEstimate(float freq) {
+        return this.getVolForProbability(freq, FLOOR_PROBABILITY);
+    }
+
+    /**
+     * @return The volume at which the fitted P(heard) = CEILING_PROBABILITY for the given frequency
+     */
+    @Override
+    public double getVolCeilingEstimate(float freq) {
+        return this.getVolForProbability(freq, CEILING_PROBABILITY);
+    }
+
+    private double getVolForProbability(float freq, double probability) throws IllegalStateException {
+        this.updateFits();
+        double[] fit = new double[2];
+        this.interpolateFit(freq, fit);
+        return Math.exp(fit[0] + Math.log(probability / (1 - probability)) / fit[1]);
+    }
+
+    /**
+     * Refit any frequencies with new trials, and rebuild the sorted arrays of fits if necessary
+     *
+     * @throws IllegalStateException If there are no results
+     */
+    private void updateFits() throws IllegalStateException {
+        if (this.fitFreqs != null) return;
+        if (this.allResults.isEmpty()) throw new IllegalStateException("No results stored");
+
+        int n = this.allResults.size(), i = 0;
+        float[] freqs = new float[n];
+        double[] thresholds = new double[n], slopes = new double[n];
+        for (Map.Entry<Float, FreqTrials> entry : this.allResults.entrySet()) {
+            PsychometricFit fit = entry.getValue().fit();
+            freqs[i] = entry.getKey();
+            thresholds[i] = fit.logThreshold();
+            slopes[i++] = fit.slope;
+        }
+        this.fitThresholds = thresholds;
+        this.fitSlopes = slopes;
+        this.fitFreqs = freqs;
+    }
+
+    /**
+     * Store the ln(threshold) and slope at the given frequency in fit[0] and fit[1]. Only call after updateFits()
+     */
+    private void interpolateFit(float freq, double[] fit) {
+        float[] freqs = this.fitFreqs;
+        int pos = Arrays.binarySearch(freqs, freq);
+        if (pos >= 0) {
+            fit[0] = this.fitThresholds[pos];
+            fit[1] = this.fitSlopes[pos];
+            return;
+        }
+        int above = -pos - 1;
+        if (above == 0 || above == freqs.length) {
+            int nearest = above == 0 ? 0 : freqs.length - 1;
+            fit[0] = this.fitThresholds[nearest];
+            fit[1] = this.fitSlopes[nearest];
+            return;
+        }
+        double t = Math.log(freq / freqs[above - 1]) / Math.log(freqs[above] / freqs[above - 1]);
+        fit[0] = this.fitThresholds[above - 1] + t * (this.fitThresholds[above] - this.fitThresholds[above - 1]);
+        fit[1] = this.fitSlopes[above - 1] + t * (this.fitSlopes[above] - this.fitSlopes[above - 1]);
+    }
+
+    private static double logistic(double logOdds) {
+        return 1.0 / (1.0 + Math.exp(-logOdds));
+    }
+
+    /**
+     * The buffer has the same volumes at each frequency as these results, and starts from the same fits
+     */
+    @Override
+    protected PredictorResults newResampleBuffer() {
+        MaximumLikelihoodResults buffer = new MaximumLikelihoodResults(this.getNoiseType(), this.getTestTypeName());
+        for (Map.Entry<Float, FreqTrials> entry : this.allResults.entrySet())
+            buffer.allResults.put(entry.getKey(), entry.getValue().copy());
+        return buffer;
+    }
+
+    /**
+     * Resample the trials at each frequency and volume with replacement, ie. the number heard out of the same number
+     * of trials is drawn from a binomial distribution with the original proportion heard
+     */
+    @Override
+    protected void resampleFrom(PredictorResults original, Random random) {
+        MaximumLikelihoodResults mlOriginal = (MaximumLikelihoodResults) original;
+        for (Map.Entry<Float, FreqTrials> entry : this.allResults.entrySet())
+            entry.getValue().resampleFrom(mlOriginal.allResults.get(entry.getKey()), random);
+        this.fitFreqs = null;
+        this.resultsChanged();
+    }
+
+    @Override
+    public String getPredictionString(Tone tone) {
+        return String.format("%s: maximum likelihood %.4f", this.getTestIdentifier(), this.getProbability(tone));
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        this.updateFits();
+        StringBuilder builder = new StringBuilder();
+        builder.append(this.getTestIdentifier() + '\n');
+        for (int i = 0; i < this.fitFreqs.length; i++)
+            builder.append(String.format("Freq: %.1f, threshold = %.3f, slope = %.3f per ln(vol), %d trials%n",
+                    this.fitFreqs[i], Math.exp(this.fitThresholds[i]), this.fitSlopes[i],
+                    this.allResults.get(this.fitFreqs[i]).getNumTrials()));
+        return builder.toString();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * All trials at one frequency, grouped by volume, and the psychometric function last fitted to them
+     */
+    private static class FreqTrials {
+
+        /**
+         * The number of volumes that can be stored before the arrays have to grow
+         */
+        private static final int INITIAL_VOL_CAPACITY = 8;
+
+        /**
+         * ln(vol) of each volume tested in ascending order, and the number of trials heard and in total at each.
+         * Only the first nVols elements are used
+         */
+        private double[] logVols;
+        private int[] nHeard, nTrials;
+
+        private int nVols = 0;
+
+        /**
+         * The last psychometric function fitted to the trials, or null if none has been
+         */
+        @Nullable
+        private PsychometricFit fit = null;
+
+        /**
+         * Is the fit up to date with the trials?
+         */
+        private boolean fitCurrent = false;
+
+        private FreqTrials() {
+            this.logVols = new double[INITIAL_VOL_CAPACITY];
+            this.nHeard = new int[INITIAL_VOL_CAPACITY];
+            this.nTrials = new int[INITIAL_VOL_CAPACITY];
+        }
+
+        private void add(double logVol, int heard, int notHeard) {
+            int i = Arrays.binarySearch(this.logVols, 0, this.nVols, logVol);
+            if (i < 0) {
+                i = -(i + 1);
+                if (this.nVols == this.logVols.length) {
+                    this.logVols = Arrays.copyOf(this.logVols, this.nVols * 2);
+                    this.nHeard = Arrays.copyOf(this.nHeard, this.nVols * 2);
+                    this.nTrials = Arrays.copyOf(this.nTrials, this.nVols * 2);
+                }
+                System.arraycopy(this.logVols, i, this.logVols, i + 1, this.nVols - i);
+                System.arraycopy(this.nHeard, i, this.nHeard, i + 1, this.nVols - i);
+                System.arraycopy(this.nTrials, i, this.nTrials, i + 1, this.nVols - i);
+                this.logVols[i] = logVol;
+                this.nHeard[i] = 0;
+                this.nTrials[i] = 0;
+                this.nVols++;
+            }
+            this.nHeard[i] += heard;
+            this.nTrials[i] += heard + notHeard;
+            this.fitCurrent = false;
+        }
+
+        private int getNumTrials() {
+            int total = 0;
+            for (int i = 0; i < this.nVols; i++) total += this.nTrials[i];
+            return total;
+        }
+
+        /**
+         * Fit the psychometric function to the trials if it isn't up to date, starting from the last fit
+         *
+         * @return The fit
+         */
+        private PsychometricFit fit() {
+            if (! this.fitCurrent) {
+                this.fit = PsychometricFit.fitThresholdSlope(this.logVols, this.nHeard, this.nTrials, this.nVols,
+                                                             this.fit);
+                this.fitCurrent = true;
+            }
+            return this.fit;
+        }
+
+        /**
+         * @return A copy of these trials and their fit
+         */
+        private FreqTrials copy() {
+            FreqTrials copy = new FreqTrials();
+            copy.logVols = Arrays.copyOf(this.logVols, this.logVols.length);
+            copy.nHeard = Arrays.copyOf(this.nHeard, this.nHeard.length);
+            copy.nTrials = Arrays.copyOf(this.nTrials, this.nTrials.length);
+            copy.nVols = this.nVols;
+            copy.fit = this.fit;
+            copy.fitCurrent = this.fitCurrent;
+            return copy;
+        }
+
+        /**
+         * Replace the number heard at each volume with a binomial draw from the original's proportion heard. The
+         * original (which must have the same volumes) is only read
+         */
+        private void resampleFrom(FreqTrials original, Random random) {
+            for (int i = 0; i < this.nVols; i++) {
+                double p = (double) original.nHeard[i] / original.nTrials[i];
+                int heard = 0;
+                for (int j = 0; j < original.nTrials[i]; j++) if (random.nextDouble() < p) heard++;
+                this.nHeard[i] = heard;
+            }
+            this.fitCurrent = false;
+        }
+    }
+}
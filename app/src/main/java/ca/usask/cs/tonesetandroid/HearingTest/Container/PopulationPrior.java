@@ -0,0 +1,310 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.NonNull;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.InputMismatchException;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+
+import static ca.usask.cs.tonesetandroid.HearingTest.Container.HearingTestResultsCollection.getPriority;
+
+/**
+ * The distribution of hearing thresholds across all participants tested so far, for each background noise and tested
+ * frequency. A participant's threshold at a frequency is the volume at which their best PredictorResults for that
+ * noise (see HearingTestResultsCollection.getPriority()) predicts P(heard) = 0.5, and thresholds are summarized as the
+ * mean and standard deviation of ln(threshold), ie. the distribution is treated as log-normal.
+ *
+ * New tests can use this to start near where a participant is likely to hear a tone, instead of at a fixed volume.
+ * Between tested frequencies, the mean and standard deviation are interpolated linearly in ln(freq); outside them
+ * the nearest tested frequency is used. Only frequencies with at least MIN_PARTICIPANTS thresholds are used, and the
+ * standard deviation used in estimates is at least MIN_SD
+ */
+public class PopulationPrior {
+
+    /**
+     * The fewest thresholds at a frequency for it to be used in estimates
+     */
+    public static final int MIN_PARTICIPANTS = 3;
+
+    /**
+     * The smallest standard deviation of ln(threshold) given by estimates. With only MIN_PARTICIPANTS thresholds the
+     * sample standard deviation can be close to 0, which would make a test trust the prior mean far more than a few
+     * participants justify
+     */
+    public static final double MIN_SD = 0.5;
+
+    /**
+     * The range of volumes searched for a threshold
+     */
+    private static final double MIN_VOL = 1, MAX_VOL = Short.MAX_VALUE;
+
+    /**
+     * The number of halvings of the volume range (on a log scale) when searching for a threshold
+     */
+    private static final int BISECTION_STEPS = 30;
+
+    private static final NormalDistribution STANDARD_NORMAL = new NormalDistribution();
+
+    /**
+     * The thresholds at each frequency, keyed by noise type ID and volume as in noiseKey()
+     */
+    private final HashMap<Long, TreeMap<Float, Distribution>> distributions;
+
+    public PopulationPrior() {
+        this.distributions = new HashMap<>();
+    }
+
+    /**
+     * Add one threshold per tested frequency and background noise from the given participant's results
+     */
+    public void addParticipant(HearingTestResultsCollection results) {
+        // the results to use for each noise, and the frequencies tested by any results with that noise
+        HashMap<Long, PredictorResults> best = new HashMap<>();
+        HashMap<Long, TreeMap<Float, Boolean>> testedFreqs = new HashMap<>();
+        for (PredictorResults predictor : results.resultsList) {
+            if (predictor.isEmpty()) continue;
+            Long key = noiseKey(predictor.getNoiseType());
+            PredictorResults current = best.get(key);
+            if (current == null || getPriority(predictor) > getPriority(current)) best.put(key, predictor);
+            TreeMap<Float, Boolean> freqs = testedFreqs.get(key);
+            if (freqs == null) {
+                freqs = new TreeMap<>();
+                testedFreqs.put(key, freqs);
+            }
+            for (Float freq : getTestedFreqs(predictor)) freqs.put(freq, true);
+        }
+
+        for (Map.Entry<Long, PredictorResults> entry : best.entrySet()) {
+            TreeMap<Float, Distribution> byFreq = this.distributions.get(entry.getKey());
+            if (byFreq == null) {
+                byFreq = new TreeMap<>();
+                this.distributions.put(entry.getKey(), byFreq);
+            }
+            for (Float freq : testedFreqs.get(entry.getKey()).keySet()) {
+                double threshold = findThreshold(entry.getValue(), freq);
+                if (Double.isNaN(threshold)) continue;
+                Distribution distribution = byFreq.get(freq);
+                if (distribution == null) {
+                    distribution = new Distribution();
+                    byFreq.put(freq, distribution);
+                }
+                distribution.add(Math.log(threshold));
+            }
+        }
+    }
+
+    /**
+     * @return The frequencies tested by the given results
+     */
+    private static Collection<Float> getTestedFreqs(PredictorResults results) {
+        if (results instanceof CalibrationTestResults)
+            return Arrays.asList(((CalibrationTestResults) results).getTestedFreqs());
+        if (results instanceof RampTestResults) return ((RampTestResults) results).getTestedFreqs();
+        if (results instanceof MaximumLikelihoodResults) return ((MaximumLikelihoodResults) results).getTestedFreqs();
+        throw new RuntimeException("Unknown HearingTestResults type");
+    }
+
+    /**
+     * @return The volume at which the results predict P(heard) = 0.5 for the given frequency, found by bisection on
+     * ln(vol), MIN_VOL if the tone is more likely heard than not even at MIN_VOL, or NaN if it is less likely heard
+     * than not even at MAX_VOL
+     */
+    static double findThreshold(PredictorResults results, float freq) {
+        float[] freqs = {freq};
+        double[] vols = {MIN_VOL}, probability = new double[1];
+        results.getProbabilities(freqs, vols, probability, 1);
+        if (probability[0] >= 0.5) return MIN_VOL;
+        vols[0] = MAX_VOL;
+        results.getProbabilities(freqs, vols, probability, 1);
+        if (probability[0] < 0.5) return Double.NaN;
+
+        double low = Math.log(MIN_VOL), high = Math.log(MAX_VOL);
+        for (int i = 0; i < BISECTION_STEPS; i++) {
+            double mid = (low + high) / 2;
+            vols[0] = Math.exp(mid);
+            results.getProbabilities(freqs, vols, probability, 1);
+            if (probability[0] >= 0.5) high = mid;
+            else low = mid;
+        }
+        return Math.exp((low + high) / 2);
+    }
+
+    /**
+     * @return True if there are enough thresholds in the given noise to make estimates
+     */
+    public boolean hasPrior(BackgroundNoiseType noiseType) {
+        TreeMap<Float, Distribution> byFreq = this.distributions.get(noiseKey(noiseType));
+        if (byFreq == null) return false;
+        for (Distribution distribution : byFreq.values()) if (distribution.n >= MIN_PARTICIPANTS) return true;
+        return false;
+    }
+
+    /**
+     * @return The mean of ln(threshold) at the given frequency in the given noise, or NaN if !hasPrior(noiseType)
+     */
+    public double getLogThresholdMean(float freq, BackgroundNoiseType noiseType) {
+        return this.interpolate(freq, noiseType, false);
+    }
+
+    /**
+     * @return The standard deviation of ln(threshold) at the given frequency in the given noise (at least MIN_SD), or
+     * NaN if !hasPrior(noiseType)
+     */
+    public double getLogThresholdSD(float freq, BackgroundNoiseType noiseType) {
+        return this.interpolate(freq, noiseType, true);
+    }
+
+    /**
+     * @param proportion The proportion of participants expected to have a lower threshold, eg. 0.5 for the median
+     * @return The volume below which the given proportion of thresholds at the given frequency are expected to be, or
+     * NaN if !hasPrior(noiseType)
+     */
+    public double getThresholdQuantile(float freq, BackgroundNoiseType noiseType, double proportion) {
+        double mean = this.getLogThresholdMean(freq, noiseType);
+        if (Double.isNaN(mean)) return Double.NaN;
+        return Math.exp(mean + this.getLogThresholdSD(freq, noiseType) *
+                               STANDARD_NORMAL.inverseCumulativeProbability(proportion));
+    }
+
+    /**
+     * @return The mean (or standard deviation, if sd) of ln(threshold) at freq, interpolated linearly in ln(freq)
+     * between the nearest frequencies with at least MIN_PARTICIPANTS thresholds
+     */
+    private double interpolate(float freq, BackgroundNoiseType noiseType, boolean sd) {
+        TreeMap<Float, Distribution> byFreq = this.distributions.get(noiseKey(noiseType));
+        if (byFreq == null) return Double.NaN;
+
+        Map.Entry<Float, Distribution> below = byFreq.floorEntry(freq), above = byFreq.higherEntry(freq);
+        while (below != null && below.getValue().n < MIN_PARTICIPANTS) below = byFreq.lowerEntry(below.getKey());
+        while (above != null && above.getValue().n < MIN_PARTICIPANTS) above = byFreq.higherEntry(above.getKey());
+        if (below == null && above == null) return Double.NaN;
+        if (below == null) return above.getValue().get(sd);
+        if (above == null || below.getKey() == freq) return below.getValue().get(sd);
+
+        double t = Math.log(freq / below.getKey()) / Math.log(above.getKey() / below.getKey());
+        return below.getValue().get(sd) + t * (above.getValue().get(sd) - below.getValue().get(sd));
+    }
+
+    /**
+     * @return A key identifying a background noise by both its type and volume
+     */
+    private static Long noiseKey(BackgroundNoiseType noiseType) {
+        return noiseKey(noiseType.noiseTypeID, noiseType.volume);
+    }
+
+    private static Long noiseKey(int noiseTypeID, int noiseVolume) {
+        return ((long) noiseTypeID << 32) | (noiseVolume & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Write this prior in the format read by read(): one line per noise and frequency, containing
+     * noise type ID,noise volume,frequency,number of thresholds,mean of ln(threshold),standard deviation
+     */
+    public void write(Writer out) throws IOException {
+        for (Map.Entry<Long, TreeMap<Float, Distribution>> entry : this.distributions.entrySet()) {
+            int noiseTypeID = (int) (entry.getKey() >> 32), noiseVolume = (int) (long) entry.getKey();
+            for (Map.Entry<Float, Distribution> freqEntry : entry.getValue().entrySet()) {
+                Distribution distribution = freqEntry.getValue();
+                out.write(String.format("%d,%d,%s,%d,%s,%s%n", noiseTypeID, noiseVolume, freqEntry.getKey(),
+                                        distribution.n, distribution.mean, distribution.sd()));
+            }
+        }
+    }
+
+    /**
+     * Read a prior written by write()
+     *
+     * @throws InputMismatchException If the input is not in the format written by write()
+     */
+    public static PopulationPrior read(Scanner scanner) throws InputMismatchException {
+        PopulationPrior prior = new PopulationPrior();
+        while (scanner.hasNextLine()) {
+            String line = scanner.nextLine().trim();
+            if (line.isEmpty()) continue;
+            String[] fields = line.split(",");
+            if (fields.length != 6) throw new InputMismatchException("Expected 6 fields but found: " + line);
+            try {
+                Long key = noiseKey(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]));
+                TreeMap<Float, Distribution> byFreq = prior.distributions.get(key);
+                if (byFreq == null) {
+                    byFreq = new TreeMap<>();
+                    prior.distributions.put(key, byFreq);
+                }
+                byFreq.put(Float.parseFloat(fields[2]), new Distribution(
+                        Integer.parseInt(fields[3]), Double.parseDouble(fields[4]), Double.parseDouble(fields[5])));
+            } catch (NumberFormatException e) {
+                throw new InputMismatchException("Unable to parse line: " + line);
+            }
+        }
+        return prior;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Population prior:\n");
+        for (Map.Entry<Long, TreeMap<Float, Distribution>> entry : this.distributions.entrySet()) {
+            int noiseTypeID = (int) (entry.getKey() >> 32), noiseVolume = (int) (long) entry.getKey();
+            for (Map.Entry<Float, Distribution> freqEntry : entry.getValue().entrySet())
+                builder.append(String.format("noise %d/%d, %.1f Hz: n = %d, median threshold %.4f, log sd %.4f\n",
+                        noiseTypeID, noiseVolume, freqEntry.getKey(), freqEntry.getValue().n,
+                        Math.exp(freqEntry.getValue().mean), freqEntry.getValue().sd()));
+        }
+        return builder.toString();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The running mean and variance of ln(threshold) at one frequency (Welford's method)
+     */
+    private static class Distribution {
+
+        private int n;
+
+        private double mean;
+
+        /**
+         * The sum of squared differences from the mean
+         */
+        private double sumSquares;
+
+        private Distribution() {
+            this(0, 0, 0);
+        }
+
+        private Distribution(int n, double mean, double sd) {
+            this.n = n;
+            this.mean = mean;
+            this.sumSquares = n > 1 ? sd * sd * (n - 1) : 0;
+        }
+
+        private void add(double x) {
+            this.n++;
+            double delta = x - this.mean;
+            this.mean += delta / this.n;
+            this.sumSquares += delta * (x - this.mean);
+        }
+
+        private double sd() {
+            return this.n > 1 ? Math.sqrt(this.sumSquares / (this.n - 1)) : 0;
+        }
+
+        /**
+         * @return The mean, or the standard deviation floored at MIN_SD if sd. The file keeps the unfloored value
+         */
+        private double get(boolean sd) {
+            return sd ? Math.max(MIN_SD, this.sd()) : this.mean;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+
+/**
+ * Writes a table comparing the probability of hearing each tone observed in one or more confidence tests with the
+ * probability predicted for it by every model of every PredictorResults in a HearingTestResultsCollection. There is
+ * one row per (session, tone, predictor, model), with the columns in HEADER.
+ *
+ * The predictions are computed first, one task per PredictorResults on a ForkJoinPool, then the bootstrap intervals
+ * (if any) for each predictor's first model. The rows are then streamed straight to the Writer: nothing is built up
+ * in memory besides the predicted probabilities themselves, and numbers are written without String.format(), so a
+ * report with many sessions costs little more than the predictions do. Wrap the Writer in a BufferedWriter
+ */
+public class PredictionReport {
+
+    // identifiers for output formats
+    /**
+     * Comma-separated values: fields containing a comma, quote or line break are quoted
+     */
+    public static final int FORMAT_CSV = 0;
+    /**
+     * Tab-separated values: tabs and line breaks inside fields are replaced by spaces
+     */
+    public static final int FORMAT_TSV = 1;
+
+    /**
+     * The names of the columns of the report
+     */
+    public static final String[] HEADER = {
+            "session_type", "session_start", "tone_type", "freq", "vol", "n_correct", "n_incorrect", "observed",
+            "predictor_type", "predictor_start", "model", "predicted", "lower", "upper"
+    };
+
+    /**
+     * The number of decimal places written for probabilities
+     */
+    private static final int DECIMALS = 4;
+
+    private final ForkJoinPool pool;
+
+    private final int format;
+
+    private final char separator;
+
+    @Nullable
+    private final Bootstrap bootstrap;
+
+    /**
+     * @param pool The pool on which to compute the predictions
+     * @param format FORMAT_CSV or FORMAT_TSV
+     * @param bootstrap The Bootstrap with which to find intervals for each predictor's first model, or null to leave
+     *                  the lower and upper columns empty
+     */
+    public PredictionReport(ForkJoinPool pool, int format, @Nullable Bootstrap bootstrap) {
+        if (format != FORMAT_CSV && format != FORMAT_TSV)
+            throw new IllegalArgumentException("Unknown format: " + format);
+        this.pool = pool;
+        this.format = format;
+        this.separator = format == FORMAT_CSV ? ',' : '\t';
+        this.bootstrap = bootstrap;
+    }
+
+    /**
+     * Write the header and one row per (session, tone, predictor, model) to out. Predictors with no results are
+     * skipped. The Writer is not closed
+     *
+     * @param out The Writer to which the report is written
+     * @param results The predictors whose predictions are reported
+     * @param sessions The confidence tests whose observations are reported
+     * @throws IOException If out throws an IOException
+     */
+    public void write(Writer out, HearingTestResultsCollection results, List<ConfidenceTestResults> sessions)
+            throws IOException {
+        List<PredictorResults> predictors = new ArrayList<>();
+        for (PredictorResults predictor : results.resultsList) if (! predictor.isEmpty()) predictors.add(predictor);
+
+        // tested tones of each session, and their frequencies and volumes for the batch calls
+        Tone[][] tones = new Tone[sessions.size()][];
+        float[][] freqs = new float[sessions.size()][];
+        double[][] vols = new double[sessions.size()][];
+        for (int s = 0; s < tones.length; s++) {
+            tones[s] = sessions.get(s).getTestedTones().toArray(new Tone[0]);
+            freqs[s] = new float[tones[s].length];
+            vols[s] = new double[tones[s].length];
+            for (int t = 0; t < tones[s].length; t++) {
+                freqs[s][t] = tones[s][t].freq();
+                vols[s][t] = tones[s][t].vol();
+            }
+        }
+
+        // predictions, [predictor][session][model][tone]
+        double[][][][] predicted = new double[predictors.size()][][][];
+        PredictTask[] tasks = new PredictTask[predictors.size()];
+        for (int p = 0; p < tasks.length; p++)
+            tasks[p] = new PredictTask(predictors.get(p), freqs, vols, predicted, p);
+        if (tasks.length > 0) this.pool.invoke(new PredictAllTask(tasks));
+
+        // intervals, [predictor][session][tone]. Bootstrap already spreads each call across its pool, so these are
+        // done one at a time from here rather than from inside the tasks above
+        Bootstrap.Estimate[][][] intervals = null;
+        if (this.bootstrap != null) {
+            intervals = new Bootstrap.Estimate[predictors.size()][sessions.size()][];
+            for (int p = 0; p < intervals.length; p++)
+                for (int s = 0; s < tones.length; s++)
+                    intervals[p][s] = this.bootstrap.getProbabilities(
+                            predictors.get(p), freqs[s], vols[s], tones[s].length, Bootstrap.DEFAULT_LEVEL);
+        }
+
+        for (int i = 0; i < HEADER.length; i++) {
+            if (i > 0) out.write(this.separator);
+            out.write(HEADER[i]);
+        }
+        out.write('\n');
+
+        String[][] modelNames = new String[predictors.size()][];
+        for (int p = 0; p < modelNames.length; p++) modelNames[p] = predictors.get(p).getModelNames();
+
+        for (int s = 0; s < tones.length; s++) {
+            ConfidenceTestResults session = sessions.get(s);
+            String sessionType = session.getTestTypeName(), sessionStart = session.getFormattedStartTime();
+            for (int t = 0; t < tones[s].length; t++) {
+                Tone tone = tones[s][t];
+                String toneType = tone.getClass().getSimpleName();
+                int nCorrect = session.getNumCorrect(tone.freq()), nIncorrect = session.getNumIncorrect(tone.freq());
+                double observed = session.getProbability(tone.freq());
+                for (int p = 0; p < predictors.size(); p++) {
+                    PredictorResults predictor = predictors.get(p);
+                    for (int m = 0; m < modelNames[p].length; m++) {
+                        this.writeField(out, sessionType, false);
+                        this.writeField(out, sessionStart, true);
+                        this.writeField(out, toneType, true);
+                        out.write(this.separator);
+                        writeNumber(out, tone.freq(), 2);
+                        out.write(this.separator);
+                        writeNumber(out, tone.vol(), 2);
+                        out.write(this.separator);
+                        out.write(Integer.toString(nCorrect));
+                        out.write(this.separator);
+                        out.write(Integer.toString(nIncorrect));
+                        out.write(this.separator);
+                        writeNumber(out, observed, DECIMALS);
+                        this.writeField(out, predictor.getTestTypeName(), true);
+                        this.writeField(out, predictor.getFormattedStartTime(), true);
+                        this.writeField(out, modelNames[p][m], true);
+                        out.write(this.separator);
+                        writeNumber(out, predicted[p][s][m][t], DECIMALS);
+                        out.write(this.separator);
+                        if (intervals != null && m == 0) writeNumber(out, intervals[p][s][t].lower, DECIMALS);
+                        out.write(this.separator);
+                        if (intervals != null && m == 0) writeNumber(out, intervals[p][s][t].upper, DECIMALS);
+                        out.write('\n');
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write a text field, preceded by a separator if it is not the first in the row, escaped for this report's format
+     */
+    private void writeField(Writer out, @Nullable String field, boolean separate) throws IOException {
+        if (separate) out.write(this.separator);
+        if (field == null) return;
+
+        if (this.format == FORMAT_TSV) {
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                out.write(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+            }
+            return;
+        }
+
+        boolean quote = false;
+        for (int i = 0; i < field.length() && ! quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (! quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '"') out.write('"');
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Write value rounded half away from zero to the given number of decimal places, eg. 0.1234 for 0.12341 and 4
+     * places. NaN and infinite values are written as by Double.toString()
+     */
+    private static void writeNumber(Writer out, double value, int decimals) throws IOException {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) * scale >= Long.MAX_VALUE) {
+            out.write(Double.toString(value));
+            return;
+        }
+
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) out.write('-');
+        out.write(Long.toString(scaled / scale));
+        if (decimals == 0) return;
+        out.write('.');
+        String fraction = Long.toString(scaled % scale);
+        for (int i = fraction.length(); i < decimals; i++) out.write('0');
+        out.write(fraction);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Runs all of the given PredictTasks in parallel
+     */
+    private static class PredictAllTask extends RecursiveAction {
+
+        private final PredictTask[] tasks;
+
+        private PredictAllTask(PredictTask[] tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(this.tasks);
+        }
+    }
+
+    /**
+     * Computes the predictions of one PredictorResults for every model and session, and stores them in its own
+     * element of the shared array. A model is read from its ProbabilityGrid when there are at least as many tones in
+     * all the sessions as it would cost to build the grid
+     */
+    private static class PredictTask extends RecursiveAction {
+
+        private final PredictorResults predictor;
+
+        private final float[][] freqs;
+
+        private final double[][] vols;
+
+        private final double[][][][] out;
+
+        private final int index;
+
+        private PredictTask(PredictorResults predictor, float[][] freqs, double[][] vols, double[][][][] out,
+                            int index) {
+            this.predictor = predictor;
+            this.freqs = freqs;
+            this.vols = vols;
+            this.out = out;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            int nModels = this.predictor.getModelNames().length;
+            int nTones = 0;
+            for (float[] sessionFreqs : this.freqs) nTones += sessionFreqs.length;
+            double[][][] predictions = new double[this.freqs.length][nModels][];
+            for (int m = 0; m < nModels; m++) {
+                boolean useGrid = nTones >= this.predictor.getProbabilityGridCost(m);
+                for (int s = 0; s < this.freqs.length; s++) {
+                    int n = this.freqs[s].length;
+                    double[] out = new double[n];
+                    if (useGrid) this.predictor.getProbabilitiesFromGrid(this.freqs[s], this.vols[s], out, n, m);
+                    else this.predictor.getProbabilities(this.freqs[s], this.vols[s], out, n, m);
+                    predictions[s][m] = out;
+                }
+            }
+            this.out[this.index] = predictions;
+        }
+    }
+}
@@ -1,6 +1,11 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Container;
 
+import java.util.Random;
+
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolDurTrio;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Interval;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Melody;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
 
 /**
@@ -9,6 +14,11 @@ import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
  */
 public abstract class PredictorResults extends HearingTestResults {
 
+    /**
+     * The ProbabilityGrid of each model, built when first needed and discarded by resultsChanged()
+     */
+    private ProbabilityGrid[] grids;
+
     public PredictorResults(BackgroundNoiseType noiseType, String testTypeName) {
         super(noiseType, testTypeName);
     }
@@ -22,6 +32,36 @@ public abstract class PredictorResults extends HearingTestResults {
      */
     public abstract double getProbability(Tone tone) throws IllegalStateException;
 
+    /**
+     * Estimate the probability of hearing each of n sines in a single pass, ie. out[i] is what getProbability() would
+     * return for a sine of frequency freqs[i] and volume vols[i]. Use this instead of calling getProbability() in a
+     * loop: nothing is allocated per tone, and work that doesn't depend on the tone is only done once
+     *
+     * @param freqs The frequency of each sine
+     * @param vols The volume of each sine
+     * @param out The array in which to store the probability of hearing each sine
+     * @param n The number of sines
+     * @throws IllegalStateException If there is no data stored in these results
+     */
+    public abstract void getProbabilities(float[] freqs, double[] vols, double[] out, int n)
+            throws IllegalStateException;
+
+    /**
+     * Estimate the probability of hearing each of n sines as in getProbabilities(freqs, vols, out, n), but with the
+     * given model. Model 0 is the one used by getProbability()
+     *
+     * @param model The index of a model in getModelNames()
+     * @throws IllegalStateException If there is no data stored in these results
+     */
+    public abstract void getProbabilities(float[] freqs, double[] vols, double[] out, int n, int model)
+            throws IllegalStateException;
+
+    /**
+     * @return A short name for each of the ways these results can estimate probabilities, in the order of the model
+     * argument of getProbabilities()
+     */
+    public abstract String[] getModelNames();
+
     /**
      * Return a string containing all estimates of P(heard) for the given tone that can be calculated by these
      * PredictorResults. If more than one probability, include a label for each
@@ -31,6 +71,118 @@ public abstract class PredictorResults extends HearingTestResults {
      */
     public abstract String getPredictionString(Tone tone);
 
+    /**
+     * @return getPredictionString() for each of the given tones. Subclasses should override this to make their
+     * predictions with getProbabilities()
+     */
+    public String[] getPredictionStrings(Tone[] tones) {
+        String[] predictions = new String[tones.length];
+        for (int i = 0; i < tones.length; i++) predictions[i] = this.getPredictionString(tones[i]);
+        return predictions;
+    }
+
+    /**
+     * @return The mean probability of hearing the two pitches of the interval, each played at the interval's volume
+     */
+    protected double getMeanProbability(Interval tone) throws IllegalStateException {
+        return this.getMeanProbability(new float[]{tone.freq(), tone.freq2()}, tone.vol(), 2);
+    }
+
+    /**
+     * @return The mean probability of hearing each audible note of the melody
+     */
+    protected double getMeanProbability(Melody tone) throws IllegalStateException {
+        FreqVolDurTrio[] notes = tone.getAudibleTones();
+        float[] freqs = new float[notes.length];
+        double[] vols = new double[notes.length];
+        for (int i = 0; i < notes.length; i++) {
+            freqs[i] = notes[i].freq();
+            vols[i] = notes[i].vol();
+        }
+        return this.getMeanProbability(freqs, vols, notes.length);
+    }
+
+    /**
+     * @return The mean probability of hearing sines of the first n frequencies in freqs, all at the given volume
+     */
+    protected double getMeanProbability(float[] freqs, double vol, int n) throws IllegalStateException {
+        double[] vols = new double[n];
+        for (int i = 0; i < n; i++) vols[i] = vol;
+        return this.getMeanProbability(freqs, vols, n);
+    }
+
+    /**
+     * @return The mean probability of hearing the first n sines described by freqs and vols
+     */
+    private double getMeanProbability(float[] freqs, double[] vols, int n) throws IllegalStateException {
+        double[] probs = new double[n];
+        this.getProbabilities(freqs, vols, probs, n);
+        double sum = 0;
+        for (int i = 0; i < n; i++) sum += probs[i];
+        return sum / n;
+    }
+
+    /**
+     * Called whenever a change to these results could change getProbability(). Subclasses that cache anything derived
+     * from their results should override this to discard it
+     */
+    protected void resultsChanged() {
+        synchronized (this) {
+            this.grids = null;
+        }
+    }
+
+    /**
+     * Estimate the probability of hearing each of n sines with the given model, as in getProbabilities(), but by
+     * interpolating in this model's ProbabilityGrid. Each answer is within ProbabilityGrid.TOLERANCE of the exact one
+     * at the check points of its cell (see ProbabilityGrid), or is exact. The grid is built on the first call after the
+     * results change, which costs getProbabilityGridCost(model) exact probabilities, so only use this when there are
+     * at least that many sines to estimate before the results next change
+     *
+     * @throws IllegalStateException If there is no data stored in these results
+     */
+    public void getProbabilitiesFromGrid(float[] freqs, double[] vols, double[] out, int n, int model)
+            throws IllegalStateException {
+        this.getProbabilityGrid(model).getProbabilities(freqs, vols, out, n);
+    }
+
+    /**
+     * @return The ProbabilityGrid of the given model, building it if it hasn't been built since the results changed
+     * @throws IllegalStateException If there is no data stored in these results
+     */
+    public synchronized ProbabilityGrid getProbabilityGrid(int model) throws IllegalStateException {
+        if (this.grids == null) this.grids = new ProbabilityGrid[this.getModelNames().length];
+        if (this.grids[model] == null)
+            this.grids[model] = ProbabilityGrid.build(this, model, this.getGridFreqs(model), this.getGridVols(model));
+        return this.grids[model];
+    }
+
+    /**
+     * @return The number of exact probabilities needed to build the ProbabilityGrid of the given model, or 0 if it is
+     * already built
+     */
+    public synchronized int getProbabilityGridCost(int model) {
+        if (this.grids != null && this.grids[model] != null) return 0;
+        return ProbabilityGrid.getBuildCost(this.getGridFreqs(model).length, this.getGridVols(model).length);
+    }
+
+    /**
+     * @return The frequencies of the nodes of the given model's ProbabilityGrid, in ascending order without duplicates.
+     * By default, nodes spaced evenly on a log scale (see ProbabilityGrid.logSpacedFreqs()). Subclasses whose models
+     * are piecewise linear in frequency should override this to put the nodes at the corners
+     */
+    protected float[] getGridFreqs(int model) {
+        return ProbabilityGrid.logSpacedFreqs(new float[0]);
+    }
+
+    /**
+     * @return The volumes of the nodes of the given model's ProbabilityGrid, in ascending order without duplicates.
+     * By default, nodes spaced evenly on a log scale (see ProbabilityGrid.logSpacedVols())
+     */
+    protected double[] getGridVols(int model) {
+        return ProbabilityGrid.logSpacedVols(new double[0]);
+    }
+
     /**
      * Get an estimate for the highest volume with P(heard) = 0 for the given frequency
      *
@@ -46,4 +198,26 @@ public abstract class PredictorResults extends HearingTestResults {
      * @return An estimate for the lowest volume with P(heard) = 1 for freq
      */
     public abstract double getVolCeilingEstimate(float freq);
+
+    /**
+     * @return A copy of these results, with the same start time, that shares nothing with them that either could
+     * change. Use this to hand the results to another thread while they may still change on this one
+     */
+    public PredictorResults copy() {
+        PredictorResults copy = this.newResampleBuffer();
+        copy.setStartTime(this.getStartTime());
+        return copy;
+    }
+
+    /**
+     * @return A copy of these results to be used as a buffer by resampleFrom(). Only called by Bootstrap and copy()
+     */
+    protected abstract PredictorResults newResampleBuffer();
+
+    /**
+     * Replace the results in this buffer (made by original.newResampleBuffer()) with a bootstrap resample of the
+     * original results, drawn with replacement from the original trials. Must not modify the original, so that many
+     * threads can resample from it at once
+     */
+    protected abstract void resampleFrom(PredictorResults original, Random random);
 }
@@ -0,0 +1,276 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A table of one model of a PredictorResults' probabilities at a grid of frequencies and volumes, so that many queries
+ * to the same results (eg. every tone of every confidence session in a PredictionReport) can be answered by bilinear
+ * interpolation instead of recomputing each one.
+ *
+ * The nodes along each axis are chosen by the results (see PredictorResults.getGridFreqs() and getGridVols()). Inside
+ * each cell the probability is interpolated linearly in both frequency and volume, so a model that is piecewise
+ * linear in each, with its corners at the nodes, is reproduced exactly: CalibrationTestResults' interpolated model
+ * puts its nodes at the tested frequencies and volumes for this reason. Smooth models use nodes spaced evenly on log
+ * scales instead.
+ *
+ * Accuracy bound: when the grid is built, the exact probability is also computed at the centre of every cell and the
+ * midpoint of every edge. Any cell where one of these differs from the interpolated value by more than TOLERANCE is
+ * marked, and queries that fall in a marked cell (or outside the grid) get the exact probability instead. So every
+ * answer is either exact or from a cell that matched the exact probability to within TOLERANCE at its nodes, centre
+ * and edge midpoints. maxError() is the largest difference measured in the cells that are interpolated
+ */
+public class ProbabilityGrid {
+
+    /**
+     * The largest difference between an interpolated and exact probability at the check points of a cell for it to be
+     * interpolated
+     */
+    public static final double TOLERANCE = 0.005;
+
+    /**
+     * The range of frequencies in Hz and volumes covered by nodes spaced evenly on log scales
+     */
+    public static final float MIN_FREQ = 50, MAX_FREQ = 10000;
+    public static final double MIN_VOL = 1, MAX_VOL = Short.MAX_VALUE;
+
+    /**
+     * The number of log-spaced nodes per octave of frequency and per doubling of volume
+     */
+    private static final int FREQ_NODES_PER_OCTAVE = 2, VOL_NODES_PER_DOUBLING = 8;
+
+    private final PredictorResults results;
+
+    private final int model;
+
+    /**
+     * The nodes along each axis, in ascending order
+     */
+    private final float[] freqs;
+    private final double[] vols;
+
+    /**
+     * The exact probability at each node, [freq index][vol index] flattened with vols.length nodes per row
+     */
+    private final double[] probs;
+
+    /**
+     * The cells that are answered exactly: bit (f * (vols.length - 1) + v) for the cell between freqs[f], freqs[f + 1],
+     * vols[v] and vols[v + 1]
+     */
+    private final BitSet exactCells;
+
+    private final double maxError;
+
+    private ProbabilityGrid(PredictorResults results, int model, float[] freqs, double[] vols, double[] probs,
+                            BitSet exactCells, double maxError) {
+        this.results = results;
+        this.model = model;
+        this.freqs = freqs;
+        this.vols = vols;
+        this.probs = probs;
+        this.exactCells = exactCells;
+        this.maxError = maxError;
+    }
+
+    /**
+     * Compute the probabilities of the given model of the given results at each node, and check every cell
+     *
+     * @param freqs The frequency nodes, in ascending order without duplicates (at least 2)
+     * @param vols The volume nodes, in ascending order without duplicates (at least 2)
+     * @throws IllegalStateException If there is no data stored in the results
+     */
+    public static ProbabilityGrid build(PredictorResults results, int model, float[] freqs, double[] vols)
+            throws IllegalStateException {
+        int nF = freqs.length, nV = vols.length;
+        if (nF < 2 || nV < 2) throw new IllegalArgumentException("A grid needs at least 2 nodes along each axis");
+
+        // nodes, then cell centres, then midpoints of the edges along the volume and frequency axes
+        int nNodes = nF * nV, nCentres = (nF - 1) * (nV - 1), nVolEdges = nF * (nV - 1), nFreqEdges = (nF - 1) * nV;
+        int n = nNodes + nCentres + nVolEdges + nFreqEdges;
+        float[] pointFreqs = new float[n];
+        double[] pointVols = new double[n], exact = new double[n];
+        int i = 0;
+        for (int f = 0; f < nF; f++)
+            for (int v = 0; v < nV; v++, i++) {
+                pointFreqs[i] = freqs[f];
+                pointVols[i] = vols[v];
+            }
+        for (int f = 0; f < nF - 1; f++)
+            for (int v = 0; v < nV - 1; v++, i++) {
+                pointFreqs[i] = (freqs[f] + freqs[f + 1]) / 2;
+                pointVols[i] = (vols[v] + vols[v + 1]) / 2;
+            }
+        for (int f = 0; f < nF; f++)
+            for (int v = 0; v < nV - 1; v++, i++) {
+                pointFreqs[i] = freqs[f];
+                pointVols[i] = (vols[v] + vols[v + 1]) / 2;
+            }
+        for (int f = 0; f < nF - 1; f++)
+            for (int v = 0; v < nV; v++, i++) {
+                pointFreqs[i] = (freqs[f] + freqs[f + 1]) / 2;
+                pointVols[i] = vols[v];
+            }
+        results.getProbabilities(pointFreqs, pointVols, exact, n, model);
+
+        double[] probs = Arrays.copyOf(exact, nNodes);
+        double[] cellErrors = new double[nCentres];
+        i = nNodes;
+        for (int f = 0; f < nF - 1; f++)
+            for (int v = 0; v < nV - 1; v++, i++) {
+                double interpolated = (probs[f * nV + v] + probs[f * nV + v + 1] +
+                                       probs[(f + 1) * nV + v] + probs[(f + 1) * nV + v + 1]) / 4;
+                cellErrors[f * (nV - 1) + v] = Math.abs(exact[i] - interpolated);
+            }
+        // each edge is shared by the cells either side of it
+        for (int f = 0; f < nF; f++)
+            for (int v = 0; v < nV - 1; v++, i++) {
+                double error = Math.abs(exact[i] - (probs[f * nV + v] + probs[f * nV + v + 1]) / 2);
+                if (f > 0) addError(cellErrors, (f - 1) * (nV - 1) + v, error);
+                if (f < nF - 1) addError(cellErrors, f * (nV - 1) + v, error);
+            }
+        for (int f = 0; f < nF - 1; f++)
+            for (int v = 0; v < nV; v++, i++) {
+                double error = Math.abs(exact[i] - (probs[f * nV + v] + probs[(f + 1) * nV + v]) / 2);
+                if (v > 0) addError(cellErrors, f * (nV - 1) + v - 1, error);
+                if (v < nV - 1) addError(cellErrors, f * (nV - 1) + v, error);
+            }
+
+        BitSet exactCells = new BitSet(nCentres);
+        double maxError = 0;
+        for (int c = 0; c < nCentres; c++) {
+            if (! (cellErrors[c] <= TOLERANCE)) exactCells.set(c);  // also catches NaN
+            else maxError = Math.max(maxError, cellErrors[c]);
+        }
+        return new ProbabilityGrid(results, model, freqs, vols, probs, exactCells, maxError);
+    }
+
+    private static void addError(double[] cellErrors, int cell, double error) {
+        if (! (error <= cellErrors[cell])) cellErrors[cell] = error;
+    }
+
+    /**
+     * @return The number of exact probabilities computed by build() for a grid with the given numbers of nodes, ie.
+     * about the number of queries after which the grid is cheaper than asking the results directly
+     */
+    public static int getBuildCost(int nFreqs, int nVols) {
+        return nFreqs * nVols + (nFreqs - 1) * (nVols - 1) + nFreqs * (nVols - 1) + (nFreqs - 1) * nVols;
+    }
+
+    /**
+     * @return The given frequencies in ascending order without duplicates, along with FREQ_NODES_PER_OCTAVE nodes
+     * per octave between MIN_FREQ and MAX_FREQ
+     */
+    public static float[] logSpacedFreqs(float[] include) {
+        int nSteps = (int) Math.ceil(Math.log(MAX_FREQ / MIN_FREQ) / Math.log(2) * FREQ_NODES_PER_OCTAVE);
+        float[] nodes = Arrays.copyOf(include, include.length + nSteps + 1);
+        for (int s = 0; s <= nSteps; s++)
+            nodes[include.length + s] = (float) (MIN_FREQ * Math.pow(MAX_FREQ / MIN_FREQ, (double) s / nSteps));
+        return sortedUnique(nodes);
+    }
+
+    /**
+     * @return The given volumes in ascending order without duplicates, along with VOL_NODES_PER_DOUBLING nodes per
+     * doubling between MIN_VOL and MAX_VOL
+     */
+    public static double[] logSpacedVols(double[] include) {
+        int nSteps = (int) Math.ceil(Math.log(MAX_VOL / MIN_VOL) / Math.log(2) * VOL_NODES_PER_DOUBLING);
+        double[] nodes = Arrays.copyOf(include, include.length + nSteps + 1);
+        for (int s = 0; s <= nSteps; s++)
+            nodes[include.length + s] = MIN_VOL * Math.pow(MAX_VOL / MIN_VOL, (double) s / nSteps);
+        return sortedUnique(nodes);
+    }
+
+    /**
+     * @return A sorted copy of the given array without duplicates
+     */
+    public static float[] sortedUnique(float[] values) {
+        float[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) if (n == 0 || sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+        return Arrays.copyOf(sorted, n);
+    }
+
+    public static double[] sortedUnique(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) if (n == 0 || sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+        return Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * Estimate the probability of hearing each of n sines, as in PredictorResults.getProbabilities() with this grid's
+     * model. Sines in marked cells or outside the grid are passed on to the results together in one batch
+     */
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n) throws IllegalStateException {
+        int nV = this.vols.length;
+        int[] exactIndices = null;
+        int nExact = 0;
+        for (int i = 0; i < n; i++) {
+            int f = findCell(this.freqs, freqs[i]), v = findCell(this.vols, vols[i]);
+            if (f < 0 || v < 0 || this.exactCells.get(f * (nV - 1) + v)) {
+                if (exactIndices == null) exactIndices = new int[n - i];
+                exactIndices[nExact++] = i;
+                continue;
+            }
+            double dx = (freqs[i] - this.freqs[f]) / (this.freqs[f + 1] - this.freqs[f]);
+            double dy = (vols[i] - this.vols[v]) / (this.vols[v + 1] - this.vols[v]);
+            double[] p = this.probs;
+            double below = p[f * nV + v] + dy * (p[f * nV + v + 1] - p[f * nV + v]);
+            double above = p[(f + 1) * nV + v] + dy * (p[(f + 1) * nV + v + 1] - p[(f + 1) * nV + v]);
+            out[i] = below + dx * (above - below);
+        }
+        if (nExact == 0) return;
+
+        float[] exactFreqs = new float[nExact];
+        double[] exactVols = new double[nExact], exact = new double[nExact];
+        for (int j = 0; j < nExact; j++) {
+            exactFreqs[j] = freqs[exactIndices[j]];
+            exactVols[j] = vols[exactIndices[j]];
+        }
+        this.results.getProbabilities(exactFreqs, exactVols, exact, nExact, this.model);
+        for (int j = 0; j < nExact; j++) out[exactIndices[j]] = exact[j];
+    }
+
+    /**
+     * @return The index of the node at or below value, so that value is in the cell from that node to the next, or -1
+     * if value is outside the nodes
+     */
+    private static int findCell(float[] nodes, float value) {
+        if (! (value >= nodes[0] && value <= nodes[nodes.length - 1])) return -1;
+        int i = Arrays.binarySearch(nodes, value);
+        if (i < 0) i = -i - 2;
+        return Math.min(i, nodes.length - 2);
+    }
+
+    private static int findCell(double[] nodes, double value) {
+        if (! (value >= nodes[0] && value <= nodes[nodes.length - 1])) return -1;
+        int i = Arrays.binarySearch(nodes, value);
+        if (i < 0) i = -i - 2;
+        return Math.min(i, nodes.length - 2);
+    }
+
+    /**
+     * @return The largest difference between the interpolated and exact probabilities measured in the cells that are
+     * interpolated (at most TOLERANCE)
+     */
+    public double maxError() {
+        return this.maxError;
+    }
+
+    /**
+     * @return The proportion of cells that are answered exactly because interpolation didn't meet TOLERANCE there
+     */
+    public double getExactProportion() {
+        return (double) this.exactCells.cardinality() / ((this.freqs.length - 1) * (this.vols.length - 1));
+    }
+
+    /**
+     * @return The number of nodes in the grid
+     */
+    public int size() {
+        return this.probs.length;
+    }
+}
@@ -0,0 +1,299 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.analysis.MultivariateVectorFunction;
+import org.apache.commons.math3.exception.TooManyEvaluationsException;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularMatrixException;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.SimpleValueChecker;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunctionGradient;
+import org.apache.commons.math3.optim.nonlinear.scalar.gradient.NonLinearConjugateGradientOptimizer;
+
+/**
+ * A logistic psychometric function fitted to the results of testing one frequency at several volumes:
+ *
+ *      P(heard | vol) = 1 / (1 + exp(-(intercept + slope * (ln(vol) - centre))))
+ *
+ * Volumes are compared on a log scale, so the same ratio between volumes gives the same change in log-odds anywhere on
+ * the curve. The parameters are the maximum likelihood estimates under a weak Gaussian prior (ie. ridge-penalized
+ * logistic regression, fitted by Newton's method), which keeps them finite when the results are perfectly separated,
+ * eg. when every volume above some point was always heard and every volume below it never was, which is common with
+ * only a few trials per volume.
+ *
+ * fitThresholdSlope() fits the same curve with priors on the threshold and slope instead, as used for results pooled
+ * from several tests (MaximumLikelihoodResults): the slope is pulled toward PRIOR_SLOPE and can never be negative, and
+ * the fit can start from a previous one (eg. before a bootstrap resample), so refitting after a small change only
+ * takes a few iterations of the conjugate gradient optimizer.
+ *
+ * Once fitted, evaluating the curve is O(1) with no allocation
+ */
+public class PsychometricFit {
+
+    /**
+     * The strength of the prior on the parameters: the penalty added to the negative log-likelihood is
+     * PRIOR_STRENGTH * (intercept^2 + slope^2) / 2
+     */
+    private static final double PRIOR_STRENGTH = 0.1;
+
+    private static final int MAX_ITERATIONS = 50;
+
+    private static final double CONVERGENCE_TOLERANCE = 1e-9;
+
+    /**
+     * The largest change to either parameter allowed in one Newton step, so that early steps can't overshoot
+     */
+    private static final double MAX_STEP = 5;
+
+    /**
+     * The slope toward which fitThresholdSlope() pulls fits when there are few trials
+     */
+    public static final double PRIOR_SLOPE = 4;
+
+    /**
+     * The strength of the priors of fitThresholdSlope(): the penalty added to the negative log-likelihood is
+     *      (SLOPE_PRIOR_STRENGTH * (ln(slope) - ln(PRIOR_SLOPE))^2
+     *          + THRESHOLD_PRIOR_STRENGTH * (ln(threshold) - centre)^2) / 2
+     */
+    private static final double SLOPE_PRIOR_STRENGTH = 1, THRESHOLD_PRIOR_STRENGTH = 0.01;
+
+    private static final int MAX_EVALUATIONS = 1000;
+
+    private static final double OPTIMIZER_TOLERANCE = 1e-10;
+
+    /**
+     * The log-odds of hearing a tone at a volume of exp(centre)
+     */
+    public final double intercept;
+
+    /**
+     * The change in log-odds of hearing a tone when ln(vol) increases by 1
+     */
+    public final double slope;
+
+    /**
+     * The mean of ln(vol) over all trials, subtracted from ln(vol) so that the parameters are nearly independent
+     */
+    public final double centre;
+
+    private PsychometricFit(double intercept, double slope, double centre) {
+        this.intercept = intercept;
+        this.slope = slope;
+        this.centre = centre;
+    }
+
+    /**
+     * Fit a logistic curve to the given results
+     *
+     * @param vols The volumes tested (all > 0)
+     * @param nHeard The number of trials in which each volume was heard
+     * @param nTrials The number of trials of each volume
+     * @param n The number of volumes
+     * @return The fitted curve
+     * @throws IllegalArgumentException If there are no trials
+     */
+    public static PsychometricFit fitLogistic(double[] vols, int[] nHeard, int[] nTrials, int n)
+            throws IllegalArgumentException {
+        double[] x = new double[n];
+        double centre = 0;
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            x[i] = Math.log(vols[i]);
+            centre += x[i] * nTrials[i];
+            total += nTrials[i];
+        }
+        if (total == 0) throw new IllegalArgumentException("No trials to fit");
+        centre /= total;
+        for (int i = 0; i < n; i++) x[i] -= centre;
+
+        double a = 0, b = 0;
+        double[][] hessian = new double[2][2];
+        double[] gradient = new double[2];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            // gradient and (negated) Hessian of the penalized log-likelihood
+            gradient[0] = -PRIOR_STRENGTH * a;
+            gradient[1] = -PRIOR_STRENGTH * b;
+            hessian[0][0] = PRIOR_STRENGTH;
+            hessian[0][1] = 0;
+            hessian[1][1] = PRIOR_STRENGTH;
+            for (int i = 0; i < n; i++) {
+                double p = logistic(a + b * x[i]);
+                double residual = nHeard[i] - nTrials[i] * p;
+                double weight = nTrials[i] * p * (1 - p);
+                gradient[0] += residual;
+                gradient[1] += residual * x[i];
+                hessian[0][0] += weight;
+                hessian[0][1] += weight * x[i];
+                hessian[1][1] += weight * x[i] * x[i];
+            }
+            hessian[1][0] = hessian[0][1];
+
+            RealVector step;
+            try {
+                step = new LUDecomposition(new Array2DRowRealMatrix(hessian, false)).getSolver()
+                        .solve(new ArrayRealVector(gradient, false));
+            } catch (SingularMatrixException e) {
+                break;  // not possible with a positive prior, but keep the current estimate if it happens
+            }
+            double da = step.getEntry(0), db = step.getEntry(1);
+            double largest = Math.max(Math.abs(da), Math.abs(db));
+            if (largest > MAX_STEP) {
+                da *= MAX_STEP / largest;
+                db *= MAX_STEP / largest;
+            }
+            a += da;
+            b += db;
+            if (largest < CONVERGENCE_TOLERANCE) break;
+        }
+        return new PsychometricFit(a, b, centre);
+    }
+
+    /**
+     * Fit a logistic curve to the given results with priors on ln(threshold) (centred on the mean ln(vol) of the
+     * trials) and ln(slope) (centred on ln(PRIOR_SLOPE)) rather than on the intercept and slope
+     *
+     * @param logVols ln() of the volumes tested
+     * @param nHeard The number of trials in which each volume was heard
+     * @param nTrials The number of trials of each volume
+     * @param n The number of volumes
+     * @param start A previous fit to start from, eg. to similar results, or null to start from the centre of the
+     *              priors
+     * @return The fitted curve. If the optimizer doesn't converge, the curve it started from
+     * @throws IllegalArgumentException If there are no trials
+     */
+    public static PsychometricFit fitThresholdSlope(final double[] logVols, final int[] nHeard, final int[] nTrials,
+                                                    final int n, @Nullable PsychometricFit start)
+            throws IllegalArgumentException {
+        double sum = 0;
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            sum += logVols[i] * nTrials[i];
+            total += nTrials[i];
+        }
+        if (total == 0) throw new IllegalArgumentException("No trials to fit");
+        final double centre = sum / total;
+
+        double[] guess = start != null && start.slope > 0
+                ? new double[]{start.logThreshold(), Math.log(start.slope)}
+                : new double[]{centre, Math.log(PRIOR_SLOPE)};
+        NonLinearConjugateGradientOptimizer optimizer = new NonLinearConjugateGradientOptimizer(
+                NonLinearConjugateGradientOptimizer.Formula.POLAK_RIBIERE,
+                new SimpleValueChecker(OPTIMIZER_TOLERANCE, OPTIMIZER_TOLERANCE));
+        try {
+            PointValuePair optimum = optimizer.optimize(
+                    new MaxEval(MAX_EVALUATIONS),
+                    GoalType.MINIMIZE,
+                    new InitialGuess(guess),
+                    new ObjectiveFunction(new MultivariateFunction() {
+                        @Override
+                        public double value(double[] point) {
+                            return negativeLogPosterior(logVols, nHeard, nTrials, n, point[0], point[1], centre);
+                        }
+                    }),
+                    new ObjectiveFunctionGradient(new MultivariateVectorFunction() {
+                        @Override
+                        public double[] value(double[] point) {
+                            return gradient(logVols, nHeard, nTrials, n, point[0], point[1], centre);
+                        }
+                    }));
+            guess = optimum.getPoint();
+        } catch (TooManyEvaluationsException e) {
+            // keep the starting point: it is still the best estimate we have
+        }
+        double slope = Math.exp(guess[1]);
+        return new PsychometricFit(slope * (centre - guess[0]), slope, centre);
+    }
+
+    /**
+     * @return The negative log-likelihood of the trials plus the penalty from the priors of fitThresholdSlope()
+     */
+    private static double negativeLogPosterior(double[] logVols, int[] nHeard, int[] nTrials, int n,
+                                               double logThreshold, double logSlope, double centre) {
+        double slope = Math.exp(logSlope);
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double z = slope * (logVols[i] - logThreshold);
+            // -ln P(heard) = softplus(-z), -ln P(not heard) = softplus(z)
+            sum += nHeard[i] * softplus(-z) + (nTrials[i] - nHeard[i]) * softplus(z);
+        }
+        double slopeOffset = logSlope - Math.log(PRIOR_SLOPE), thresholdOffset = logThreshold - centre;
+        return sum + (SLOPE_PRIOR_STRENGTH * slopeOffset * slopeOffset +
+                      THRESHOLD_PRIOR_STRENGTH * thresholdOffset * thresholdOffset) / 2;
+    }
+
+    /**
+     * @return The gradient of negativeLogPosterior() with respect to ln(threshold) and ln(slope)
+     */
+    private static double[] gradient(double[] logVols, int[] nHeard, int[] nTrials, int n,
+                                     double logThreshold, double logSlope, double centre) {
+        double slope = Math.exp(logSlope);
+        double dThreshold = 0, dLogSlope = 0;
+        for (int i = 0; i < n; i++) {
+            double offset = logVols[i] - logThreshold;
+            double residual = nHeard[i] - nTrials[i] * logistic(slope * offset);
+            dThreshold += residual * slope;
+            dLogSlope -= residual * slope * offset;
+        }
+        dThreshold += THRESHOLD_PRIOR_STRENGTH * (logThreshold - centre);
+        dLogSlope += SLOPE_PRIOR_STRENGTH * (logSlope - Math.log(PRIOR_SLOPE));
+        return new double[]{dThreshold, dLogSlope};
+    }
+
+    /**
+     * @return The fitted probability of hearing a tone at the given volume
+     */
+    public double probability(double vol) {
+        if (vol <= 0) return this.slope > 0 ? 0 : logistic(this.intercept);
+        return logistic(this.intercept + this.slope * (Math.log(vol) - this.centre));
+    }
+
+    /**
+     * @return The volume at which the fitted probability of hearing is 0.5, or NaN if the curve is flat
+     */
+    public double threshold() {
+        return Math.exp(this.logThreshold());
+    }
+
+    /**
+     * @return ln() of the volume at which the fitted probability of hearing is 0.5, or NaN if the curve is flat
+     */
+    public double logThreshold() {
+        if (this.slope == 0) return Double.NaN;
+        return this.centre - this.intercept / this.slope;
+    }
+
+    /**
+     * @return The volume at which the fitted probability of hearing is the given probability, or NaN if the curve is
+     * flat
+     */
+    public double volumeAt(double probability) {
+        return Math.exp(this.logThreshold() + Math.log(probability / (1 - probability)) / this.slope);
+    }
+
+    private static double logistic(double logOdds) {
+        return 1.0 / (1.0 + Math.exp(-logOdds));
+    }
+
+    /**
+     * @return ln(1 + exp(z)) without overflow
+     */
+    private static double softplus(double z) {
+        return z > 0 ? z + Math.log1p(Math.exp(-z)) : Math.log1p(Math.exp(z));
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return String.format("Logistic fit: threshold %.4f, slope %.4f per ln(vol)", this.threshold(), this.slope);
+    }
+}
@@ -2,29 +2,49 @@ package ca.usask.cs.tonesetandroid.HearingTest.Container;
 
 import android.support.annotation.NonNull;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
 import ca.usask.cs.tonesetandroid.Control.Model;
-import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolDurTrio;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Interval;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Melody;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.WavTone;
-import ca.usask.cs.tonesetandroid.UtilFunctions;
 
 public class RampTestResults extends PredictorResults {
 
+    // identifiers for the ways of estimating the probability of hearing a tone between the floor and ceiling
+    /**
+     * P(heard) rises linearly from 0 at the floor to 1 at the ceiling (see getProbabilityLinear())
+     */
+    public static final int MODEL_LINEAR = 0;
+    /**
+     * P(heard) rises logarithmically from 0 at the floor to 1 at the ceiling (see getProbabilityLogarithmic())
+     */
+    public static final int MODEL_LOGARITHMIC = 1;
+
     /**
      * A mapping of each frequency tested to the first and second volumes selected by the user at
      * that frequency
      */
     protected HashMap<Float, VolPair> allResults;
 
+    /**
+     * The tested frequencies in ascending order, and the volumes selected at each at the same positions. Kept in step
+     * with allResults by addResult() so that estimates never have to search or sort the map
+     */
+    private float[] sortedFreqs = new float[0];
+    private double[] sortedVol1s = new double[0], sortedVol2s = new double[0];
+
+    /**
+     * The volume ceiling across all frequencies, rebuilt by addResult(), or null if there are no results
+     */
+    private AudiogramCurve ceilingCurve = null;
+
     public RampTestResults(BackgroundNoiseType noiseType, String testTypeName) {
         super(noiseType, testTypeName);
         this.allResults = new HashMap<>();
@@ -35,17 +55,36 @@ public class RampTestResults extends PredictorResults {
         return getProbabilityLinear(tone);
     }
 
+    @Override
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n) throws IllegalStateException {
+        for (int i = 0; i < n; i++) out[i] = this.getProbabilityLinear(freqs[i], vols[i]);
+    }
+
+    @Override
+    public void getProbabilities(float[] freqs, double[] vols, double[] out, int n, int model)
+            throws IllegalStateException {
+        switch (model) {
+            case MODEL_LINEAR:
+                this.getProbabilities(freqs, vols, out, n);
+                break;
+            case MODEL_LOGARITHMIC:
+                for (int i = 0; i < n; i++) out[i] = linearToLogarithmic(this.getProbabilityLinear(freqs[i], vols[i]));
+                break;
+            default: throw new IllegalArgumentException("Unknown model: " + model);
+        }
+    }
+
+    @Override
+    public String[] getModelNames() {
+        return new String[]{"linear", "log"};
+    }
+
     protected double getProbability(Interval tone) throws IllegalStateException {
-        double f1Prob = this.getProbability(new FreqVolPair(tone.freq(), tone.vol()));
-        double f2Prob = this.getProbability(new FreqVolPair(tone.freq2(), tone.vol()));
-        return UtilFunctions.mean(new double[]{f1Prob, f2Prob});
+        return this.getMeanProbability(tone);
     }
 
     protected double getProbability(Melody tone) {
-        FreqVolDurTrio[] tones = tone.getAudibleTones();
-        double[] probs = new double[tones.length];
-        for (int i = 0; i < tones.length; i++) probs[i] = this.getProbability(tones[i]);
-        return UtilFunctions.mean(probs);
+        return this.getMeanProbability(tone);
     }
 
     protected double getProbability(WavTone tone) {
@@ -56,14 +95,13 @@ public class RampTestResults extends PredictorResults {
 
         float[][] topFreqs = Model.topNFrequencies(tone.wavID(), nAudioSamples, 3);
 
-        ArrayList<Number> probEstimates = new ArrayList<>();
-
+        float[] freqs = new float[nAudioSamples * nFreqsPerSample];
+        int n = 0;
         for (int i = 0; i < nAudioSamples; i++)
             for (int j = 0; j < nFreqsPerSample; j++)
-                if (topFreqs[i] != null && topFreqs[i][j] > 100)
-                    probEstimates.add(getProbability(new FreqVolPair(topFreqs[i][j], tone.vol())));
+                if (topFreqs[i] != null && topFreqs[i][j] > 100) freqs[n++] = topFreqs[i][j];
 
-        return UtilFunctions.mean(probEstimates);
+        return this.getMeanProbability(freqs, tone.vol(), n);
     }
 
     /**
@@ -76,16 +114,23 @@ public class RampTestResults extends PredictorResults {
      * @throws IllegalStateException If there are no results stored in this container
      */
     protected double getProbabilityLinear(Tone tone) throws IllegalStateException {
+        return this.getProbabilityLinear(tone.freq(), tone.vol());
+    }
+
+    /**
+     * @return The probability of hearing a sine of the given frequency and volume, modeling using the equation y = x
+     */
+    private double getProbabilityLinear(float freq, double vol) throws IllegalStateException {
         // get floor/ceiling estimates
-        double volFloor = this.getVolFloorEstimate(tone.freq());
-        double volCeiling = this.getVolCeilingEstimate(tone.freq());
+        double volFloor = this.getVolFloorEstimate(freq);
+        double volCeiling = this.getVolCeilingEstimate(freq);
 
         // Return 1 or 0 if above/below ceiling/floor
-        if (tone.vol() < volFloor) return 0.0;
-        if (tone.vol() > volCeiling) return 1.0;
+        if (vol < volFloor) return 0.0;
+        if (vol > volCeiling) return 1.0;
 
-        // Return the percentage of the way between floor and ceiling that tone.vol() is
-        return (tone.vol() - volFloor) / (volCeiling - volFloor);
+        // Return the percentage of the way between floor and ceiling that vol is
+        return (vol - volFloor) / (volCeiling - volFloor);
     }
 
     /**
@@ -98,18 +143,14 @@ public class RampTestResults extends PredictorResults {
      * @throws IllegalStateException If there are no results stored in this container
      */
     protected double getProbabilityLogarithmic(Tone tone) throws IllegalStateException {
-        // get floor/ceiling estimates
-        double volFloor = this.getVolFloorEstimate(tone.freq());
-        double volCeiling = this.getVolCeilingEstimate(tone.freq());
-
-        // Return 1 or 0 if above/below ceiling/floor
-        if (tone.vol() < volFloor) return 0.0;
-        if (tone.vol() > volCeiling) return 1.0;
-
-        // How much of the way between floor and ceiling is tone.vol()?
-        double pctBetween = (tone.vol() - volFloor) / (volCeiling - volFloor);
+        return linearToLogarithmic(this.getProbabilityLinear(tone.freq(), tone.vol()));
+    }
 
-        // Return
+    /**
+     * Convert a probability from the linear model to the logarithmic one: both are 0 below the floor and 1 above the
+     * ceiling, and in between the logarithmic model is y = ln((e - 1)x + 1) where x is the linear one
+     */
+    private static double linearToLogarithmic(double pctBetween) {
         return Math.log((Math.E - 1) * pctBetween + 1);
     }
 
@@ -125,30 +166,17 @@ public class RampTestResults extends PredictorResults {
      * Return an estimate for the volume ceiling (quietest volume which will be heard 100% of the
      * time) for the given frequency - must have results stored to call this method
      */
-    @SuppressWarnings("ConstantConditions")
     public double getVolCeilingEstimate(float freq) {
+        return this.getCeilingCurve().value(freq);
+    }
 
-        // Return max ramp vol if freq tested
-        if (this.allResults.containsKey(freq)) return this.allResults.get(freq).min();
-
-        // If freq is higher than highest or lower than lowest, return max ramp vol of nearest
-        float maxFreq = Collections.max(this.getTestedFreqs()),
-              minFreq = Collections.min(this.getTestedFreqs());
-        if (freq > maxFreq) return this.allResults.get(maxFreq).min();
-        if (freq < minFreq) return this.allResults.get(minFreq).min();
-
-        // Get max ramp vols of nearest tested frequencies
-        float freqAbove = UtilFunctions.findNearestAbove(freq, this.getTestedFreqs());
-        float freqBelow = UtilFunctions.findNearestBelow(freq, this.getTestedFreqs());
-
-        // How far between freqBelow and freqAbove is freq?
-        double pctBetween = (freq - freqBelow) / (freqAbove - freqBelow);
-
-        // Estimate vol ceiling linearly
-        double volBelow = this.allResults.get(freqBelow).min();
-        double volAbove = this.allResults.get(freqAbove).min();
-
-        return volBelow + pctBetween * (volAbove - volBelow);
+    /**
+     * @return A curve through the lower of the two ramp volumes at each tested frequency
+     * @throws IllegalStateException If there are no results stored in this container
+     */
+    public AudiogramCurve getCeilingCurve() throws IllegalStateException {
+        if (this.ceilingCurve == null) throw new IllegalStateException("No results stored");
+        return this.ceilingCurve;
     }
 
     /**
@@ -162,13 +190,9 @@ public class RampTestResults extends PredictorResults {
      * @return an array containing one FreqVolPair for each frequency tested, with vol=the volume at which the 
                user stopped the RampTest on the second try
      */
-    @SuppressWarnings("ConstantConditions")
     public FreqVolPair[] getResultsArray() {
-        FreqVolPair[] outArr = new FreqVolPair[this.allResults.size()];
-        int i = 0;
-        for (float freq : this.allResults.keySet()) {
-            outArr[i++] = new FreqVolPair(freq, allResults.get(freq).vol2());
-        }
+        FreqVolPair[] outArr = new FreqVolPair[this.sortedFreqs.length];
+        for (int i = 0; i < outArr.length; i++) outArr[i] = new FreqVolPair(this.sortedFreqs[i], this.sortedVol2s[i]);
         return outArr;
     }
 
@@ -181,17 +205,76 @@ public class RampTestResults extends PredictorResults {
      */
     public void addResult(float freq, double vol1, double vol2) {
         allResults.put(freq, new VolPair(vol1, vol2));
+
+        int i = Arrays.binarySearch(this.sortedFreqs, freq);
+        if (i < 0) {
+            i = -(i + 1);
+            int n = this.sortedFreqs.length;
+            float[] freqs = new float[n + 1];
+            double[] vol1s = new double[n + 1], vol2s = new double[n + 1];
+            System.arraycopy(this.sortedFreqs, 0, freqs, 0, i);
+            System.arraycopy(this.sortedFreqs, i, freqs, i + 1, n - i);
+            System.arraycopy(this.sortedVol1s, 0, vol1s, 0, i);
+            System.arraycopy(this.sortedVol1s, i, vol1s, i + 1, n - i);
+            System.arraycopy(this.sortedVol2s, 0, vol2s, 0, i);
+            System.arraycopy(this.sortedVol2s, i, vol2s, i + 1, n - i);
+            freqs[i] = freq;
+            this.sortedFreqs = freqs;
+            this.sortedVol1s = vol1s;
+            this.sortedVol2s = vol2s;
+        }
+        this.sortedVol1s[i] = vol1;
+        this.sortedVol2s[i] = vol2;
+
+        double[] ceilings = new double[this.sortedFreqs.length];
+        for (int j = 0; j < ceilings.length; j++) ceilings[j] = Math.min(this.sortedVol1s[j], this.sortedVol2s[j]);
+        this.ceilingCurve = new AudiogramCurve(this.sortedFreqs, ceilings, ceilings.length);
+        this.resultsChanged();
+    }
+
+    @Override
+    protected PredictorResults newResampleBuffer() {
+        RampTestResults buffer = new RampTestResults(this.getNoiseType(), this.getTestTypeName());
+        this.copyResultsTo(buffer);
+        return buffer;
+    }
+
+    /**
+     * Add every result in this container to the given one
+     */
+    protected void copyResultsTo(RampTestResults other) {
+        for (int i = 0; i < this.sortedFreqs.length; i++)
+            other.addResult(this.sortedFreqs[i], this.sortedVol1s[i], this.sortedVol2s[i]);
+    }
+
+    /**
+     * Resample each frequency's pair of ramp volumes with replacement: each of the two volumes is replaced by one of
+     * the original two, chosen at random
+     */
+    @Override
+    protected void resampleFrom(PredictorResults original, Random random) {
+        RampTestResults rampOriginal = (RampTestResults) original;
+        double[] ceilings = new double[this.sortedFreqs.length];
+        for (int i = 0; i < this.sortedFreqs.length; i++) {
+            double vol1 = random.nextBoolean() ? rampOriginal.sortedVol1s[i] : rampOriginal.sortedVol2s[i];
+            double vol2 = random.nextBoolean() ? rampOriginal.sortedVol1s[i] : rampOriginal.sortedVol2s[i];
+            this.sortedVol1s[i] = vol1;
+            this.sortedVol2s[i] = vol2;
+            this.allResults.put(this.sortedFreqs[i], new VolPair(vol1, vol2));
+            ceilings[i] = Math.min(vol1, vol2);
+        }
+        this.ceilingCurve = new AudiogramCurve(this.sortedFreqs, ceilings, ceilings.length);
+        this.resultsChanged();
     }
 
     @Override
     @NonNull
-    @SuppressWarnings("ConstantConditions")
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append(this.getTestIdentifier() + '\n');
-        for (float freq : this.getTestedFreqs())
+        for (int i = 0; i < this.sortedFreqs.length; i++)
             builder.append(String.format("Freq: %.1f, vol1 = %.3f, vol2 = %.3f%n",
-                    freq, this.allResults.get(freq).vol1(), this.allResults.get(freq).vol2()));
+                    this.sortedFreqs[i], this.sortedVol1s[i], this.sortedVol2s[i]));
         return builder.toString();
     }
 
@@ -207,6 +290,24 @@ public class RampTestResults extends PredictorResults {
                               this.getProbabilityLogarithmic(tone));
     }
 
+    @Override
+    public String[] getPredictionStrings(Tone[] tones) {
+        int n = tones.length;
+        float[] freqs = new float[n];
+        double[] vols = new double[n], linear = new double[n];
+        for (int i = 0; i < n; i++) {
+            freqs[i] = tones[i].freq();
+            vols[i] = tones[i].vol();
+        }
+        this.getProbabilities(freqs, vols, linear, n);
+
+        String[] predictions = new String[n];
+        for (int i = 0; i < n; i++)
+            predictions[i] = String.format("%s: linear %.4f log %.4f",
+                                           this.getTestIdentifier(), linear[i], linearToLogarithmic(linear[i]));
+        return predictions;
+    }
+
     @Override
     public String getTestIdentifier() {
         return this.getTestTypeName() + " without floor data at " + this.getFormattedStartTime();
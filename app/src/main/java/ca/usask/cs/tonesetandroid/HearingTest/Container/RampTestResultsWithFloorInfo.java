@@ -1,13 +1,9 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Container;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Map;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
-import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
-import ca.usask.cs.tonesetandroid.UtilFunctions;
 
 /**
  * A class for ramp test results that stores results from a reduce test and uses them to
@@ -20,6 +16,11 @@ public class RampTestResultsWithFloorInfo extends RampTestResults {
      */
     private FreqVolPair[] reduceResults = null;
 
+    /**
+     * The volume floor across all frequencies, built by setReduceResults(), or null if there are no reduce results
+     */
+    private AudiogramCurve floorCurve = null;
+
     public RampTestResultsWithFloorInfo(BackgroundNoiseType noiseType, String testTypeName) {
         super(noiseType, testTypeName);
     }
@@ -29,51 +30,60 @@ public class RampTestResultsWithFloorInfo extends RampTestResults {
      */
     public void setReduceResults(FreqVolPair[] reduceResults) {
         this.reduceResults = reduceResults;
+        this.floorCurve = null;
+        if (reduceResults != null && reduceResults.length > 0) {
+            float[] freqs = new float[reduceResults.length];
+            double[] vols = new double[reduceResults.length];
+            for (int i = 0; i < reduceResults.length; i++) {
+                freqs[i] = reduceResults[i].freq();
+                vols[i] = reduceResults[i].vol();
+            }
+            this.floorCurve = new AudiogramCurve(freqs, vols, reduceResults.length);
+        }
+        this.resultsChanged();
     }
 
     /**
      * @return A RampTestResults container identical to this one but without the floor info
      */
-    @SuppressWarnings("unchecked")
     public RampTestResults getRegularRampResults() {
         RampTestResults newResults = new RampTestResults(this.getNoiseType(), this.getTestTypeName());
-        newResults.allResults = (HashMap<Float, VolPair>) this.allResults.clone();
+        for (Map.Entry<Float, VolPair> entry : this.allResults.entrySet())
+            newResults.addResult(entry.getKey(), entry.getValue().vol1(), entry.getValue().vol2());
         return newResults;
     }
 
+    /**
+     * @return The results of the ReduceTest used to calculate volume floors, or null if not set
+     */
+    public FreqVolPair[] getReduceResults() {
+        return this.reduceResults;
+    }
+
     @Override
-    @SuppressWarnings("ConstantConditions")
     public double getVolFloorEstimate(float freq) {
+        return this.getFloorCurve().value(freq);
+    }
 
-        if (this.reduceResults == null) throw new IllegalStateException("No reduce results stored");
-
-        FreqVolPair[] results = this.reduceResults;
-        Float[] testedFreqs = FreqVolPair.getFreqsFromPairs(results);
-
-        // If freq tested, return result from reduce test
-        Tone testedTone = UtilFunctions.get(results, freq);
-        if (testedTone != null) return testedTone.vol();
-
-        // If freq is higher than highest or lower than lowest, return test result of nearest
-        float maxFreq = Collections.max(Arrays.asList(testedFreqs)),
-              minFreq = Collections.min(Arrays.asList(testedFreqs));
-        if (freq > maxFreq) return UtilFunctions.get(results, maxFreq).vol();
-        if (freq < minFreq) return UtilFunctions.get(results, minFreq).vol();
-
-        // Get max ramp vols of nearest tested frequencies
-        Tone toneAbove = UtilFunctions.findNearestAbove(freq, results);
-        Tone toneBelow = UtilFunctions.findNearestBelow(freq, results);
-        float freqAbove = toneAbove.freq();
-        float freqBelow = toneBelow.freq();
-
-        // How far between freqBelow and freqAbove is freq?
-        double pctBetween = (freq - freqBelow) / (freqAbove - freqBelow);
-
-        // Estimate vol floor linearly
-        double volBelow = UtilFunctions.get(results, freqBelow).vol();
-        double volAbove = UtilFunctions.get(results, freqAbove).vol();
+    /**
+     * @return A curve through the reduce test result at each tested frequency
+     * @throws IllegalStateException If no reduce results are stored
+     */
+    public AudiogramCurve getFloorCurve() throws IllegalStateException {
+        if (this.floorCurve == null) throw new IllegalStateException("No reduce results stored");
+        return this.floorCurve;
+    }
 
-        return volBelow + pctBetween * (volAbove - volBelow);
+    /**
+     * The buffer keeps these reduce results; only the ramp results are resampled
+     */
+    @Override
+    protected PredictorResults newResampleBuffer() {
+        RampTestResultsWithFloorInfo buffer =
+                new RampTestResultsWithFloorInfo(this.getNoiseType(), this.getTestTypeName());
+        this.copyResultsTo(buffer);
+        buffer.setReduceResults(this.reduceResults);
+        return buffer;
     }
 
     @Override
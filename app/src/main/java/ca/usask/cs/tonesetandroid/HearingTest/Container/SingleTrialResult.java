@@ -32,6 +32,11 @@ public class SingleTrialResult {
      */
     private boolean wasCorrect = false;
 
+    /**
+     * The average ambient noise level in dB during this trial (see AmbientNoiseMonitor), or NaN if not measured
+     */
+    private float ambientLevel = Float.NaN;
+
     /**
      * @param tone The tone being played for this trial
      */
@@ -83,6 +88,20 @@ public class SingleTrialResult {
         return this.wasCorrect;
     }
 
+    /**
+     * Set the average ambient noise level in dB during this trial
+     */
+    public void setAmbientLevel(float ambientLevel) {
+        this.ambientLevel = ambientLevel;
+    }
+
+    /**
+     * @return The average ambient noise level in dB during this trial, or NaN if it was not measured
+     */
+    public float ambientLevel() {
+        return this.ambientLevel;
+    }
+
     /**
      * @return The number of times that the user clicked an answer button during this trial
      */
@@ -133,7 +152,7 @@ public class SingleTrialResult {
     @Override
     @NonNull
     public String toString() {
-        return String.format("Tone: %s, Correct? %b, nClicks: %d, clicks: %s",
-                this.tone.toString(), this.wasCorrect, this.nClicks(), this.getClicksAsString());
+        return String.format("Tone: %s, Correct? %b, nClicks: %d, clicks: %s, ambient: %.1fdB",
+                this.tone.toString(), this.wasCorrect, this.nClicks(), this.getClicksAsString(), this.ambientLevel);
     }
 }
@@ -0,0 +1,127 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Test.Calibration;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.PopulationPrior;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResults;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+
+/**
+ * A SineCalibratonTest that chooses each tone adaptively instead of playing a fixed grid of volumes. Each frequency
+ * has a QuestTrack holding a posterior over its threshold, and each trial is played at the volume expected to tell
+ * the most about the threshold of a randomly chosen frequency whose track is not yet complete. Frequencies stop being
+ * tested once their posterior is tight, so most participants need far fewer trials than the fixed grid, while the
+ * trials that are done are concentrated where P(heard) changes.
+ *
+ * The prior for each frequency is centred (in ln(vol)) between the ramp and reduce results, and is combined with the
+ * population prior for this noise if there is one. Its standard deviation is never below MIN_PRIOR_SD, so however
+ * closely previous participants agree, each track still needs the participant's own responses to finish
+ */
+public class AdaptiveSineCalibrationTest extends SineCalibratonTest {
+
+    /**
+     * The smallest standard deviation of ln(threshold) in the prior, before and after combining it with the population
+     * prior. Well above QuestTrack.STOP_SD, so that the prior alone can never complete a track
+     */
+    static final double MIN_PRIOR_SD = 0.5;
+
+    /**
+     * Trials may be placed between the reduce result divided by this and the ramp result multiplied by this
+     */
+    private static final double CANDIDATE_MARGIN = 1.5;
+
+    /**
+     * The search for each frequency's threshold
+     */
+    protected ArrayList<QuestTrack> tracks;
+
+    /**
+     * The track for the trial currently being played
+     */
+    private QuestTrack currentTrack;
+
+    @Nullable
+    private PopulationPrior populationPrior;
+
+    private final Random random = new Random();
+
+    public AdaptiveSineCalibrationTest(BackgroundNoiseType noiseType) {
+        super(noiseType);
+    }
+
+    @Override
+    public String getTestTypeName() {
+        return "sine-adaptive-calibration";
+    }
+
+    /**
+     * Create a QuestTrack for each calibration frequency. testTones is filled with the quietest and loudest volumes
+     * that may be played at each frequency, so that verifyOutput() checks the whole range. nVolsPerFreq and
+     * nTrialsPerVol are ignored: the number of trials is decided by each QuestTrack
+     */
+    @Override
+    protected void configureTestTones(RampTestResults rampResults,
+                                      FreqVolPair[] reduceResults,
+                                      int nVolsPerFreq,
+                                      int nTrialsPerVol) {
+
+        this.tracks = new ArrayList<>();
+        this.testTones = new ArrayList<>();
+        for (float freq : DEFAULT_CALIBRATION_FREQUENCIES) {
+            double topVolEst = Tone.getVolForFreq(rampResults.getResultsArray(), freq);
+            double bottomVolEst = Tone.getVolForFreq(reduceResults, freq);
+            double top = Math.log(Math.max(topVolEst, bottomVolEst));
+            double bottom = Math.log(Math.min(topVolEst, bottomVolEst));
+
+            double mean = (top + bottom) / 2, sd = Math.max(MIN_PRIOR_SD, (top - bottom) / 2);
+            if (this.populationPrior != null && this.populationPrior.hasPrior(this.getBackgroundNoiseType())) {
+                // the product of two normal densities is normal, weighted by their precisions
+                double popMean = this.populationPrior.getLogThresholdMean(freq, this.getBackgroundNoiseType());
+                double popSD = this.populationPrior.getLogThresholdSD(freq, this.getBackgroundNoiseType());
+                if (! Double.isNaN(popMean) && popSD > 0) {
+                    double precision = 1 / (sd * sd), popPrecision = 1 / (popSD * popSD);
+                    mean = (mean * precision + popMean * popPrecision) / (precision + popPrecision);
+                    sd = Math.max(MIN_PRIOR_SD, Math.sqrt(1 / (precision + popPrecision)));
+                }
+            }
+
+            QuestTrack track = new QuestTrack(freq, mean, sd, Math.exp(bottom) / CANDIDATE_MARGIN,
+                                              Math.min(Math.exp(top) * CANDIDATE_MARGIN, Short.MAX_VALUE));
+            this.tracks.add(track);
+            this.testTones.add(new FreqVolPair(freq, track.getMinVol()));
+            this.testTones.add(new FreqVolPair(freq, track.getMaxVol()));
+        }
+    }
+
+    @Override
+    protected FreqVolPair nextTone() {
+        ArrayList<QuestTrack> remaining = new ArrayList<>();
+        for (QuestTrack track : this.tracks) if (! track.isComplete()) remaining.add(track);
+        this.currentTrack = remaining.get(this.random.nextInt(remaining.size()));
+        return new FreqVolPair(this.currentTrack.freq, this.currentTrack.nextVolume());
+    }
+
+    @Override
+    protected void trialComplete(FreqVolPair tone, boolean heard) {
+        this.currentTrack.update(tone.vol(), heard);
+    }
+
+    @Override
+    public boolean isComplete() {
+        for (QuestTrack track : this.tracks) if (! track.isComplete()) return false;
+        return true;
+    }
+
+    /**
+     * @param populationPrior The thresholds of previous participants, or null to use only the ramp and reduce results
+     *                        as the prior. Only takes effect if called before initialize()
+     */
+    public void setPopulationPrior(@Nullable PopulationPrior populationPrior) {
+        this.populationPrior = populationPrior;
+    }
+}
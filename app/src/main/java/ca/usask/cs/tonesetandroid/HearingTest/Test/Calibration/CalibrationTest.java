@@ -8,6 +8,7 @@ import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResults;
 import ca.usask.cs.tonesetandroid.HearingTest.Test.SingleToneTest;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+import ca.usask.cs.tonesetandroid.Spectral.ToneVerifier;
 
 /**
  * A hearing test that performs the "main" portion of a calibration test
@@ -87,6 +88,13 @@ public abstract class CalibrationTest<T extends Tone> extends SingleToneTest<T>
         initialize(this.rampResults, this.reduceResults, DEFAULT_N_VOL_PER_FREQ, DEFAULT_N_TRIAL_PER_VOL);
     }
 
+    /**
+     * Check the rendered audio of every tone configured for this test. Only call after initialize()
+     */
+    public ToneVerifier.Report verifyOutput() {
+        return this.verifyOutput(this.testTones);
+    }
+
     @Override
     protected void run() {
         this.setStartTime();  // set the start time of this test (or do nothing if this has already been done)
@@ -102,9 +110,10 @@ public abstract class CalibrationTest<T extends Tone> extends SingleToneTest<T>
                         if (iModel.testPaused() || ! iModel.testing()) return;  // exit if paused or returned to login
 
                         iModel.resetAnswer();
-                        T current = position.next();
+                        T current = nextTone();
                         newCurrentTrial(current);
                         currentTrial.setStartTime();
+                        markAmbientLevel();
                         playTone(current);
                         if (iModel.testPaused()) {  // return without doing anything if user paused during tone
                             currentTrial = null;    // remove current trial so it isn't added to list
@@ -112,6 +121,7 @@ public abstract class CalibrationTest<T extends Tone> extends SingleToneTest<T>
                         }
                         currentTrial.setCorrect(iModel.answered());
                         ((CalibrationTestResults) results).addResult(current, currentTrial.wasCorrect());
+                        trialComplete(current, currentTrial.wasCorrect());
                         sleepThread(1800, 3000); // wait before playing next tone
                         saveLine(); // save the line after waiting so we register all the clicks during silence
                     }
@@ -126,6 +136,24 @@ public abstract class CalibrationTest<T extends Tone> extends SingleToneTest<T>
         }).start();
     }
 
+    /**
+     * @return The tone to be played in the next trial. Only called while ! isComplete()
+     */
+    protected T nextTone() {
+        return this.position.next();
+    }
+
+    /**
+     * Called after each trial has been added to the results, for subclasses that choose tones based on earlier
+     * trials. Trials interrupted by pausing the test are discarded without calling this
+     *
+     * @param tone The tone that was played
+     * @param heard Whether the tone was heard
+     */
+    protected void trialComplete(T tone, boolean heard) {
+        // no action by default
+    }
+
     public CalibrationTestResults getResults() {
         return (CalibrationTestResults) this.results;
     }
@@ -0,0 +1,229 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Test.Calibration;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A Bayesian adaptive (QUEST-style) search for the threshold of one frequency: the volume at which the tone is heard
+ * half of the time, ignoring false alarms and lapses.
+ *
+ * The posterior over ln(threshold) is kept on a fixed grid of points GRID_STEP apart, and the psychometric function
+ *
+ *      P(heard | vol, threshold) = FALSE_ALARM_RATE
+ *              + (1 - FALSE_ALARM_RATE - LAPSE_RATE) / (1 + exp(-SLOPE * (ln(vol) - ln(threshold))))
+ *
+ * is only ever evaluated with vol and threshold on the same grid, so it is precomputed once for every difference
+ * between grid points. Each trial is placed at the grid volume that minimizes the expected entropy of the posterior
+ * after the trial (ie. where the outcome is least certain and most informative), and the search is done once the
+ * posterior standard deviation of ln(threshold) is at most STOP_SD, or after MAX_TRIALS trials
+ */
+public class QuestTrack {
+
+    /**
+     * The spacing of the grid of ln(threshold) and ln(vol)
+     */
+    public static final double GRID_STEP = 0.05;
+
+    /**
+     * The steepness of the psychometric function, in log-odds per ln(vol)
+     */
+    public static final double SLOPE = 6;
+
+    /**
+     * The probabilities of responding "heard" with no tone audible, and of missing a clearly audible tone
+     */
+    public static final double FALSE_ALARM_RATE = 0.02, LAPSE_RATE = 0.02;
+
+    /**
+     * The posterior standard deviation of ln(threshold) at which the search stops (0.1 = about 10% in volume)
+     */
+    public static final double STOP_SD = 0.1;
+
+    /**
+     * The fewest and most trials in a search, regardless of the posterior
+     */
+    public static final int MIN_TRIALS = 4, MAX_TRIALS = 20;
+
+    /**
+     * The range of the grid
+     */
+    private static final double MIN_LOG_VOL = 0, MAX_LOG_VOL = Math.log(Short.MAX_VALUE);
+
+    private static final int N_POINTS = (int) Math.ceil((MAX_LOG_VOL - MIN_LOG_VOL) / GRID_STEP) + 1;
+
+    /**
+     * P(heard) for a tone d grid points above the threshold is P_HEARD[d + N_POINTS - 1]
+     */
+    private static final double[] P_HEARD = new double[2 * N_POINTS - 1];
+
+    static {
+        for (int d = -(N_POINTS - 1); d < N_POINTS; d++)
+            P_HEARD[d + N_POINTS - 1] = FALSE_ALARM_RATE +
+                    (1 - FALSE_ALARM_RATE - LAPSE_RATE) / (1 + Math.exp(-SLOPE * d * GRID_STEP));
+    }
+
+    /**
+     * The frequency being searched
+     */
+    public final float freq;
+
+    /**
+     * The posterior probability of each grid point being ln(threshold), summing to 1
+     */
+    private final double[] posterior;
+
+    /**
+     * The range of grid points at which trials may be placed
+     */
+    private final int firstCandidate, lastCandidate;
+
+    private int nTrials = 0;
+
+    /**
+     * @param freq The frequency to be searched
+     * @param priorMean The mean of the (normal) prior on ln(threshold)
+     * @param priorSD The standard deviation of the prior on ln(threshold)
+     * @param minVol The quietest volume at which a trial may be placed
+     * @param maxVol The loudest volume at which a trial may be placed
+     */
+    public QuestTrack(float freq, double priorMean, double priorSD, double minVol, double maxVol) {
+        this.freq = freq;
+        this.posterior = new double[N_POINTS];
+        double sum = 0;
+        for (int k = 0; k < N_POINTS; k++) {
+            double z = (logVol(k) - priorMean) / priorSD;
+            this.posterior[k] = Math.exp(-z * z / 2);
+            sum += this.posterior[k];
+        }
+        if (! (sum > 0)) {  // prior too far outside the grid: fall back on a flat prior
+            for (int k = 0; k < N_POINTS; k++) this.posterior[k] = 1;
+            sum = N_POINTS;
+        }
+        for (int k = 0; k < N_POINTS; k++) this.posterior[k] /= sum;
+
+        this.firstCandidate = nearestPoint(Math.log(Math.min(minVol, maxVol)));
+        this.lastCandidate = nearestPoint(Math.log(Math.max(minVol, maxVol)));
+    }
+
+    /**
+     * @return The volume of the next trial: the candidate that minimizes the expected entropy of the posterior
+     */
+    public double nextVolume() {
+        int best = this.firstCandidate;
+        double bestEntropy = Double.POSITIVE_INFINITY;
+        double[] posterior = this.posterior;
+        for (int j = this.firstCandidate; j <= this.lastCandidate; j++) {
+            // unnormalized posteriors after each response are posterior[k] * P(response), normalized by pHeard etc.
+            double pHeard = 0, sumHeard = 0, sumMissed = 0;
+            int offset = j + N_POINTS - 1;
+            for (int k = 0; k < N_POINTS; k++) {
+                double p = posterior[k];
+                if (p == 0) continue;
+                double heard = p * P_HEARD[offset - k], missed = p - heard;
+                pHeard += heard;
+                sumHeard += xLogX(heard);
+                sumMissed += xLogX(missed);
+            }
+            double pMissed = 1 - pHeard;
+            // H(posterior | response) = log(P(response)) - sum(q log q) / P(response) for q the unnormalized posterior
+            double entropy = xLogX(pHeard) - sumHeard + xLogX(pMissed) - sumMissed;
+            if (entropy < bestEntropy) {
+                bestEntropy = entropy;
+                best = j;
+            }
+        }
+        return Math.exp(logVol(best));
+    }
+
+    /**
+     * Update the posterior with the result of a trial
+     *
+     * @param vol The volume of the trial (rounded to the nearest grid point)
+     * @param heard Was the tone heard?
+     */
+    public void update(double vol, boolean heard) {
+        int offset = nearestPoint(Math.log(vol)) + N_POINTS - 1;
+        double sum = 0;
+        for (int k = 0; k < N_POINTS; k++) {
+            double pHeard = P_HEARD[offset - k];
+            this.posterior[k] *= heard ? pHeard : 1 - pHeard;
+            sum += this.posterior[k];
+        }
+        for (int k = 0; k < N_POINTS; k++) this.posterior[k] /= sum;
+        this.nTrials++;
+    }
+
+    /**
+     * @return True if the posterior is tight enough (or enough trials have been done) to stop searching
+     */
+    public boolean isComplete() {
+        if (this.nTrials < MIN_TRIALS) return false;
+        return this.nTrials >= MAX_TRIALS || this.getSD() <= STOP_SD;
+    }
+
+    /**
+     * @return The posterior mean of ln(threshold)
+     */
+    public double getMean() {
+        double mean = 0;
+        for (int k = 0; k < N_POINTS; k++) mean += this.posterior[k] * logVol(k);
+        return mean;
+    }
+
+    /**
+     * @return The posterior standard deviation of ln(threshold)
+     */
+    public double getSD() {
+        double mean = this.getMean(), variance = 0;
+        for (int k = 0; k < N_POINTS; k++) {
+            double d = logVol(k) - mean;
+            variance += this.posterior[k] * d * d;
+        }
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * @return The volume at the posterior mean of ln(threshold)
+     */
+    public double getThresholdEstimate() {
+        return Math.exp(this.getMean());
+    }
+
+    public int getNumTrials() {
+        return this.nTrials;
+    }
+
+    /**
+     * @return The quietest and loudest volumes at which trials may be placed
+     */
+    public double getMinVol() {
+        return Math.exp(logVol(this.firstCandidate));
+    }
+
+    public double getMaxVol() {
+        return Math.exp(logVol(this.lastCandidate));
+    }
+
+    /**
+     * @return x * ln(x), or 0 (its limit) if x is 0, so that a term which has underflowed to 0 is skipped instead of
+     * giving 0 * -Infinity = NaN
+     */
+    private static double xLogX(double x) {
+        return x > 0 ? x * Math.log(x) : 0;
+    }
+
+    private static double logVol(int point) {
+        return MIN_LOG_VOL + point * GRID_STEP;
+    }
+
+    private static int nearestPoint(double logVol) {
+        int point = (int) Math.round((logVol - MIN_LOG_VOL) / GRID_STEP);
+        return Math.max(0, Math.min(N_POINTS - 1, point));
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return String.format("QUEST %.1f Hz: threshold %.4f, log sd %.4f after %d trials",
+                this.freq, this.getThresholdEstimate(), this.getSD(), this.nTrials);
+    }
+}
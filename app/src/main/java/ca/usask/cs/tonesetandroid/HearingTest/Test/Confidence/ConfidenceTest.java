@@ -143,9 +143,11 @@ public abstract class ConfidenceTest<T extends Tone> extends SingleToneTest<T> {
 
                         iModel.resetAnswer(); 
                         T currentTone = position.next();
-                        saveLine(); // save previous trial immediately before starting next one to register all clicks
+                        // save previous trial immediately before starting next one to register all clicks
+                        if (currentTrial != null) saveLine();
                         newCurrentTrial(currentTone);
                         currentTrial.setStartTime();
+                        markAmbientLevel();
                         playTone(currentTone);
                         if (iModel.testPaused()) {  // return without doing anything if user paused during tone
                             currentTrial = null;    // remove current trial so it isn't added to list
@@ -158,7 +160,8 @@ public abstract class ConfidenceTest<T extends Tone> extends SingleToneTest<T> {
                         sleepThread(MIN_WAIT_TIME_MS - GRACE_PERIOD_MS, MAX_WAIT_TIME_MS - GRACE_PERIOD_MS); 
                     }
 
-                    // Test complete - perform any remaining steps
+                    // Test complete - save the last trial and perform any remaining steps
+                    if (currentTrial != null) saveLine();
                     controller.confidenceTestComplete();
 
                 } finally {
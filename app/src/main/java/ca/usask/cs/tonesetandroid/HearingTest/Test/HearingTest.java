@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 
+import ca.usask.cs.tonesetandroid.Control.AmbientNoiseMonitor;
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
 import ca.usask.cs.tonesetandroid.Control.HearingTestController;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.Click;
@@ -19,6 +20,7 @@ import ca.usask.cs.tonesetandroid.Control.HearingTestInteractionModel;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.WavTone;
 import ca.usask.cs.tonesetandroid.HearingTestView;
 import ca.usask.cs.tonesetandroid.Control.Model;
+import ca.usask.cs.tonesetandroid.Spectral.PcmCapture;
 
 /**
  * Parent class for all hearing tests, in which tones are played via the model and the
@@ -48,6 +50,12 @@ public abstract class HearingTest<T extends Tone> {
     protected static FileIOController fileController;
     protected static HearingTestController controller;
 
+    /**
+     * The monitor measuring ambient noise during the current test, or null if ambient noise is not being measured. Set
+     * from the UI thread and read from the test thread
+     */
+    protected static volatile AmbientNoiseMonitor ambientMonitor;
+
     /**
      * The background noise to be played during this test
      */
@@ -79,6 +87,18 @@ public abstract class HearingTest<T extends Tone> {
      */
     protected ArrayList<SingleTrialResult> completedTrials;
 
+    /**
+     * The state of the ambient monitor when markAmbientLevel() was last called, or null if not applicable
+     */
+    private AmbientNoiseMonitor.Mark ambientMark = null;
+
+    /**
+     * Where playSine() and playWav() write their output instead of the model when verifying output on each thread, or
+     * unset if tones should be played. Kept per thread so that output can be verified in the background while the
+     * test itself plays tones
+     */
+    private final ThreadLocal<PcmCapture> capture = new ThreadLocal<>();
+
     /**
      * Begin or resume this hearing test on a new thread
      */
@@ -131,18 +151,20 @@ public abstract class HearingTest<T extends Tone> {
      * Play a single sine wave via the model
      */
     protected void playSine(float freq, double vol, int durationMs) {
-        model.enforceMaxVolume();
-        model.startAudio();
-        byte[] buf = Model.buf;
+        this.startOutput();
+        short[] writeBuf = new short[1000];
+        float period = (float) Model.OUTPUT_SAMPLE_RATE / freq;
+        int n = 0;
         for (int i = 0; i < durationMs * (float) 44100 / 1000; i++) {
-            float period = (float) Model.OUTPUT_SAMPLE_RATE / freq;
             double angle = 2 * i / (period) * Math.PI;
-            short a = (short) (Math.sin(angle) * vol);
-            buf[0] = (byte) (a & 0xFF); // write lower 8bits (________WWWWWWWW) out of 16
-            buf[1] = (byte) (a >> 8);   // write upper 8bits (WWWWWWWW________) out of 16
-            model.lineOut.write(buf, 0, 2);
+            writeBuf[n++] = (short) (Math.sin(angle) * vol);
+            if (n == writeBuf.length) {
+                this.writeOutput(writeBuf, n);
+                n = 0;
+            }
         }
-        model.pauseAudio();
+        this.writeOutput(writeBuf, n);
+        this.stopOutput();
     }
 
     protected void playSine(FreqVolPair fvp, int durationMs) {
@@ -154,11 +176,10 @@ public abstract class HearingTest<T extends Tone> {
      */
     protected void playWav(WavTone tone) {
         try {
-            byte[] buf = Model.buf;
+            byte[] buf = new byte[2];  // not Model.buf, since output may be verified on another thread meanwhile
             short[] writeBuf = new short[1000];
             InputStream rawPCM = context.getResources().openRawResource(tone.wavID());
-            model.enforceMaxVolume();
-            model.startAudio();
+            this.startOutput();
 
             try {
                 Log.d("playWav", "Playing wav with freq: " + tone.freq() + ", vol: " + tone.vol());
@@ -173,22 +194,69 @@ public abstract class HearingTest<T extends Tone> {
                                                                                      // sines
                         writeBuf[i] = sample;
                     }
-                    model.lineOut.write(writeBuf, 0, 1000);    // write sample to line out
+                    this.writeOutput(writeBuf, 1000);    // write sample to line out
                 }
             } catch (IOException e) {
                 Log.e("playWav", "Error playing wav file");
                 e.printStackTrace();
             }
         } finally {
-            model.pauseAudio();
+            this.stopOutput();
         }
     }
 
+    /**
+     * Prepare the model's audio output for playing, unless output is being captured
+     */
+    private void startOutput() {
+        if (this.capture.get() != null) return;
+        model.enforceMaxVolume();
+        model.startAudio();
+    }
+
+    /**
+     * Write the first n samples of buf to the model's audio output, or to the capture if output is being captured
+     */
+    private void writeOutput(short[] buf, int n) {
+        PcmCapture capture = this.capture.get();
+        if (capture != null) capture.write(buf, 0, n);
+        else model.lineOut.write(buf, 0, n);
+    }
+
+    /**
+     * Pause the model's audio output, unless output is being captured
+     */
+    private void stopOutput() {
+        if (this.capture.get() == null) model.pauseAudio();
+    }
+
+    /**
+     * Send everything that playSine() and playWav() would have played on the current thread into the given capture
+     * instead of the model's audio output, or resume playing through the model if capture is null. Other threads
+     * are unaffected
+     */
+    protected void setCapture(PcmCapture capture) {
+        if (capture == null) this.capture.remove();
+        else this.capture.set(capture);
+    }
+
+    /**
+     * Start measuring the ambient noise level for the current trial. The level from this point until the next
+     * call to saveLine() is saved with the trial. Call this when the trial starts (ie. just before the tone plays)
+     */
+    protected void markAmbientLevel() {
+        AmbientNoiseMonitor monitor = ambientMonitor;
+        this.ambientMark = monitor == null ? null : monitor.mark();
+    }
+
     protected void saveLine() {
+        AmbientNoiseMonitor monitor = ambientMonitor;
+        if (monitor != null && this.ambientMark != null)
+            this.currentTrial.setAmbientLevel(monitor.levelSince(this.ambientMark));
         fileController.saveLine(this.currentTrial.getStartTime(), this.currentTrial.tone().freq(),
                                 this.currentTrial.tone().vol(), this.currentTrial.tone().directionAsString(),
                                 this.currentTrial.wasCorrect(), this.currentTrial.nClicks(),
-                                this.currentTrial.getClicksAsString());
+                                this.currentTrial.getClicksAsString(), this.currentTrial.ambientLevel());
     }
 
     /**
@@ -284,4 +352,8 @@ public abstract class HearingTest<T extends Tone> {
     public static void setController(HearingTestController theController) {
         controller = theController;
     }
+
+    public static void setAmbientMonitor(AmbientNoiseMonitor theAmbientMonitor) {
+        ambientMonitor = theAmbientMonitor;
+    }
 }
@@ -1,9 +1,12 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Test.Ramp;
 
+import android.support.annotation.Nullable;
+
 import java.util.ArrayList;
 import java.util.ListIterator;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.HearingTest.Container.PopulationPrior;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResultsWithFloorInfo;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.SingleTrialResult;
 import ca.usask.cs.tonesetandroid.HearingTest.Test.HearingTest;
@@ -23,6 +26,25 @@ public abstract class RampTest<T extends Tone> extends HearingTest<T> {
      */
     protected double startingVol = 0.5; 
 
+    /**
+     * The proportion of previous participants expected to hear a tone at the volume at which its ramp starts, when
+     * using a population prior
+     */
+    protected static final double PRIOR_START_QUANTILE = 0.01;
+
+    /**
+     * The ramp starts this many times quieter than PRIOR_START_QUANTILE, to leave some room for participants whose
+     * hearing is better than anyone's so far
+     */
+    protected static final double PRIOR_START_MARGIN = 2;
+
+    /**
+     * The thresholds of previous participants, used to start each ramp closer to where it will likely be heard, or
+     * null to always start at startingVol
+     */
+    @Nullable
+    protected PopulationPrior populationPrior;
+
     protected static final String DEFAULT_TEST_INFO =
             "In this phase of the test, tones will play quietly and slowly get louder. Please press the \"Heard " +
             "Tone\" button as soon as the tone becomes audible";
@@ -90,7 +112,8 @@ public abstract class RampTest<T extends Tone> extends HearingTest<T> {
 
                         // ramp up currentTone quickly
                         iModel.resetAnswer();
-                        heardVol = rampUp(getRampRate1(), currentTone, startingVol);
+                        markAmbientLevel();
+                        heardVol = rampUp(getRampRate1(), currentTone, getStartingVol(currentTone));
                         if (heardVol == -1 || iModel.testPaused()) {
                             position.previous(); // move cursor back to starting location and return without doing
                             return;              // anything if user paused
@@ -106,6 +129,7 @@ public abstract class RampTest<T extends Tone> extends HearingTest<T> {
 
                         // test currentTone again, slower, starting from 1/10 the first heardVol
                         iModel.resetAnswer();
+                        markAmbientLevel();
                         heardVol = rampUp(getRampRate2(), currentTone, heardVol / 10.0);
                         if (heardVol == -1 || iModel.testPaused()) {
                             position.previous(); // move cursor back to starting location and return without doing
@@ -129,6 +153,26 @@ public abstract class RampTest<T extends Tone> extends HearingTest<T> {
         }).start();
     }
 
+    /**
+     * @return The volume at which to start the first ramp-up of the given tone: startingVol, or if there is a
+     * population prior for this noise, the volume at which PRIOR_START_QUANTILE of previous participants would hear it
+     * divided by PRIOR_START_MARGIN, if that is louder
+     */
+    protected double getStartingVol(T tone) {
+        if (this.populationPrior == null) return this.startingVol;
+        double priorVol = this.populationPrior.getThresholdQuantile(
+                tone.freq(), this.getBackgroundNoiseType(), PRIOR_START_QUANTILE) / PRIOR_START_MARGIN;
+        if (Double.isNaN(priorVol)) return this.startingVol;
+        return Math.min(Math.max(this.startingVol, priorVol), Short.MAX_VALUE / PRIOR_START_MARGIN);
+    }
+
+    /**
+     * @param populationPrior The thresholds of previous participants, or null to start every ramp at startingVol
+     */
+    public void setPopulationPrior(@Nullable PopulationPrior populationPrior) {
+        this.populationPrior = populationPrior;
+    }
+
     @Override
     public int[] getPossibleResponses() {
         return new int[]{ANSWER_HEARD};
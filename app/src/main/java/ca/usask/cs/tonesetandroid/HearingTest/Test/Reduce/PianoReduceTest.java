@@ -1,8 +1,6 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Test.Reduce;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResults;
@@ -17,7 +15,7 @@ public class PianoReduceTest extends WavReduceTest {
 
     @Override
     public String getTestTypeName() {
-        return "piano-reduce";
+        return "piano-staircase-reduce";
     }
 
     /**
@@ -26,14 +24,8 @@ public class PianoReduceTest extends WavReduceTest {
      */
     @Override
     public void initialize() throws IllegalStateException {
-        this.currentVolumes = new ArrayList<>();
-        this.timesNotHeardPerFreq = new HashMap<>();
-        this.results = new ReduceTestResults();
-
-        for (FreqVolPair fvp : rampResults.getResultsArray()) {
-            this.currentVolumes.add(new WavTone(fvp.freq(), fvp.vol()));
-            this.timesNotHeardPerFreq.put(fvp.freq(), 0);
-        }
-        Collections.shuffle(this.currentVolumes);
+        ArrayList<WavTone> startTones = new ArrayList<>();
+        for (FreqVolPair fvp : rampResults.getResultsArray()) startTones.add(new WavTone(fvp.freq(), fvp.vol()));
+        this.initializeTracks(startTones);
     }
 }
@@ -1,8 +1,10 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Test.Reduce;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResults;
@@ -14,6 +16,10 @@ import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
  * Parent class for "ReduceTests" in which tones are played quieter and quieter until the user stops indicating that
  * they've heard the tone - used to get an estimate of "inaudible" volumes.
  *
+ * Each frequency has a StaircaseTrack starting below its ramp result, and the tracks are interleaved: each trial is
+ * played for a randomly chosen frequency whose track is not yet complete (never the same frequency twice in a row,
+ * unless it is the only one left). A frequency's floor is added to the results as soon as its track completes
+ *
  * @param <T> The type of tone being played in this ReduceTest
  */
 public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
@@ -23,14 +29,9 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
             "Please press the \"Heard Tone\" button each time that you hear a tone";
 
     /**
-     * Reduce by this percentage each time 
+     * Reduce by this percentage with the smallest step of a StaircaseTrack
      */
-    private static final float HEARING_TEST_REDUCE_RATE = 0.2f;
-
-    /**
-     * The number of times that the user must fail to hear a tone before it is considered "inaudible"
-     */
-    static final int TIMES_NOT_HEARD_BEFORE_STOP = 2; 
+    static final float HEARING_TEST_REDUCE_RATE = 0.2f;
 
     /**
      * The results of this ReduceTest
@@ -43,24 +44,48 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
     protected RampTestResults rampResults;
 
     /**
-     * All tones to be played in the current round of the test 
+     * One tone for each frequency in this test, played at the volumes chosen by the track at the same index in tracks
      */
-    protected ArrayList<T> currentVolumes;
+    protected ArrayList<T> tones;
 
     /**
-     * Each frequency in this test mapped to the number of times that the user has failed to hear a tone at 
-     * that frequency
+     * The staircase for each tone in tones
      */
-    protected HashMap<Float, Integer> timesNotHeardPerFreq;
+    protected ArrayList<StaircaseTrack> tracks;
+
+    /**
+     * The index of the track tested in the previous trial, or -1 if none
+     */
+    private int lastTrack = -1;
+
+    private final Random random = new Random();
 
     public ReduceTest(BackgroundNoiseType noiseType) {
         super(noiseType);
         this.testInfo = DEFAULT_TEST_INFO;
     }
 
+    /**
+     * Set up a StaircaseTrack for each of the given tones, starting at their volumes, and clear the results. To be
+     * called from initialize()
+     *
+     * @param startTones One tone per frequency to be tested, at a volume where it is usually heard (eg. the ramp
+     *                   result), from which its staircase starts
+     */
+    protected void initializeTracks(List<T> startTones) {
+        this.tones = new ArrayList<>();
+        this.tracks = new ArrayList<>();
+        this.results = new ReduceTestResults();
+        this.lastTrack = -1;
+        for (T tone : startTones) {
+            this.tones.add(tone);
+            this.tracks.add(new StaircaseTrack(tone.freq(), StaircaseTrack.getFirstVolume(tone.vol())));
+        }
+    }
+
     @Override
     protected void run() {
-        if (this.currentVolumes.isEmpty()) throw new IllegalStateException("Test not initialized");
+        if (this.tracks == null || this.tracks.isEmpty()) throw new IllegalStateException("Test not initialized");
 
         new Thread(new Runnable() {
             @Override
@@ -70,25 +95,24 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
                     model.setUpLineOut();
 
                     while (! isComplete()) {
-                        for (T trial : currentVolumes) {
-                            if (iModel.testPaused() || ! iModel.testing()) return;
-
-                            newCurrentTrial(trial);
-                            iModel.resetAnswer();
-                            currentTrial.setStartTime();
-                            playTone(trial);
-                            if (iModel.testPaused()) {  // return without doing anything if user paused during tone
-                                currentTrial = null;    // remove current trial so it isn't added to list
-                                return;
-                            }
-                            if (! iModel.answered())
-                                mapIncrement(timesNotHeardPerFreq, trial.freq());
-                            currentTrial.setCorrect(iModel.answered());
-                            sleepThread(1000, 3000);
-                            saveLine();     // save line after waiting, so we save all the clicks that happened while
-                                            // waiting
+                        if (iModel.testPaused() || ! iModel.testing()) return;
+
+                        int track = nextTrack();
+                        T trial = toneForTrack(track);
+                        newCurrentTrial(trial);
+                        iModel.resetAnswer();
+                        currentTrial.setStartTime();
+                        markAmbientLevel();
+                        playTone(trial);
+                        if (iModel.testPaused()) {  // return without doing anything if user paused during tone
+                            currentTrial = null;    // remove current trial so it isn't added to list
+                            return;
                         }
-                        reduceCurrentVolumes();
+                        currentTrial.setCorrect(iModel.answered());
+                        updateTrack(track, trial, iModel.answered());
+                        sleepThread(1000, 3000);
+                        saveLine();     // save line after waiting, so we save all the clicks that happened while
+                                        // waiting
                     }
 
                     controller.reduceTestComplete();
@@ -102,7 +126,8 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
 
     @Override
     public boolean isComplete() {
-        return this.currentVolumes.isEmpty();
+        for (StaircaseTrack track : this.tracks) if (! track.isComplete()) return false;
+        return true;
     }
 
     @Override
@@ -111,19 +136,32 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
     }
 
     /**
-     * Reduce all elements of currentVolumes by [element * HEARING_TEST_REDUCE_RATE]
+     * @return The index of the track to be tested in the next trial: a random incomplete track other than the last
+     * one tested, or the last one tested if it is the only incomplete track. Only called while ! isComplete()
      */
-    @SuppressWarnings({"unchecked", "ConstantConditions"})
-    public void reduceCurrentVolumes() {
-
-        ArrayList<T> newVols = new ArrayList<>();
-        for (T tone : currentVolumes) {
-            // only reduce volumes of frequencies still being tested
-            if (timesNotHeardPerFreq.get(tone.freq()) >= TIMES_NOT_HEARD_BEFORE_STOP) results.addResult(tone);
-            else newVols.add((T) tone.newVol(tone.vol() * (1 - HEARING_TEST_REDUCE_RATE)));
-        }
-        this.currentVolumes = newVols;
-        Collections.shuffle(this.currentVolumes);
+    private int nextTrack() {
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < this.tracks.size(); i++)
+            if (! this.tracks.get(i).isComplete() && i != this.lastTrack) candidates.add(i);
+        this.lastTrack = candidates.isEmpty() ? this.lastTrack : candidates.get(this.random.nextInt(candidates.size()));
+        return this.lastTrack;
+    }
+
+    /**
+     * @return The tone of the given track at the volume of its next trial
+     */
+    @SuppressWarnings("unchecked")
+    private T toneForTrack(int track) {
+        return (T) this.tones.get(track).newVol(this.tracks.get(track).getVolume());
+    }
+
+    /**
+     * Record the result of a trial in its track, and add the track's floor to the results if it is now complete
+     */
+    private void updateTrack(int track, T trial, boolean heard) {
+        StaircaseTrack staircase = this.tracks.get(track);
+        staircase.update(trial.vol(), heard);
+        if (staircase.isComplete()) this.results.addResult(this.tones.get(track).newVol(staircase.getFloor()));
     }
 
     /**
@@ -138,20 +176,6 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
         this.rampResults = results;
     }
 
-    /**
-     * Increase the value of the int associated with the given key in the given map by 1, or associate the key with
-     * the integer 1 if not present
-     */
-    @SuppressWarnings("ConstantConditions")
-    public static void mapIncrement(HashMap<Float, Integer> map, Float key) {
-        if (! map.containsKey(key)) map.put(key, 1);
-        else {
-            int oldVal = map.get(key);
-            map.remove(key);
-            map.put(key, ++oldVal);
-        }
-    }
-
     /*
      * This is extremely over-engineered but not worth fixing
      */
@@ -188,14 +212,18 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
     }
 
     /**
-     * A class for building a ReduceTestResults from file data - add all data with addResult(), then use build()
-     * to get a ReduceTestResults containing each frequency and its lowest volume seen
+     * A class for building a ReduceTestResults from file data - add all data with addResult() (for tests from before
+     * ReduceTest used staircases) or addStaircaseResult(), then use build() to get a ReduceTestResults containing each
+     * frequency and its lowest volume seen or the floor of its staircase
      */
     public static class ResultsBuilder {
         private HashMap<Float, Double> curLowest;
 
+        private HashMap<Float, StaircaseTrack> staircases;
+
         public ResultsBuilder() {
             curLowest = new HashMap<>();
+            staircases = new HashMap<>();
         }
 
         /**
@@ -207,12 +235,27 @@ public abstract class ReduceTest<T extends Tone> extends SingleToneTest<T> {
         }
 
         /**
-         * @return A ReduceTestResults containing each frequency and its lowest volume seen
+         * Replay a trial of a staircase ReduceTest, in the order the trials were played
+         */
+        public void addStaircaseResult(float freq, double vol, boolean heard) {
+            StaircaseTrack staircase = this.staircases.get(freq);
+            if (staircase == null) {
+                staircase = new StaircaseTrack(freq, vol);
+                this.staircases.put(freq, staircase);
+            }
+            staircase.update(vol, heard);
+        }
+
+        /**
+         * @return A ReduceTestResults containing each frequency and the floor of its staircase, or its lowest volume
+         * seen if it was added with addResult()
          */
         @SuppressWarnings("ConstantConditions")
         public ReduceTestResults build() {
             ReduceTestResults newResults = new ReduceTestResults();
             for (float f : this.curLowest.keySet()) newResults.results.add(new FreqVolPair(f, this.curLowest.get(f)));
+            for (Map.Entry<Float, StaircaseTrack> entry : this.staircases.entrySet())
+                newResults.results.add(new FreqVolPair(entry.getKey(), entry.getValue().getFloor()));
             return newResults;
         }
     }
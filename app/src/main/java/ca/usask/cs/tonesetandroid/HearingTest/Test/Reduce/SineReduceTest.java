@@ -1,8 +1,6 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Test.Reduce;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
 import ca.usask.cs.tonesetandroid.HearingTest.Container.RampTestResults;
@@ -24,7 +22,7 @@ public class SineReduceTest extends ReduceTest<FreqVolPair> {
 
     @Override
     public String getTestTypeName() {
-        return "sine-reduce";
+        return "sine-staircase-reduce";
     }
 
     /**
@@ -34,15 +32,7 @@ public class SineReduceTest extends ReduceTest<FreqVolPair> {
     public void initialize() throws IllegalStateException {
         if (this.rampResults == null) throw new IllegalStateException("rampResults not yet configured");
 
-        this.currentVolumes = new ArrayList<>();
-        this.timesNotHeardPerFreq = new HashMap<>();
-        this.results = new ReduceTestResults();
-
-        for (FreqVolPair fvp : this.rampResults.getResultsArray()) {
-            this.currentVolumes.add(fvp);
-            this.timesNotHeardPerFreq.put(fvp.freq(), 0);
-        }
-        Collections.shuffle(this.currentVolumes);
+        this.initializeTracks(Arrays.asList(this.rampResults.getResultsArray()));
     }
 
     @Override
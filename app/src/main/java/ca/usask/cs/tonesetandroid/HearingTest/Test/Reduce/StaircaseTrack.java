@@ -0,0 +1,146 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Test.Reduce;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A 1-up/1-down staircase searching for the volume floor of one frequency. Each heard tone is followed by a quieter
+ * one and each missed tone by a louder one, so the volumes converge on the volume heard half of the time.
+ *
+ * Steps are multiples of the smallest step, a factor of (1 - ReduceTest.HEARING_TEST_REDUCE_RATE) in volume: the
+ * staircase starts at INITIAL_STEPS smallest steps so that it gets down from the ramp result quickly, and the step is
+ * halved at each reversal (ie. each change of direction) until it reaches the smallest step. The ramp result itself is
+ * treated as a heard trial, so the first trial is one initial step below it (see getFirstVolume()). The staircase is
+ * complete after FINAL_REVERSALS reversals at the smallest step, or after MAX_TRIALS trials. The floor is the
+ * geometric mean of the volumes at those reversals, one smallest step quieter, so that like the results of the
+ * original fixed-step ReduceTest it is a volume that the tone is usually not heard at
+ */
+public class StaircaseTrack {
+
+    /**
+     * The size of the first step, in multiples of the smallest step
+     */
+    public static final int INITIAL_STEPS = 4;
+
+    /**
+     * The number of reversals at the smallest step after which the staircase is complete
+     */
+    public static final int FINAL_REVERSALS = 2;
+
+    /**
+     * The most trials in a staircase, regardless of reversals
+     */
+    public static final int MAX_TRIALS = 20;
+
+    /**
+     * ln() of the smallest step: a tone one step quieter is (1 - HEARING_TEST_REDUCE_RATE) times the volume
+     */
+    private static final double LOG_MIN_STEP = -Math.log(1 - ReduceTest.HEARING_TEST_REDUCE_RATE);
+
+    // directions of the staircase
+    private static final int DIRECTION_DOWN = -1, DIRECTION_UP = 1;
+
+    /**
+     * The frequency being searched
+     */
+    public final float freq;
+
+    /**
+     * The volume of the next trial
+     */
+    private double vol;
+
+    /**
+     * The current step, in multiples of the smallest step
+     */
+    private int steps = INITIAL_STEPS;
+
+    /**
+     * The direction after the previous trial: down to begin with, from the heard volume above the first trial
+     */
+    private int lastDirection = DIRECTION_DOWN;
+
+    private int nTrials = 0;
+
+    /**
+     * The number of reversals at the smallest step, and the sum of ln(vol) at those reversals
+     */
+    private int nFinalReversals = 0;
+    private double sumLogFinalReversals = 0;
+
+    /**
+     * The quietest volume played so far, used as the floor if there are no reversals at the smallest step
+     */
+    private double lowestVol = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param freq The frequency to be searched
+     * @param firstVol The volume of the first trial (see getFirstVolume())
+     */
+    public StaircaseTrack(float freq, double firstVol) {
+        this.freq = freq;
+        this.vol = firstVol;
+    }
+
+    /**
+     * @param heardVol A volume at which the tone is usually heard, eg. the ramp result
+     * @return The volume of the first trial of a staircase starting from heardVol: one initial step quieter
+     */
+    public static double getFirstVolume(double heardVol) {
+        return heardVol * Math.exp(-INITIAL_STEPS * LOG_MIN_STEP);
+    }
+
+    /**
+     * @return The volume at which the next trial should be played
+     */
+    public double getVolume() {
+        return this.vol;
+    }
+
+    /**
+     * Record the result of a trial and move the staircase
+     *
+     * @param vol The volume the trial was played at (normally getVolume(), but may be read from a file)
+     * @param heard Was the tone heard?
+     */
+    public void update(double vol, boolean heard) {
+        int direction = heard ? DIRECTION_DOWN : DIRECTION_UP;
+        if (direction != this.lastDirection) {
+            if (this.steps == 1) {
+                this.nFinalReversals++;
+                this.sumLogFinalReversals += Math.log(vol);
+            }
+            this.steps = Math.max(1, this.steps / 2);
+        }
+        this.lastDirection = direction;
+        this.nTrials++;
+        this.lowestVol = Math.min(this.lowestVol, vol);
+        this.vol = Math.min(Short.MAX_VALUE, vol * Math.exp(direction * this.steps * LOG_MIN_STEP));
+    }
+
+    /**
+     * @return True if the staircase has converged or run out of trials
+     */
+    public boolean isComplete() {
+        return this.nFinalReversals >= FINAL_REVERSALS || this.nTrials >= MAX_TRIALS;
+    }
+
+    /**
+     * @return The volume floor found by this staircase (see class comment), or NaN if no trials have been done
+     */
+    public double getFloor() {
+        if (this.nTrials == 0) return Double.NaN;
+        if (this.nFinalReversals == 0) return this.lowestVol;
+        return Math.exp(this.sumLogFinalReversals / this.nFinalReversals - LOG_MIN_STEP);
+    }
+
+    public int getNumTrials() {
+        return this.nTrials;
+    }
+
+    @Override
+    @NonNull
+    public String toString() {
+        return String.format("Staircase %.1f Hz: next vol %.4f, step %d, %d final reversals after %d trials",
+                this.freq, this.vol, this.steps, this.nFinalReversals, this.nTrials);
+    }
+}
@@ -1,10 +1,17 @@
 package ca.usask.cs.tonesetandroid.HearingTest.Test;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.ListIterator;
 
 import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.Control.Model;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
 import ca.usask.cs.tonesetandroid.HearingTest.Tone.Tone;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.WavTone;
+import ca.usask.cs.tonesetandroid.Spectral.PcmCapture;
+import ca.usask.cs.tonesetandroid.Spectral.ToneVerifier;
 
 /**
  * Parent class for all HearingTests that one individual Tone at a time (ie. all except RampTest)
@@ -34,4 +41,49 @@ public abstract class SingleToneTest<T extends Tone> extends HearingTest<T> {
     public SingleToneTest(BackgroundNoiseType noiseType) {
         super(noiseType);
     }
+
+    /**
+     * Render each distinct tone in the given list exactly as playTone() would, without playing anything, and check
+     * the rendered audio with a ToneVerifier. Takes a fraction of a second per tone, so it can be run just before a
+     * test starts
+     *
+     * @param tones The tones to be checked (duplicates are only checked once)
+     * @return A report of which tones passed and failed
+     */
+    public ToneVerifier.Report verifyOutput(Collection<? extends T> tones) {
+        ToneVerifier verifier = new ToneVerifier(Model.OUTPUT_SAMPLE_RATE);
+        ToneVerifier.Report report = new ToneVerifier.Report();
+        PcmCapture capture = new PcmCapture();
+        HashSet<String> checked = new HashSet<>();
+
+        this.setCapture(capture);
+        try {
+            for (T tone : tones) {
+                if (! checked.add(tone.toString())) continue;
+                capture.reset();
+                this.playTone(tone);
+                report.add(this.verifyTone(verifier, tone, capture));
+            }
+        } finally {
+            this.setCapture(null);
+        }
+        return report;
+    }
+
+    /**
+     * Check the rendered audio of a single tone. Sines and wavs are fully checked; other tones (eg. intervals and
+     * melodies, which are several sines in a row) only have their level and clipping checked
+     *
+     * @param verifier The verifier with which to check the tone
+     * @param tone The tone that was rendered
+     * @param capture The audio rendered for the tone
+     */
+    protected ToneVerifier.Result verifyTone(ToneVerifier verifier, T tone, PcmCapture capture) {
+        if (tone instanceof WavTone)
+            return verifier.verifyWav(tone.toString(), capture.samples(), capture.length(), tone.freq(), tone.vol());
+        else if (tone.getClass() == FreqVolPair.class)
+            return verifier.verifySine(tone.toString(), capture.samples(), capture.length(), tone.freq(), tone.vol());
+        else
+            return verifier.verifyLevel(tone.toString(), capture.samples(), capture.length(), tone.vol());
+    }
 }
@@ -414,6 +414,7 @@ public class MainActivity extends AppCompatActivity implements ModelListener, He
                 }
 
                 this.model.setCurrentParticipant(p);
+                Model.analyseWavResources();  // get .wav analysis out of the way in the background
                 this.modelChanged();
                 Log.i("MainActivity", p.getResults().toString());
                 break;
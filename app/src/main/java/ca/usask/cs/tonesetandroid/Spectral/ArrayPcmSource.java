@@ -0,0 +1,57 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * A PcmSource that reads samples from a float array
+ */
+public class ArrayPcmSource implements PcmSource {
+
+    private final float[] samples;
+
+    /**
+     * The index of the next sample to be read
+     */
+    private int position;
+
+    /**
+     * The index one past the last sample that will be read
+     */
+    private final int end;
+
+    public ArrayPcmSource(float[] samples) {
+        this(samples, 0, samples.length);
+    }
+
+    /**
+     * @param samples The array containing the samples
+     * @param offset The index of the first sample to be read
+     * @param length The number of samples to be read
+     */
+    public ArrayPcmSource(float[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length)
+            throw new IllegalArgumentException("Range out of bounds: offset = " + offset + " length = " + length);
+        this.samples = samples;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read(float[] buf, int offset, int length) {
+        if (this.position >= this.end) return -1;
+        int n = Math.min(length, this.end - this.position);
+        System.arraycopy(this.samples, this.position, buf, offset, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, this.end - this.position));
+        this.position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
@@ -0,0 +1,106 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * Measures the level of a power spectrum from a ShortTimeFourierTransform in a set of octave bands, plus the
+ * broadband level over all bins above DC.
+ *
+ * Levels are mean squares of the original (unwindowed) signal, found from the spectrum by Parseval's theorem, so
+ * they don't depend on the frame size or window. toDecibels() converts a mean square to dB relative to a full-scale
+ * sine wave (ie. a full-scale sine reads 0 dB, silence reads -infinity)
+ */
+public class BandLevelMeter {
+
+    /**
+     * Octave band centres in Hz covering the frequencies used in our hearing tests
+     */
+    public static final float[] DEFAULT_BAND_CENTRES = {125, 250, 500, 1000, 2000, 4000};
+
+    /**
+     * The mean square of a sine wave with amplitude 1.0
+     */
+    private static final double FULL_SCALE_SINE_MEAN_SQUARE = 0.5;
+
+    /**
+     * The centre frequency of each band in Hz
+     */
+    private final float[] centres;
+
+    /**
+     * Each band covers bins firstBin[i] to lastBin[i] inclusive (empty if lastBin[i] < firstBin[i])
+     */
+    private final int[] firstBin;
+    private final int[] lastBin;
+
+    /**
+     * Scale from a one-sided sum of bin powers to a mean square
+     */
+    private final double scale;
+
+    /**
+     * @param centres The centre frequency of each octave band in Hz. Each band extends from centre / sqrt(2) to
+     *                centre * sqrt(2), and is cut off at the Nyquist frequency
+     * @param stft The transform whose spectra will be measured
+     */
+    public BandLevelMeter(float[] centres, ShortTimeFourierTransform stft) {
+        this.centres = centres.clone();
+        this.firstBin = new int[centres.length];
+        this.lastBin = new int[centres.length];
+
+        int maxBin = stft.nBins() - 1;
+        for (int i = 0; i < centres.length; i++) {
+            double low = centres[i] / Math.sqrt(2), high = centres[i] * Math.sqrt(2);
+            this.firstBin[i] = Math.max(1, (int) Math.ceil(low / stft.binWidth()));
+            this.lastBin[i] = Math.min(maxBin, (int) Math.ceil(high / stft.binWidth()) - 1);
+        }
+
+        // sum |X|^2 over all bins = fftSize * sum (x * w)^2, and each one-sided bin stands for two bins
+        this.scale = 2.0 / (stft.fftSize * WindowFunction.getPowerSum(stft.windowType, stft.frameSize));
+    }
+
+    /**
+     * Create a BandLevelMeter measuring DEFAULT_BAND_CENTRES
+     */
+    public BandLevelMeter(ShortTimeFourierTransform stft) {
+        this(DEFAULT_BAND_CENTRES, stft);
+    }
+
+    /**
+     * Measure the given power spectrum
+     *
+     * @param spectrum A spectrum from the ShortTimeFourierTransform this was created with
+     * @param bandLevels The array in which to store the mean square in each band (length >= nBands())
+     * @return The broadband mean square of all bins above DC
+     */
+    public double measure(float[] spectrum, double[] bandLevels) {
+        for (int band = 0; band < this.centres.length; band++) {
+            double total = 0;
+            for (int bin = this.firstBin[band]; bin <= this.lastBin[band]; bin++) total += spectrum[bin];
+            bandLevels[band] = total * this.scale;
+        }
+
+        double total = 0;
+        for (int bin = 1; bin < spectrum.length; bin++) total += spectrum[bin];
+        return total * this.scale;
+    }
+
+    /**
+     * @return The number of bands measured
+     */
+    public int nBands() {
+        return this.centres.length;
+    }
+
+    /**
+     * @return The centre frequency of the given band in Hz
+     */
+    public float bandCentre(int band) {
+        return this.centres[band];
+    }
+
+    /**
+     * @return The given mean square in dB relative to a full-scale sine wave
+     */
+    public static float toDecibels(double meanSquare) {
+        return SpectralMath.toDecibels(meanSquare, FULL_SCALE_SINE_MEAN_SQUARE);
+    }
+}
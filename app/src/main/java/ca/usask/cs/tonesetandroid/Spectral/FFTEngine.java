@@ -0,0 +1,170 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import com.paramsen.noise.Noise;
+import com.paramsen.noise.NoiseOptimized;
+
+import java.util.ArrayList;
+
+/**
+ * Performs real-valued FFTs through the "noise" library while keeping a pool of already-initialized NoiseOptimized
+ * plans, one per FFT size, each with its own reusable input, output and power spectral density buffers. Plans are
+ * checked out by a single thread with acquire() and handed back with release(), so once a plan of a given size has been
+ * created, computing a periodogram of that size allocates nothing.
+ *
+ * Typical use:
+ *
+ *      FFTEngine.Plan plan = FFTEngine.acquire(n);
+ *      try {
+ *          System.arraycopy(pcm, 0, plan.input(), 0, n);
+ *          float[] psd = plan.powerSpectrum();
+ *          ...
+ *      } finally {
+ *          FFTEngine.release(plan);
+ *      }
+ *
+ * Buffers returned by a Plan are only valid until the plan is released; copy anything that needs to be kept.
+ */
+public final class FFTEngine {
+
+    /**
+     * The most idle plans of any one size that will be kept in the pool. Extra plans released beyond this are
+     * disposed of
+     */
+    private static final int MAX_IDLE_PLANS_PER_SIZE = 4;
+
+    /**
+     * All plans not currently checked out by a thread. Only access while synchronized on this list
+     */
+    private static final ArrayList<Plan> idlePlans = new ArrayList<>();
+
+    private FFTEngine() {
+        // static methods only
+    }
+
+    /**
+     * Take an idle plan for the given FFT size from the pool, or create one if none is available. The calling thread
+     * has exclusive use of the plan until it passes it to release()
+     *
+     * @param size The number of real input samples per transform
+     * @return A plan for transforms of the given size
+     * @throws IllegalArgumentException If size < 2
+     */
+    public static Plan acquire(int size) throws IllegalArgumentException {
+        if (size < 2) throw new IllegalArgumentException("FFT size must be at least 2, was " + size);
+        synchronized (idlePlans) {
+            for (int i = idlePlans.size() - 1; i >= 0; i--)
+                if (idlePlans.get(i).size == size) return idlePlans.remove(i);
+        }
+        return new Plan(size);  // create outside the lock: native setup can be slow
+    }
+
+    /**
+     * Return a plan obtained from acquire() to the pool so that other callers can reuse it. The plan and any buffers
+     * obtained from it must not be used after calling this method
+     *
+     * @param plan The plan to be returned, or null to do nothing
+     */
+    public static void release(Plan plan) {
+        if (plan == null) return;
+        synchronized (idlePlans) {
+            int nSameSize = 0;
+            for (Plan idle : idlePlans) if (idle.size == plan.size) nSameSize++;
+            if (nSameSize < MAX_IDLE_PLANS_PER_SIZE) {
+                idlePlans.add(plan);
+                return;
+            }
+        }
+        plan.noise.dispose();
+    }
+
+    /**
+     * Dispose of all idle plans in the pool, freeing their native resources. Plans currently checked out are not
+     * affected and may still be released afterward
+     */
+    public static void clear() {
+        synchronized (idlePlans) {
+            for (Plan plan : idlePlans) plan.noise.dispose();
+            idlePlans.clear();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * An initialized FFT of one particular size along with the buffers used to transform data of that size
+     */
+    public static final class Plan {
+
+        /**
+         * The number of real input samples per transform
+         */
+        public final int size;
+
+        /**
+         * The native FFT object for this size
+         */
+        private final NoiseOptimized noise;
+
+        /**
+         * Samples to be transformed by the next call to transform() or powerSpectrum()
+         */
+        private final float[] input;
+
+        /**
+         * Interleaved real/imaginary parts of each bin from DC to Nyquist, as written by noise.fft()
+         */
+        private final float[] output;
+
+        /**
+         * The power in each bin from DC to Nyquist
+         */
+        private final float[] psd;
+
+        private Plan(int size) {
+            this.size = size;
+            this.noise = Noise.real().optimized().init(size, true);
+            this.input = new float[size];
+            this.output = new float[size + 2];
+            this.psd = new float[size / 2 + 1];
+        }
+
+        /**
+         * @return The buffer of length size to be filled with (windowed) samples before transforming
+         */
+        public float[] input() {
+            return this.input;
+        }
+
+        /**
+         * Perform an FFT on the contents of input()
+         *
+         * @return The interleaved real and imaginary parts of each bin from DC to Nyquist (length size + 2). This is
+         * the plan's own buffer and is overwritten by the next transform
+         */
+        public float[] transform() {
+            return this.noise.fft(this.input, this.output);
+        }
+
+        /**
+         * Perform an FFT on the contents of input() and convert the result to power spectral density, ie. the squared
+         * magnitude of each bin
+         *
+         * @return The power of each bin from DC to Nyquist (length size / 2 + 1). This is the plan's own buffer and
+         * is overwritten by the next transform
+         */
+        public float[] powerSpectrum() {
+            // Power Spectral Density = magnitude(fftResult) ^ 2
+            // From StackOverflow user Jason R
+            // https://dsp.stackexchange.com/questions/4691/what-is-the-difference-between-psd-and-squared-magnitude-of-frequency-spectrum?lq=1
+            SpectralMath.magnitudeSquared(this.transform(), this.psd, this.psd.length);
+            return this.psd;
+        }
+
+        /**
+         * @return The buffer written to by powerSpectrum()
+         */
+        public float[] psd() {
+            return this.psd;
+        }
+    }
+}
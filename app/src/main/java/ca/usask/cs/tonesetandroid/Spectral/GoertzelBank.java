@@ -0,0 +1,171 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * A bank of Goertzel filters that measures the power at a fixed set of target frequencies in a block of PCM samples.
+ *
+ * When only a few frequencies are of interest (eg. the frequencies of a hearing test) this is much cheaper than a
+ * full FFT: each block costs O(nSamples * nFrequencies) multiply-adds, needs no power-of-two block size, and each
+ * target is measured at its exact frequency rather than at the centre of the nearest FFT bin.
+ *
+ * Powers are on the same scale as FFTEngine.Plan.powerSpectrum() (ie. re*re + im*im of the unnormalized DFT), so a
+ * Goertzel power and the FFT bin power at the same frequency can be compared directly.
+ *
+ * Results are kept in this object and overwritten by the next call to process(). Not thread-safe
+ */
+public class GoertzelBank {
+
+    /**
+     * The target frequencies in Hz
+     */
+    private final float[] frequencies;
+
+    /**
+     * The sample rate of the PCM data in Hz
+     */
+    public final float sampleRate;
+
+    /**
+     * The window applied to each block (one of WindowFunction.WINDOW_*)
+     */
+    public final int windowType;
+
+    /**
+     * Precomputed 2cos(w), cos(w) and sin(w) for each target frequency, where w is the frequency in radians per sample
+     */
+    private final double[] coeffs;
+    private final double[] cosines;
+    private final double[] sines;
+
+    /**
+     * The power at each target frequency in the last block processed
+     */
+    private final float[] powers;
+
+    /**
+     * Windowed copy of the current block, reused between calls if the block length doesn't change
+     */
+    private float[] windowed = new float[0];
+
+    /**
+     * @param frequencies The target frequencies in Hz (each must be between 0 and sampleRate / 2)
+     * @param sampleRate The sample rate of the PCM data in Hz
+     * @param windowType The window to apply to each block before filtering (one of WindowFunction.WINDOW_*)
+     * @throws IllegalArgumentException If any of the above conditions are not met
+     */
+    public GoertzelBank(float[] frequencies, float sampleRate, int windowType) throws IllegalArgumentException {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be positive, was " + sampleRate);
+        WindowFunction.getTable(windowType, 1);  // fail now rather than in process() if window type unknown
+
+        this.frequencies = frequencies.clone();
+        this.sampleRate = sampleRate;
+        this.windowType = windowType;
+        this.coeffs = new double[frequencies.length];
+        this.cosines = new double[frequencies.length];
+        this.sines = new double[frequencies.length];
+        this.powers = new float[frequencies.length];
+
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] < 0 || frequencies[i] > sampleRate / 2)
+                throw new IllegalArgumentException("Frequency out of range: " + frequencies[i]);
+            double w = 2.0 * Math.PI * frequencies[i] / sampleRate;
+            this.cosines[i] = Math.cos(w);
+            this.sines[i] = Math.sin(w);
+            this.coeffs[i] = 2.0 * this.cosines[i];
+        }
+    }
+
+    /**
+     * Create a Goertzel bank which applies a Hann window to each block
+     */
+    public GoertzelBank(float[] frequencies, float sampleRate) throws IllegalArgumentException {
+        this(frequencies, sampleRate, WindowFunction.WINDOW_HANN);
+    }
+
+    /**
+     * Measure the power at each target frequency in samples[offset..offset+length)
+     *
+     * @return The power at each target frequency, in the same order as frequencies(). The array is reused by the
+     * next call to process()
+     */
+    public float[] process(float[] samples, int offset, int length) {
+        float[] block = samples;
+        int start = offset;
+        if (this.windowType != WindowFunction.WINDOW_RECTANGULAR) {
+            if (this.windowed.length != length) this.windowed = new float[length];
+            WindowFunction.apply(WindowFunction.getTable(this.windowType, length), samples, offset, this.windowed);
+            block = this.windowed;
+            start = 0;
+        }
+
+        for (int k = 0; k < this.coeffs.length; k++) {
+            double coeff = this.coeffs[k];
+            double s1 = 0, s2 = 0;
+            for (int i = start, end = start + length; i < end; i++) {
+                double s0 = block[i] + coeff * s1 - s2;
+                s2 = s1;
+                s1 = s0;
+            }
+            // |X|^2 of the DFT at this frequency, taken from the final two filter states
+            double re = s1 - s2 * this.cosines[k];
+            double im = s2 * this.sines[k];
+            this.powers[k] = (float) (re * re + im * im);
+        }
+        return this.powers;
+    }
+
+    /**
+     * Measure the power at each target frequency in the whole of the given array
+     *
+     * @return The power at each target frequency, in the same order as frequencies()
+     */
+    public float[] process(float[] samples) {
+        return this.process(samples, 0, samples.length);
+    }
+
+    /**
+     * @return The number of target frequencies
+     */
+    public int size() {
+        return this.frequencies.length;
+    }
+
+    /**
+     * @return The target frequency at the given index
+     */
+    public float frequency(int i) {
+        return this.frequencies[i];
+    }
+
+    /**
+     * @return A copy of the target frequencies
+     */
+    public float[] frequencies() {
+        return this.frequencies.clone();
+    }
+
+    /**
+     * @return The power at the target frequency with the given index in the last block processed
+     */
+    public float power(int i) {
+        return this.powers[i];
+    }
+
+    /**
+     * @return The power at each target frequency in the last block processed. The array is reused by the next call
+     * to process()
+     */
+    public float[] powers() {
+        return this.powers;
+    }
+
+    /**
+     * @return The index of the target frequency with the most power in the last block processed, or -1 if there are
+     * no target frequencies
+     */
+    public int loudest() {
+        int best = -1;
+        for (int i = 0; i < this.powers.length; i++)
+            if (best == -1 || this.powers[i] > this.powers[best]) best = i;
+        return best;
+    }
+}
@@ -0,0 +1,211 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a SpectralIndex of a set of audio assets on a ForkJoinPool, so that every core is used: each asset is
+ * loaded and analysed as its own task, and the frames of each asset are split into chunks that are analysed in
+ * parallel. The analysis is the same as the build-time index (see SpectralIndex), so the results can be used
+ * interchangeably.
+ *
+ * Each worker thread borrows its own FFT plan from FFTEngine for each chunk, so no buffers are shared between threads
+ */
+public class ParallelSpectralAnalyzer {
+
+    /**
+     * The most frames analysed by a single task before it splits its work in two
+     */
+    private static final int FRAMES_PER_TASK = 32;
+
+    /**
+     * Something that can be analysed: an audio asset that can be loaded as PCM samples
+     */
+    public interface Asset {
+
+        /**
+         * @return The name under which this asset's entry is stored in the index
+         */
+        String name();
+
+        /**
+         * Load the whole asset as PCM samples. Called on a worker thread
+         */
+        float[] load() throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * The sample rate of the assets in Hz
+     */
+    public final int sampleRate;
+
+    /**
+     * The number of samples in each frame (a power of two). Frames don't overlap
+     */
+    public final int frameSize;
+
+    /**
+     * The number of peaks stored for each frame
+     */
+    public final int peaksPerFrame;
+
+    private final float[] window;
+
+    private final float[] binFreqs;
+
+    /**
+     * @param pool The pool on which to run the analysis
+     * @param sampleRate The sample rate of the assets in Hz
+     * @param frameSize The number of samples per frame (must be a power of two)
+     * @param peaksPerFrame The number of loudest bins to store for each frame
+     */
+    public ParallelSpectralAnalyzer(ForkJoinPool pool, int sampleRate, int frameSize, int peaksPerFrame) {
+        ShortTimeFourierTransform stft =
+                new ShortTimeFourierTransform(frameSize, frameSize, 1, WindowFunction.WINDOW_HANN, sampleRate);
+        this.pool = pool;
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.peaksPerFrame = peaksPerFrame;
+        this.window = WindowFunction.getTable(WindowFunction.WINDOW_HANN, frameSize);
+        this.binFreqs = stft.binFrequencies();
+    }
+
+    /**
+     * Begin analysing the given assets in the background
+     *
+     * @param assets The assets to be analysed. Assets that fail to load are left out of the index (the failure is
+     *               printed) rather than failing the whole analysis
+     * @return A Future which completes with an index of all the assets
+     */
+    public Future<SpectralIndex> analyse(List<Asset> assets) {
+        return this.pool.submit(new IndexTask(new ArrayList<>(assets)));
+    }
+
+    /**
+     * Analyse the given samples, splitting the work across the pool, and wait for the result
+     *
+     * @param name The name to give the entry
+     * @param samples The samples to be analysed
+     * @return The analysis of the samples
+     */
+    public SpectralIndex.Entry analyse(String name, float[] samples) {
+        SpectralIndex index = new SpectralIndex(this.sampleRate, this.frameSize, this.peaksPerFrame, 1);
+        SpectralIndex.Entry entry = index.new Entry(name, samples.length, samples.length / this.frameSize);
+        this.pool.invoke(new FrameTask(entry, samples, 0, entry.nFrames()));
+        return entry;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Analyses every asset in parallel, then collects the entries into an index
+     */
+    private class IndexTask extends RecursiveTask<SpectralIndex> {
+
+        private final ArrayList<Asset> assets;
+
+        private IndexTask(ArrayList<Asset> assets) {
+            this.assets = assets;
+        }
+
+        @Override
+        protected SpectralIndex compute() {
+            SpectralIndex index = new SpectralIndex(sampleRate, frameSize, peaksPerFrame, this.assets.size());
+            ArrayList<AssetTask> tasks = new ArrayList<>();
+            for (Asset asset : this.assets) tasks.add(new AssetTask(index, asset));
+            invokeAll(tasks);
+            for (AssetTask task : tasks) if (task.getRawResult() != null) index.put(task.getRawResult());
+            return index;
+        }
+    }
+
+    /**
+     * Loads one asset and analyses its frames in parallel
+     */
+    private class AssetTask extends RecursiveTask<SpectralIndex.Entry> {
+
+        private final SpectralIndex index;
+
+        private final Asset asset;
+
+        private AssetTask(SpectralIndex index, Asset asset) {
+            this.index = index;
+            this.asset = asset;
+        }
+
+        @Override
+        protected SpectralIndex.Entry compute() {
+            float[] samples;
+            try {
+                samples = this.asset.load();
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            SpectralIndex.Entry entry =
+                    this.index.new Entry(this.asset.name(), samples.length, samples.length / frameSize);
+            new FrameTask(entry, samples, 0, entry.nFrames()).invoke();
+            return entry;
+        }
+    }
+
+    /**
+     * Analyses frames [first, first + count) of one asset, splitting in half until the chunks are small enough
+     */
+    private class FrameTask extends RecursiveAction {
+
+        private final SpectralIndex.Entry entry;
+
+        private final float[] samples;
+
+        private final int first;
+
+        private final int count;
+
+        private FrameTask(SpectralIndex.Entry entry, float[] samples, int first, int count) {
+            this.entry = entry;
+            this.samples = samples;
+            this.first = first;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.count > FRAMES_PER_TASK) {
+                int half = this.count / 2;
+                invokeAll(new FrameTask(this.entry, this.samples, this.first, half),
+                          new FrameTask(this.entry, this.samples, this.first + half, this.count - half));
+                return;
+            }
+
+            PeakPicker picker = new PeakPicker(peaksPerFrame, false);
+            FFTEngine.Plan plan = FFTEngine.acquire(frameSize);
+            try {
+                for (int frame = this.first; frame < this.first + this.count; frame++) {
+                    int start = frame * frameSize;
+
+                    WindowFunction.apply(window, this.samples, start, plan.input());
+                    float[] psd = plan.powerSpectrum();
+                    picker.pick(binFreqs, psd, psd.length);
+                    System.arraycopy(picker.frequencies(), 0, this.entry.peakFreqs, frame * peaksPerFrame,
+                                     peaksPerFrame);
+                    System.arraycopy(picker.powers(), 0, this.entry.peakPowers, frame * peaksPerFrame,
+                                     peaksPerFrame);
+
+                    double sumSquares = 0;
+                    for (int i = start; i < start + frameSize; i++) sumSquares += this.samples[i] * this.samples[i];
+                    this.entry.rms[frame] = (float) Math.sqrt(sumSquares / frameSize);
+                }
+            } finally {
+                FFTEngine.release(plan);
+            }
+        }
+    }
+}
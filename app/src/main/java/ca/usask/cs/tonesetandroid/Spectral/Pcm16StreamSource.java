@@ -0,0 +1,76 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A PcmSource that reads signed 16-bit little-endian samples from an InputStream (eg. a raw resource, or a .pcm
+ * file), reading the stream in blocks rather than two bytes at a time
+ */
+public class Pcm16StreamSource implements PcmSource {
+
+    private static final int BUFFER_SIZE_BYTES = 4096;
+
+    private final InputStream stream;
+
+    /**
+     * Bytes read from the stream but not yet converted to samples are kept in bytes[bytePos..byteEnd)
+     */
+    private final byte[] bytes = new byte[BUFFER_SIZE_BYTES];
+    private int bytePos = 0;
+    private int byteEnd = 0;
+
+    public Pcm16StreamSource(InputStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public int read(float[] buf, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (! this.fill()) return -1;
+
+        int n = Math.min(length, (this.byteEnd - this.bytePos) / 2);
+        for (int i = 0; i < n; i++, this.bytePos += 2) {
+            short sample = (short) (this.bytes[this.bytePos + 1] << 8 | this.bytes[this.bytePos] & 0xFF);
+            buf[offset + i] = sample / (float) -Short.MIN_VALUE;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && this.fill()) {
+            int m = (int) Math.min(n - skipped, (this.byteEnd - this.bytePos) / 2);
+            this.bytePos += 2 * m;
+            skipped += m;
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.stream.close();
+    }
+
+    /**
+     * Make sure that at least one whole sample is buffered, reading from the stream if necessary
+     *
+     * @return False if the end of the stream was reached before a whole sample could be read
+     */
+    private boolean fill() throws IOException {
+        if (this.byteEnd - this.bytePos >= 2) return true;
+
+        // move any leftover odd byte to the front, then top up the buffer
+        int leftover = this.byteEnd - this.bytePos;
+        if (leftover == 1) this.bytes[0] = this.bytes[this.bytePos];
+        this.bytePos = 0;
+        this.byteEnd = leftover;
+        while (this.byteEnd < 2) {
+            int nRead = this.stream.read(this.bytes, this.byteEnd, this.bytes.length - this.byteEnd);
+            if (nRead == -1) return false;
+            this.byteEnd += nRead;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * A growable buffer of 16-bit PCM samples, used in place of an AudioTrack to capture exactly what would have been
+ * written to the output so that it can be checked (see ToneVerifier)
+ */
+public class PcmCapture {
+
+    private short[] samples;
+
+    private int length = 0;
+
+    public PcmCapture() {
+        this(44100 * 2);
+    }
+
+    /**
+     * @param initialCapacity The number of samples that can be captured before the buffer has to grow
+     */
+    public PcmCapture(int initialCapacity) {
+        this.samples = new short[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Append samples[offset..offset+count) to the capture
+     */
+    public void write(short[] samples, int offset, int count) {
+        if (this.length + count > this.samples.length) {
+            short[] grown = new short[Math.max(this.length + count, this.samples.length * 2)];
+            System.arraycopy(this.samples, 0, grown, 0, this.length);
+            this.samples = grown;
+        }
+        System.arraycopy(samples, offset, this.samples, this.length, count);
+        this.length += count;
+    }
+
+    /**
+     * Discard everything captured so far, keeping the buffer
+     */
+    public void reset() {
+        this.length = 0;
+    }
+
+    /**
+     * @return The captured samples. Only the first length() elements are meaningful, and the array is replaced if the
+     * capture grows
+     */
+    public short[] samples() {
+        return this.samples;
+    }
+
+    /**
+     * @return The number of samples captured since the last reset()
+     */
+    public int length() {
+        return this.length;
+    }
+}
@@ -0,0 +1,25 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of mono PCM samples scaled to the range [-1, 1], eg. from a float array, a raw resource, or a file
+ */
+public interface PcmSource extends Closeable {
+
+    /**
+     * Read up to length samples into buf, starting at buf[offset]. Blocks until at least one sample is available or
+     * the end of the source is reached
+     *
+     * @return The number of samples read, or -1 if the end of the source has been reached
+     */
+    int read(float[] buf, int offset, int length) throws IOException;
+
+    /**
+     * Skip over and discard up to n samples
+     *
+     * @return The number of samples actually skipped, which is less than n only at the end of the source
+     */
+    long skip(long n) throws IOException;
+}
@@ -0,0 +1,172 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * Finds the N most powerful bins of a spectrum stored in parallel frequency and power arrays, using a fixed-size
+ * min-heap of bin indices so that each spectrum is scanned once in O(nBins * log N) without allocating.
+ *
+ * If interpolation is enabled, only local maxima are considered, and each peak's frequency and power are refined by
+ * fitting a parabola to the log power of the peak bin and its two neighbours (which is exact for a Gaussian-shaped
+ * peak, and close for the main lobe of a Hann window). This finds a tone's frequency far more precisely than the
+ * width of a single bin.
+ *
+ * Results are kept in this object and overwritten by the next call to pick()
+ */
+public class PeakPicker {
+
+    /**
+     * The maximum number of peaks to be found
+     */
+    public final int n;
+
+    /**
+     * Should peaks be restricted to local maxima and interpolated between bins?
+     */
+    public final boolean interpolate;
+
+    /**
+     * Bin indices of the current candidates, arranged as a min-heap on power
+     */
+    private final int[] heap;
+
+    /**
+     * The frequency and power of each peak found by the last call to pick(), loudest first
+     */
+    private final float[] peakFreqs;
+    private final float[] peakPowers;
+
+    /**
+     * The number of peaks found by the last call to pick()
+     */
+    private int count = 0;
+
+    /**
+     * @param n The maximum number of peaks to find in each spectrum
+     * @param interpolate Should peaks be restricted to local maxima and interpolated between bins?
+     */
+    public PeakPicker(int n, boolean interpolate) {
+        if (n < 1) throw new IllegalArgumentException("n must be positive, was " + n);
+        this.n = n;
+        this.interpolate = interpolate;
+        this.heap = new int[n];
+        this.peakFreqs = new float[n];
+        this.peakPowers = new float[n];
+    }
+
+    /**
+     * Find the loudest peaks in the given spectrum
+     *
+     * @param freqs The centre frequency of each bin
+     * @param powers The power in each bin
+     * @param nBins The number of bins to consider (starting at index 0)
+     * @return The number of peaks found: n, unless there are fewer than n bins (or local maxima)
+     */
+    public int pick(float[] freqs, float[] powers, int nBins) {
+        int size = 0;
+        for (int i = 0; i < nBins; i++) {
+            float p = powers[i];
+            if (this.interpolate && ! isLocalMax(powers, nBins, i)) continue;
+            if (size < this.n) {
+                this.heap[size] = i;
+                siftUp(powers, size++);
+            } else if (p > powers[this.heap[0]]) {
+                this.heap[0] = i;
+                siftDown(powers, 0, size);
+            }
+        }
+
+        // pop the quietest remaining candidate into the last free slot until empty: loudest ends up first
+        this.count = size;
+        while (size > 0) {
+            int bin = this.heap[0];
+            this.heap[0] = this.heap[--size];
+            siftDown(powers, 0, size);
+            this.store(size, freqs, powers, nBins, bin);
+        }
+        return this.count;
+    }
+
+    /**
+     * Find the loudest peaks in the given periodogram
+     *
+     * @return The number of peaks found
+     */
+    public int pick(Periodogram periodogram) {
+        return this.pick(periodogram.freqs(), periodogram.powers(), periodogram.size());
+    }
+
+    /**
+     * @return The number of peaks found by the last call to pick()
+     */
+    public int count() {
+        return this.count;
+    }
+
+    /**
+     * @return The frequency of each peak found by the last call to pick(), loudest first. Only the first count()
+     * elements are meaningful
+     */
+    public float[] frequencies() {
+        return this.peakFreqs;
+    }
+
+    /**
+     * @return The power of each peak found by the last call to pick(), loudest first. Only the first count()
+     * elements are meaningful
+     */
+    public float[] powers() {
+        return this.peakPowers;
+    }
+
+    /**
+     * Write the frequency and power of the given bin into slot i of the results, interpolating if necessary
+     */
+    private void store(int i, float[] freqs, float[] powers, int nBins, int bin) {
+        float freq = freqs[bin];
+        float power = powers[bin];
+        if (this.interpolate && bin > 0 && bin < nBins - 1
+                && powers[bin - 1] > 0 && power > 0 && powers[bin + 1] > 0) {
+            double a = Math.log(powers[bin - 1]);
+            double b = Math.log(power);
+            double c = Math.log(powers[bin + 1]);
+            double denom = a - 2 * b + c;
+            if (denom < 0) {
+                double delta = 0.5 * (a - c) / denom;  // offset of true peak from bin centre, in bins (-0.5..0.5)
+                freq = (float) (freq + delta * (freqs[bin + 1] - freqs[bin - 1]) / 2.0);
+                power = (float) Math.exp(b - 0.25 * (a - c) * delta);
+            }
+        }
+        this.peakFreqs[i] = freq;
+        this.peakPowers[i] = power;
+    }
+
+    private static boolean isLocalMax(float[] powers, int nBins, int i) {
+        float p = powers[i];
+        return (i == 0 || p > powers[i - 1]) && (i == nBins - 1 || p >= powers[i + 1]);
+    }
+
+    private void siftUp(float[] powers, int i) {
+        int[] heap = this.heap;
+        int bin = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (powers[heap[parent]] <= powers[bin]) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = bin;
+    }
+
+    private void siftDown(float[] powers, int i, int size) {
+        int[] heap = this.heap;
+        int bin = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && powers[heap[child + 1]] < powers[heap[child]]) child++;
+            if (powers[bin] <= powers[heap[child]]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = bin;
+    }
+}
@@ -0,0 +1,101 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * A periodogram stored as two parallel primitive arrays: the centre frequency of each bin and the power in that bin.
+ * The arrays are reused between calls to set(), so one Periodogram can hold the spectrum of frame after frame
+ * without allocating
+ */
+public class Periodogram {
+
+    /**
+     * The centre frequency in Hz of each bin. Only the first size elements are meaningful
+     */
+    private float[] freqs;
+
+    /**
+     * The power in each bin. Only the first size elements are meaningful
+     */
+    private float[] powers;
+
+    /**
+     * The number of bins currently stored
+     */
+    private int size;
+
+    /**
+     * The first bin frequency and bin width used to fill freqs, so we only recompute them when they change
+     */
+    private float firstFreq = Float.NaN;
+    private float binWidth = Float.NaN;
+
+    public Periodogram() {
+        this(0);
+    }
+
+    /**
+     * @param capacity The number of bins to make room for in advance
+     */
+    public Periodogram(int capacity) {
+        this.freqs = new float[capacity];
+        this.powers = new float[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Copy the first nBins powers of spectrum into this periodogram, where bin i has centre frequency
+     * firstFreq + i * binWidth
+     */
+    public void set(float[] spectrum, int nBins, float firstFreq, float binWidth) {
+        if (this.freqs.length < nBins) {
+            this.freqs = new float[nBins];
+            this.powers = new float[nBins];
+            this.firstFreq = Float.NaN;  // force recompute of freqs
+        }
+        if (this.firstFreq != firstFreq || this.binWidth != binWidth || this.size < nBins) {
+            for (int i = 0; i < nBins; i++) this.freqs[i] = firstFreq + i * binWidth;
+            this.firstFreq = firstFreq;
+            this.binWidth = binWidth;
+        }
+        System.arraycopy(spectrum, 0, this.powers, 0, nBins);
+        this.size = nBins;
+    }
+
+    /**
+     * Copy the current spectrum of the given STFT frames into this periodogram
+     */
+    public void set(ShortTimeFourierTransform.Frames frames) {
+        ShortTimeFourierTransform stft = frames.transform();
+        this.set(frames.spectrum(), stft.nBins(), 0f, stft.binWidth());
+    }
+
+    /**
+     * @return The number of bins in this periodogram
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return The centre frequency of each bin. Only the first size() elements are meaningful, and the array is
+     * reused by the next call to set()
+     */
+    public float[] freqs() {
+        return this.freqs;
+    }
+
+    /**
+     * @return The power in each bin. Only the first size() elements are meaningful, and the array is reused by the
+     * next call to set()
+     */
+    public float[] powers() {
+        return this.powers;
+    }
+
+    public float freq(int bin) {
+        return this.freqs[bin];
+    }
+
+    public float power(int bin) {
+        return this.powers[bin];
+    }
+}
@@ -0,0 +1,248 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A short-time Fourier transform: splits a stream of PCM samples into (possibly overlapping) frames, windows each
+ * frame, and computes the power spectrum of each one in turn.
+ *
+ * An STFT object only holds its configuration and can be shared between threads. Spectra are read by calling
+ * frames() for each PcmSource to be analysed, then calling next() on the returned Frames until it returns false:
+ *
+ *      ShortTimeFourierTransform.Frames frames = stft.frames(source);
+ *      try {
+ *          while (frames.next()) {
+ *              float[] spectrum = frames.spectrum();
+ *              ...
+ *          }
+ *      } finally {
+ *          frames.close();
+ *      }
+ */
+public class ShortTimeFourierTransform {
+
+    /**
+     * The number of PCM samples in each frame (a power of two)
+     */
+    public final int frameSize;
+
+    /**
+     * The number of samples between the starts of consecutive frames. Frames overlap if hopSize < frameSize and
+     * samples are skipped between frames if hopSize > frameSize
+     */
+    public final int hopSize;
+
+    /**
+     * The size of each FFT: frameSize samples followed by (fftSize - frameSize) zeros (a power of two)
+     */
+    public final int fftSize;
+
+    /**
+     * The window applied to each frame (one of WindowFunction.WINDOW_*)
+     */
+    public final int windowType;
+
+    /**
+     * The sample rate of the PCM data in Hz
+     */
+    public final float sampleRate;
+
+    /**
+     * The centre frequency of each bin, computed on first use
+     */
+    private float[] binFrequencies = null;
+
+    /**
+     * @param frameSize The number of samples per frame (must be a power of two)
+     * @param hopSize The number of samples between the starts of consecutive frames (hopSize > 0)
+     * @param zeroPadFactor fftSize = frameSize * zeroPadFactor (must be a power of two, 1 for no zero padding)
+     * @param windowType The window to apply to each frame (one of WindowFunction.WINDOW_*)
+     * @param sampleRate The sample rate of the PCM data in Hz
+     * @throws IllegalArgumentException If any of the above conditions are not met
+     */
+    public ShortTimeFourierTransform(int frameSize, int hopSize, int zeroPadFactor, int windowType, float sampleRate)
+            throws IllegalArgumentException {
+        if (! isPowerOfTwo(frameSize)) throw new IllegalArgumentException("frameSize not a power of 2: " + frameSize);
+        if (! isPowerOfTwo(zeroPadFactor))
+            throw new IllegalArgumentException("zeroPadFactor not a power of 2: " + zeroPadFactor);
+        if (hopSize <= 0) throw new IllegalArgumentException("hopSize must be positive, was " + hopSize);
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be positive, was " + sampleRate);
+
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.fftSize = frameSize * zeroPadFactor;
+        this.windowType = windowType;
+        this.sampleRate = sampleRate;
+        WindowFunction.getTable(windowType, frameSize);  // fail now rather than in frames() if window type unknown
+    }
+
+    /**
+     * @return The number of bins in each spectrum (DC to Nyquist inclusive)
+     */
+    public int nBins() {
+        return this.fftSize / 2 + 1;
+    }
+
+    /**
+     * @return The frequency in Hz at the centre of the given bin
+     */
+    public float binFrequency(int bin) {
+        return bin * this.sampleRate / this.fftSize;
+    }
+
+    /**
+     * @return The centre frequency of every bin, in order. The array is shared and must not be modified
+     */
+    public synchronized float[] binFrequencies() {
+        if (this.binFrequencies == null) {
+            float[] freqs = new float[this.nBins()];
+            for (int i = 0; i < freqs.length; i++) freqs[i] = this.binFrequency(i);
+            this.binFrequencies = freqs;
+        }
+        return this.binFrequencies;
+    }
+
+    /**
+     * @return The width in Hz of each bin
+     */
+    public float binWidth() {
+        return this.sampleRate / this.fftSize;
+    }
+
+    /**
+     * Begin reading frames from the given source. The returned Frames holds an FFT plan from FFTEngine, so it must
+     * be closed when no longer needed (closing it also closes the source)
+     */
+    public Frames frames(PcmSource source) {
+        return new Frames(source);
+    }
+
+    /**
+     * @return True if n is a positive power of two
+     */
+    public static boolean isPowerOfTwo(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    /**
+     * Read into buf[offset..offset+length) until it is full or the source runs out
+     *
+     * @return The number of samples read
+     */
+    private static int readFully(PcmSource source, float[] buf, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = source.read(buf, offset + total, length - total);
+            if (n == -1) break;
+            total += n;
+        }
+        return total;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The frames of one PcmSource, computed one at a time. Not thread-safe
+     */
+    public class Frames implements Closeable {
+
+        private final PcmSource source;
+
+        private FFTEngine.Plan plan;
+
+        private final float[] window;
+
+        /**
+         * The raw (unwindowed) samples of the current frame
+         */
+        private final float[] frame;
+
+        /**
+         * The index of the current frame, or -1 if next() has not yet been called
+         */
+        private int index = -1;
+
+        private Frames(PcmSource source) {
+            this.source = source;
+            this.window = WindowFunction.getTable(windowType, frameSize);
+            this.frame = new float[frameSize];
+            this.plan = FFTEngine.acquire(fftSize);
+            float[] input = this.plan.input();
+            for (int i = frameSize; i < input.length; i++) input[i] = 0;  // zero padding never changes
+        }
+
+        /**
+         * Read the next frame from the source and compute its spectrum. A partial frame at the end of the source is
+         * discarded
+         *
+         * @return True if a new spectrum is available through spectrum(), false if the source has run out
+         * @throws IllegalStateException If this has been closed
+         */
+        public boolean next() throws IOException, IllegalStateException {
+            if (this.plan == null) throw new IllegalStateException("Frames already closed");
+
+            if (this.index == -1) {
+                if (readFully(this.source, this.frame, 0, frameSize) < frameSize) return false;
+            } else if (hopSize < frameSize) {
+                // keep the overlapping part of the last frame, read only the new samples
+                int kept = frameSize - hopSize;
+                System.arraycopy(this.frame, hopSize, this.frame, 0, kept);
+                if (readFully(this.source, this.frame, kept, hopSize) < hopSize) return false;
+            } else {
+                if (this.source.skip(hopSize - frameSize) < hopSize - frameSize) return false;
+                if (readFully(this.source, this.frame, 0, frameSize) < frameSize) return false;
+            }
+
+            WindowFunction.apply(this.window, this.frame, 0, this.plan.input());
+            this.plan.powerSpectrum();
+            this.index++;
+            return true;
+        }
+
+        /**
+         * @return The power in each bin of the current frame (length nBins()). Overwritten by the next call to next()
+         */
+        public float[] spectrum() {
+            return this.plan.psd();
+        }
+
+        /**
+         * @return The raw samples of the current frame, before windowing. Overwritten by the next call to next()
+         */
+        public float[] samples() {
+            return this.frame;
+        }
+
+        /**
+         * @return The index of the current frame (starting at 0)
+         */
+        public int index() {
+            return this.index;
+        }
+
+        /**
+         * @return The index in the source of the first sample of the current frame
+         */
+        public long startSample() {
+            return (long) this.index * hopSize;
+        }
+
+        /**
+         * @return The ShortTimeFourierTransform whose configuration these frames use
+         */
+        public ShortTimeFourierTransform transform() {
+            return ShortTimeFourierTransform.this;
+        }
+
+        /**
+         * Return the FFT plan to the pool and close the source
+         */
+        @Override
+        public void close() throws IOException {
+            FFTEngine.release(this.plan);
+            this.plan = null;
+            this.source.close();
+        }
+    }
+}
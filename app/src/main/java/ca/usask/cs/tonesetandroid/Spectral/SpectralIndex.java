@@ -0,0 +1,185 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * The spectral analysis of the audio files in res/raw, computed at build time by the generateSpectralIndex Gradle
+ * task (see buildSrc) and packaged as the asset ASSET_NAME. Looking up an entry here gives the same peaks that
+ * Model.topNFrequencies() would find by analysing the file on the device, without doing any FFTs.
+ *
+ * Each file is split into non-overlapping frames of frameSize samples, and for each frame we store its loudest
+ * peaksPerFrame bins (loudest first) and the RMS of its samples
+ */
+public class SpectralIndex {
+
+    /**
+     * The name of the asset containing the index
+     */
+    public static final String ASSET_NAME = "spectral_index.bin";
+
+    // must match SpectralIndexBuilder in buildSrc
+    private static final int MAGIC = 0x53504958;  // "SPIX"
+    private static final int VERSION = 1;
+
+    /**
+     * The sample rate of the indexed audio in Hz
+     */
+    public final int sampleRate;
+
+    /**
+     * The number of samples in each frame, and the number of samples between the starts of consecutive frames
+     */
+    public final int frameSize;
+
+    /**
+     * The number of peaks stored for each frame
+     */
+    public final int peaksPerFrame;
+
+    /**
+     * The entry for each indexed file, keyed by resource entry name (ie. file name without extension)
+     */
+    private final HashMap<String, Entry> entries;
+
+    SpectralIndex(int sampleRate, int frameSize, int peaksPerFrame, int nEntries) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.peaksPerFrame = peaksPerFrame;
+        this.entries = new HashMap<>(nEntries * 2);
+    }
+
+    /**
+     * Read an index written by SpectralIndexBuilder. Does not close the stream
+     *
+     * @throws IOException If the stream can't be read or doesn't contain an index of a version we understand
+     */
+    public static SpectralIndex read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) throw new IOException("Not a spectral index");
+        int version = data.readInt();
+        if (version != VERSION) throw new IOException("Unsupported spectral index version: " + version);
+
+        int sampleRate = data.readInt(), frameSize = data.readInt(), peaksPerFrame = data.readInt();
+        int nEntries = data.readInt();
+        SpectralIndex index = new SpectralIndex(sampleRate, frameSize, peaksPerFrame, nEntries);
+
+        for (int e = 0; e < nEntries; e++) {
+            String name = data.readUTF();
+            long totalSamples = data.readLong();
+            int nFrames = data.readInt();
+            Entry entry = index.new Entry(name, totalSamples, nFrames);
+            for (int f = 0; f < nFrames; f++) {
+                for (int p = 0; p < peaksPerFrame; p++) entry.peakFreqs[f * peaksPerFrame + p] = data.readFloat();
+                for (int p = 0; p < peaksPerFrame; p++) entry.peakPowers[f * peaksPerFrame + p] = data.readFloat();
+                entry.rms[f] = data.readFloat();
+            }
+            index.put(entry);
+        }
+        return index;
+    }
+
+    /**
+     * Add an entry to this index, replacing any existing entry with the same name
+     */
+    void put(Entry entry) {
+        this.entries.put(entry.name, entry);
+    }
+
+    /**
+     * @param name The resource entry name of an audio file (eg. "c5piano")
+     * @return The entry for that file, or null if it isn't in the index
+     */
+    public Entry get(String name) {
+        return this.entries.get(name);
+    }
+
+    /**
+     * @return The number of files in the index
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The analysis of one audio file
+     */
+    public class Entry {
+
+        public final String name;
+
+        /**
+         * The total number of samples in the file
+         */
+        public final long totalSamples;
+
+        // flattened [frame][peak] arrays, and one RMS value per frame
+        final float[] peakFreqs;
+        final float[] peakPowers;
+        final float[] rms;
+
+        Entry(String name, long totalSamples, int nFrames) {
+            this.name = name;
+            this.totalSamples = totalSamples;
+            this.peakFreqs = new float[nFrames * peaksPerFrame];
+            this.peakPowers = new float[nFrames * peaksPerFrame];
+            this.rms = new float[nFrames];
+        }
+
+        /**
+         * @return The number of whole frames in the file
+         */
+        public int nFrames() {
+            return this.rms.length;
+        }
+
+        /**
+         * @return The number of peaks stored for each frame
+         */
+        public int peaksPerFrame() {
+            return peaksPerFrame;
+        }
+
+        /**
+         * @return The length of the file in seconds
+         */
+        public float duration() {
+            return (float) this.totalSamples / sampleRate;
+        }
+
+        /**
+         * @return The index of the frame containing the given sample, which may be >= nFrames() if the sample is in
+         * the partial frame at the end of the file
+         */
+        public int frameAt(long sample) {
+            return (int) (sample / frameSize);
+        }
+
+        /**
+         * @param frame The index of a frame
+         * @param rank 0 for the loudest peak in the frame, 1 for the second-loudest, etc. (rank < peaksPerFrame)
+         * @return The frequency in Hz of the peak
+         */
+        public float peakFrequency(int frame, int rank) {
+            return this.peakFreqs[frame * peaksPerFrame + rank];
+        }
+
+        /**
+         * @return The power of the given peak, on the same scale as FFTEngine.Plan.powerSpectrum()
+         */
+        public float peakPower(int frame, int rank) {
+            return this.peakPowers[frame * peaksPerFrame + rank];
+        }
+
+        /**
+         * @return The RMS of the samples in the given frame (full scale = 1.0)
+         */
+        public float rms(int frame) {
+            return this.rms[frame];
+        }
+    }
+}
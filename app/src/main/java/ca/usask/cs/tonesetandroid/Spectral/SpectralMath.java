@@ -0,0 +1,64 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+/**
+ * Element-wise kernels over primitive spectrum arrays. Each one is a single flat loop over plain arrays with no
+ * allocation, boxing or calls to Math.pow(), which is about as close as we get to vectorized code on Android: ART
+ * compiles these to tight native loops (and can use SIMD for the simpler ones).
+ *
+ * Output arrays may be the same as input arrays where noted
+ */
+public final class SpectralMath {
+
+    /**
+     * 10 / ln(10), for converting natural logs of power to dB
+     */
+    private static final double DB_PER_NEPER_POWER = 10.0 / Math.log(10.0);
+
+    private SpectralMath() {
+        // static methods only
+    }
+
+    /**
+     * Store the squared magnitude of each bin of an FFT into out
+     *
+     * @param interleaved The interleaved real and imaginary parts of each bin (length >= 2 * nBins)
+     * @param out The array in which to store re * re + im * im of each bin (length >= nBins)
+     * @param nBins The number of bins to convert
+     */
+    public static void magnitudeSquared(float[] interleaved, float[] out, int nBins) {
+        for (int i = 0, j = 0; i < nBins; i++, j += 2) {
+            float re = interleaved[j];
+            float im = interleaved[j + 1];
+            out[i] = re * re + im * im;
+        }
+    }
+
+    /**
+     * Add each element of values to the matching element of sums
+     */
+    public static void accumulate(float[] values, double[] sums, int n) {
+        for (int i = 0; i < n; i++) sums[i] += values[i];
+    }
+
+    /**
+     * Store sums[i] * factor into out[i] for each of the first n elements
+     */
+    public static void scale(double[] sums, double factor, float[] out, int n) {
+        for (int i = 0; i < n; i++) out[i] = (float) (sums[i] * factor);
+    }
+
+    /**
+     * Multiply the first n elements of values by factor in place
+     */
+    public static void scale(float[] values, float factor, int n) {
+        for (int i = 0; i < n; i++) values[i] *= factor;
+    }
+
+    /**
+     * @return The given power in decibels relative to reference, ie. 10 * log10(power / reference). -infinity if
+     * power is 0
+     */
+    public static float toDecibels(double power, double reference) {
+        return (float) (DB_PER_NEPER_POWER * Math.log(power / reference));
+    }
+}
@@ -0,0 +1,375 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks rendered tones against what they were supposed to be: the frequency of the loudest peak, the level, clipping,
+ * and (for sines) total harmonic distortion. The loudest peak is found in a WelchEstimator's average of overlapping
+ * Hann-windowed segments of up to ANALYSIS_SIZE samples across the whole capture, so checking a few dozen tones takes
+ * well under a second. The fundamental and harmonics of a sine are then measured at their exact frequencies with a
+ * GoertzelBank over the middle segment, rather than from the nearest FFT bins.
+ *
+ * Levels are in dB relative to a full-scale sine, as elsewhere in the Spectral package. Samples are on the same scale
+ * as HearingTest.playSine(), ie. a tone of volume v has peaks of +/- v
+ *
+ * Not thread-safe: use one ToneVerifier per thread
+ */
+public class ToneVerifier {
+
+    /**
+     * The most samples in each segment analysed for a tone (a power of two)
+     */
+    public static final int ANALYSIS_SIZE = 8192;
+
+    /**
+     * The fewest samples that can be analysed
+     */
+    public static final int MIN_ANALYSIS_SIZE = 1024;
+
+    /**
+     * The highest harmonic included in total harmonic distortion
+     */
+    public static final int THD_MAX_HARMONIC = 5;
+
+    /**
+     * The highest harmonic of a wav's fundamental that may be its loudest peak
+     */
+    private static final int MAX_WAV_HARMONIC = 8;
+
+    /**
+     * The fewest consecutive samples at full scale that count as clipping. A sine whose peaks are exactly full scale
+     * can touch full scale for a sample or two, but a clipped one stays there
+     */
+    private static final int MIN_CLIP_RUN = 3;
+
+    /**
+     * The allowed error in the frequency of a sine, as a fraction of the expected frequency
+     */
+    public float sineFreqTolerance = 0.005f;
+
+    /**
+     * The allowed error in the frequency of a wav's peak, as a fraction of the expected frequency. Looser than for
+     * sines because real instruments aren't perfectly harmonic
+     */
+    public float wavFreqTolerance = 0.03f;
+
+    /**
+     * The allowed error in level, in dB. Very quiet tones are allowed more, since rounding to 16 bits alone can shift
+     * their level by up to one step (see levelTolerance())
+     */
+    public float levelToleranceDb = 0.5f;
+
+    /**
+     * The largest total harmonic distortion (as a ratio of amplitudes) allowed in a sine. Very quiet sines are allowed
+     * more, since rounding to 16 bits alone distorts them by about 1 / amplitude
+     */
+    public float maxThd = 0.01f;
+
+    private final float sampleRate;
+
+    private final float[] analysisBuffer = new float[ANALYSIS_SIZE];
+
+    /**
+     * The whole capture being analysed, on a scale of +/- 1. Grown as needed
+     */
+    private float[] samplesBuffer = new float[0];
+
+    private final PeakPicker picker = new PeakPicker(1, true);
+
+    /**
+     * The estimator for the current segment size, replaced if a tone needs a different size
+     */
+    private WelchEstimator welch = null;
+
+    private float[] psd = new float[0];
+
+    /**
+     * @param sampleRate The sample rate of the rendered tones in Hz
+     */
+    public ToneVerifier(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Check a rendered sine wave
+     *
+     * @param label A description of the tone for the report
+     * @param samples The rendered samples
+     * @param length The number of samples rendered
+     * @param freq The intended frequency in Hz
+     * @param amplitude The intended amplitude (peak sample value)
+     */
+    public Result verifySine(String label, short[] samples, int length, float freq, double amplitude) {
+        Result result = new Result(label, freq, amplitude);
+        result.levelDb = toDb(rms(samples, length) * Math.sqrt(2));
+        result.expectedLevelDb = toDb(amplitude);
+        result.levelOk = Math.abs(result.levelDb - result.expectedLevelDb) <= this.levelTolerance(amplitude);
+        this.checkClipping(result, samples, length, amplitude);
+
+        int n = analysisSize(length);
+        if (n == 0) {
+            result.problems.add("too short to analyse");
+            return result;
+        }
+        this.analyse(samples, length, n, result);
+        result.freqOk = Math.abs(result.measuredFreq - freq) <= freq * this.sineFreqTolerance;
+
+        // harmonics are measured at multiples of the measured fundamental so that small errors don't accumulate
+        int nHarmonics = 1;
+        while (nHarmonics < THD_MAX_HARMONIC && (nHarmonics + 1) * result.measuredFreq < this.sampleRate / 2)
+            nHarmonics++;
+        float[] harmonicFreqs = new float[nHarmonics];
+        for (int k = 0; k < nHarmonics; k++) harmonicFreqs[k] = (k + 1) * result.measuredFreq;
+        WindowFunction.apply(WindowFunction.getTable(WindowFunction.WINDOW_HANN, n),
+                             this.samplesBuffer, (length - n) / 2, this.analysisBuffer);
+        float[] powers = new GoertzelBank(harmonicFreqs, this.sampleRate, WindowFunction.WINDOW_RECTANGULAR)
+                .process(this.analysisBuffer, 0, n);
+        double harmonics = 0;
+        for (int k = 1; k < nHarmonics; k++) harmonics += powers[k];
+        result.thd = powers[0] > 0 ? (float) Math.sqrt(harmonics / powers[0]) : Float.POSITIVE_INFINITY;
+        result.thdOk = result.thd <= Math.max(this.maxThd, 1.0 / amplitude);
+
+        result.describeProblems();
+        return result;
+    }
+
+    /**
+     * Check a rendered wav. Its loudest peak must be at (a harmonic of) the wav's nominal frequency, and since wavs are
+     * normalized to full scale, its highest sample must match the volume at which it was played. Harmonic distortion
+     * isn't checked because we don't know what the recording should sound like
+     *
+     * @param label A description of the tone for the report
+     * @param samples The rendered samples
+     * @param length The number of samples rendered
+     * @param freq The nominal frequency of the wav in Hz
+     * @param amplitude The volume at which the wav was played (its intended peak sample value)
+     */
+    public Result verifyWav(String label, short[] samples, int length, float freq, double amplitude) {
+        Result result = new Result(label, freq, amplitude);
+        int peak = 0;
+        for (int i = 0; i < length; i++) peak = Math.max(peak, Math.abs(samples[i]));
+        result.levelDb = toDb(peak);
+        result.expectedLevelDb = toDb(amplitude);
+        result.levelOk = Math.abs(result.levelDb - result.expectedLevelDb) <= this.levelTolerance(amplitude);
+        this.checkClipping(result, samples, length, amplitude);
+
+        int n = analysisSize(length);
+        if (n == 0) {
+            result.problems.add("too short to analyse");
+            return result;
+        }
+        this.analyse(samples, length, n, result);
+        for (int k = 1; k <= MAX_WAV_HARMONIC && ! result.freqOk; k++)
+            result.freqOk = Math.abs(result.measuredFreq - k * freq) <= k * freq * this.wavFreqTolerance;
+
+        result.describeProblems();
+        return result;
+    }
+
+    /**
+     * Check only the level and clipping of a rendered tone, for tones whose spectrum isn't a single known peak (eg.
+     * melodies and intervals, which are several sines in a row)
+     *
+     * @param amplitude The intended peak sample value
+     */
+    public Result verifyLevel(String label, short[] samples, int length, double amplitude) {
+        Result result = new Result(label, Float.NaN, amplitude);
+        int peak = 0;
+        for (int i = 0; i < length; i++) peak = Math.max(peak, Math.abs(samples[i]));
+        result.levelDb = toDb(peak);
+        result.expectedLevelDb = toDb(amplitude);
+        result.levelOk = Math.abs(result.levelDb - result.expectedLevelDb) <= this.levelTolerance(amplitude);
+        result.freqOk = true;
+        this.checkClipping(result, samples, length, amplitude);
+        result.describeProblems();
+        return result;
+    }
+
+    /**
+     * @return The allowed error in dB of a tone with the given amplitude: levelToleranceDb, or the change in level
+     * from losing one step of 16-bit resolution if that's greater
+     */
+    private double levelTolerance(double amplitude) {
+        if (amplitude <= 1) return Double.POSITIVE_INFINITY;
+        return Math.max(this.levelToleranceDb, 20 * Math.log10(amplitude / (amplitude - 1)));
+    }
+
+    /**
+     * Estimate the spectrum of the capture in segments of n samples, and store the frequency of the loudest peak in
+     * result. The (unwindowed) samples are left in samplesBuffer
+     */
+    private void analyse(short[] samples, int length, int n, Result result) {
+        if (this.samplesBuffer.length < length) this.samplesBuffer = new float[length];
+        float[] buf = this.samplesBuffer;
+        for (int i = 0; i < length; i++) buf[i] = samples[i] / 32768f;
+
+        if (this.welch == null || this.welch.stft.frameSize != n) {
+            this.welch = new WelchEstimator(n, this.sampleRate);
+            this.psd = new float[this.welch.nBins()];
+        }
+        this.welch.estimate(buf, 0, length, this.psd);
+        this.picker.pick(this.welch.binFrequencies(), this.psd, this.psd.length);
+        result.measuredFreq = this.picker.count() > 0 ? this.picker.frequencies()[0] : 0f;
+    }
+
+    /**
+     * Count the samples in runs of at least MIN_CLIP_RUN at full scale. A tone whose amplitude can't be represented in
+     * 16 bits is always clipped (or, worse, wraps around), whether or not any runs are found
+     */
+    private void checkClipping(Result result, short[] samples, int length, double amplitude) {
+        int clipped = 0, run = 0;
+        for (int i = 0; i < length; i++) {
+            if (samples[i] >= Short.MAX_VALUE || samples[i] <= -Short.MAX_VALUE) {
+                run++;
+            } else {
+                if (run >= MIN_CLIP_RUN) clipped += run;
+                run = 0;
+            }
+        }
+        if (run >= MIN_CLIP_RUN) clipped += run;
+        result.clippedSamples = clipped;
+        result.clipOk = clipped == 0 && amplitude <= Short.MAX_VALUE;
+    }
+
+    /**
+     * @return The largest power of two <= min(length, ANALYSIS_SIZE), or 0 if length < MIN_ANALYSIS_SIZE
+     */
+    private static int analysisSize(int length) {
+        if (length < MIN_ANALYSIS_SIZE) return 0;
+        return Math.min(ANALYSIS_SIZE, Integer.highestOneBit(length));
+    }
+
+    private static double rms(short[] samples, int length) {
+        if (length == 0) return 0;
+        double sumSquares = 0;
+        for (int i = 0; i < length; i++) sumSquares += (double) samples[i] * samples[i];
+        return Math.sqrt(sumSquares / length);
+    }
+
+    /**
+     * @return The given peak sample value in dB relative to full scale
+     */
+    private static float toDb(double amplitude) {
+        return SpectralMath.toDecibels(amplitude * amplitude, (double) Short.MAX_VALUE * Short.MAX_VALUE);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * The outcome of checking one rendered tone. Checks that weren't performed count as passed, and their measurements
+     * are NaN
+     */
+    public static class Result {
+
+        public final String label;
+
+        public final float expectedFreq;
+
+        public final double amplitude;
+
+        public float measuredFreq = Float.NaN;
+
+        public float expectedLevelDb = Float.NaN;
+
+        public float levelDb = Float.NaN;
+
+        /**
+         * Total harmonic distortion as a ratio of amplitudes (0.01 = 1%)
+         */
+        public float thd = Float.NaN;
+
+        public int clippedSamples = 0;
+
+        public boolean freqOk = false, levelOk = false, clipOk = false, thdOk = true;
+
+        private final ArrayList<String> problems = new ArrayList<>();
+
+        private Result(String label, float expectedFreq, double amplitude) {
+            this.label = label;
+            this.expectedFreq = expectedFreq;
+            this.amplitude = amplitude;
+        }
+
+        public boolean passed() {
+            return this.problems.isEmpty() && this.freqOk && this.levelOk && this.clipOk && this.thdOk;
+        }
+
+        /**
+         * @return Human-readable descriptions of each failed check
+         */
+        public List<String> problems() {
+            return this.problems;
+        }
+
+        private void describeProblems() {
+            if (! this.freqOk) this.problems.add(String.format(Locale.US, "peak at %.1f Hz, expected %.1f Hz",
+                                                               this.measuredFreq, this.expectedFreq));
+            if (! this.levelOk) this.problems.add(String.format(Locale.US, "level %.1f dB, expected %.1f dB",
+                                                                this.levelDb, this.expectedLevelDb));
+            if (! this.clipOk) this.problems.add(this.amplitude > Short.MAX_VALUE ?
+                    "volume " + this.amplitude + " is above full scale" :
+                    this.clippedSamples + " samples clipped");
+            if (! this.thdOk) this.problems.add(String.format(Locale.US, "THD %.2f%%", this.thd * 100));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %s: freq %.1f Hz, level %.1f dB, THD %.2f%%%s",
+                                 this.passed() ? "PASS" : "FAIL", this.label, this.measuredFreq, this.levelDb,
+                                 this.thd * 100, this.passed() ? "" : " (" + join(this.problems) + ")");
+        }
+
+        private static String join(List<String> strings) {
+            StringBuilder builder = new StringBuilder();
+            for (String s : strings) {
+                if (builder.length() > 0) builder.append("; ");
+                builder.append(s);
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * The results of checking a set of tones
+     */
+    public static class Report {
+
+        private final ArrayList<Result> results = new ArrayList<>();
+
+        public void add(Result result) {
+            this.results.add(result);
+        }
+
+        public List<Result> results() {
+            return this.results;
+        }
+
+        /**
+         * @return The number of tones that failed any check
+         */
+        public int nFailed() {
+            int n = 0;
+            for (Result result : this.results) if (! result.passed()) n++;
+            return n;
+        }
+
+        /**
+         * @return True if every tone passed every check
+         */
+        public boolean passed() {
+            return this.nFailed() == 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "Output self-test %s: %d of %d tones passed",
+                                         this.passed() ? "PASSED" : "FAILED",
+                                         this.results.size() - this.nFailed(), this.results.size()));
+            for (Result result : this.results) builder.append('\n').append(result);
+            return builder.toString();
+        }
+    }
+}
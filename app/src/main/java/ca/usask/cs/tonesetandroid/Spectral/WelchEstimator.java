@@ -0,0 +1,148 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.io.IOException;
+
+/**
+ * Estimates the power spectral density of a signal with Welch's method: the signal is split into overlapping
+ * windowed segments, and the periodograms of all the segments are averaged. This has much less variance than the
+ * periodogram of a single window over the whole signal (at the cost of frequency resolution), which makes it the
+ * right tool for characterising noise or checking how much of a tone is present.
+ *
+ * Results are one-sided densities in (full scale)^2 / Hz: the sum of psd[i] * binWidth() over all bins is the mean
+ * square of the signal, whatever the segment size or window. Results are written into arrays supplied by the caller,
+ * and the accumulator is kept between calls, so repeated estimates of the same size allocate nothing.
+ *
+ * Not thread-safe: use one WelchEstimator per thread
+ */
+public class WelchEstimator {
+
+    /**
+     * The transform used to compute the periodogram of each segment
+     */
+    public final ShortTimeFourierTransform stft;
+
+    /**
+     * Sum of the periodograms of every segment so far in the current estimate
+     */
+    private final double[] sums;
+
+    /**
+     * Output buffer for estimates stored into a Periodogram
+     */
+    private final float[] psdBuffer;
+
+    /**
+     * Scale from an averaged |X|^2 to a one-sided density (bins other than DC and Nyquist are doubled separately)
+     */
+    private final double densityScale;
+
+    /**
+     * @param segmentSize The number of samples in each segment (a power of two)
+     * @param hopSize The number of samples between the starts of consecutive segments
+     * @param windowType The window to apply to each segment (one of WindowFunction.WINDOW_*)
+     * @param sampleRate The sample rate of the PCM data in Hz
+     * @throws IllegalArgumentException If any of the parameters are invalid (see ShortTimeFourierTransform)
+     */
+    public WelchEstimator(int segmentSize, int hopSize, int windowType, float sampleRate)
+            throws IllegalArgumentException {
+        this.stft = new ShortTimeFourierTransform(segmentSize, hopSize, 1, windowType, sampleRate);
+        this.sums = new double[this.stft.nBins()];
+        this.psdBuffer = new float[this.stft.nBins()];
+        this.densityScale = 1.0 / (sampleRate * WindowFunction.getPowerSum(windowType, segmentSize));
+    }
+
+    /**
+     * Create a WelchEstimator with the usual settings: Hann windows overlapping by 50%
+     */
+    public WelchEstimator(int segmentSize, float sampleRate) throws IllegalArgumentException {
+        this(segmentSize, segmentSize / 2, WindowFunction.WINDOW_HANN, sampleRate);
+    }
+
+    /**
+     * Estimate the power spectral density of everything remaining in the given source. The source is closed
+     * afterward
+     *
+     * @param source The PCM data to be analysed
+     * @param psd The array in which to store the density of each bin (length >= nBins())
+     * @return The number of segments averaged, or 0 if the source held less than one segment (in which case psd is
+     * left unchanged)
+     */
+    public int estimate(PcmSource source, float[] psd) throws IOException {
+        double[] sums = this.sums;
+        for (int i = 0; i < sums.length; i++) sums[i] = 0;
+
+        int nSegments = 0;
+        ShortTimeFourierTransform.Frames frames = this.stft.frames(source);
+        try {
+            while (frames.next()) {
+                SpectralMath.accumulate(frames.spectrum(), sums, sums.length);
+                nSegments++;
+            }
+        } finally {
+            frames.close();
+        }
+        if (nSegments == 0) return 0;
+
+        // every bin except DC and Nyquist also stands for its negative-frequency twin
+        SpectralMath.scale(sums, 2.0 * this.densityScale / nSegments, psd, sums.length);
+        psd[0] /= 2;
+        psd[sums.length - 1] /= 2;
+        return nSegments;
+    }
+
+    /**
+     * Estimate the power spectral density of samples[offset..offset+length)
+     *
+     * @return The number of segments averaged, or 0 if length < segmentSize
+     */
+    public int estimate(float[] samples, int offset, int length, float[] psd) {
+        try {
+            return this.estimate(new ArrayPcmSource(samples, offset, length), psd);
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // not possible with an ArrayPcmSource
+        }
+    }
+
+    /**
+     * Estimate the power spectral density of the whole of the given samples
+     *
+     * @return The number of segments averaged, or 0 if samples is shorter than one segment
+     */
+    public int estimate(float[] samples, float[] psd) {
+        return this.estimate(samples, 0, samples.length, psd);
+    }
+
+    /**
+     * Estimate the power spectral density of everything remaining in the given source and store it into the given
+     * periodogram
+     *
+     * @return The number of segments averaged, or 0 if the source held less than one segment (in which case out is
+     * left unchanged)
+     */
+    public int estimate(PcmSource source, Periodogram out) throws IOException {
+        int nSegments = this.estimate(source, this.psdBuffer);
+        if (nSegments > 0) out.set(this.psdBuffer, this.psdBuffer.length, 0f, this.binWidth());
+        return nSegments;
+    }
+
+    /**
+     * @return The number of bins in each estimate (DC to Nyquist inclusive)
+     */
+    public int nBins() {
+        return this.stft.nBins();
+    }
+
+    /**
+     * @return The width in Hz of each bin
+     */
+    public float binWidth() {
+        return this.stft.binWidth();
+    }
+
+    /**
+     * @return The centre frequency of each bin. The array is shared and must not be modified
+     */
+    public float[] binFrequencies() {
+        return this.stft.binFrequencies();
+    }
+}
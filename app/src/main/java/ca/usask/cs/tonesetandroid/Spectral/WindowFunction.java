@@ -0,0 +1,93 @@
+package ca.usask.cs.tonesetandroid.Spectral;
+
+import java.util.HashMap;
+
+/**
+ * Window functions for spectral analysis. Window coefficients are computed once per type and length, then cached
+ * so that windowing a frame is a single multiply per sample instead of a call to Math.cos()
+ */
+public final class WindowFunction {
+
+    // window type identifiers
+    public static final int WINDOW_RECTANGULAR = 0;
+    public static final int WINDOW_HANN = 1;
+    public static final int WINDOW_BLACKMAN = 2;
+
+    /**
+     * Every table computed so far, keyed by (type << 32 | length). Only access while synchronized on this map
+     */
+    private static final HashMap<Long, float[]> tables = new HashMap<>();
+
+    private WindowFunction() {
+        // static methods only
+    }
+
+    /**
+     * Return the coefficients of the given window type for frames of the given length. Windows are "periodic"
+     * (ie. w[length] would equal w[0]), which is what we want when frames overlap in a short-time Fourier transform.
+     *
+     * The returned array is shared between all callers and must not be modified
+     *
+     * @param windowType The type of window (one of WINDOW_*)
+     * @param length The number of samples in a frame
+     * @return The window coefficients for each sample in a frame
+     * @throws IllegalArgumentException If the window type is unknown or length < 1
+     */
+    public static float[] getTable(int windowType, int length) throws IllegalArgumentException {
+        if (length < 1) throw new IllegalArgumentException("Window length must be positive, was " + length);
+        Long key = ((long) windowType << 32) | length;
+        synchronized (tables) {
+            float[] table = tables.get(key);
+            if (table == null) {
+                table = computeTable(windowType, length);
+                tables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Multiply length samples of src starting at srcOffset by the window table, writing the results to the start
+     * of dst. src and dst may be the same array if srcOffset == 0
+     *
+     * @param table Window coefficients from getTable()
+     * @param src The samples to be windowed
+     * @param srcOffset The index of the first sample in src to be windowed
+     * @param dst The array to which the windowed samples are written
+     */
+    public static void apply(float[] table, float[] src, int srcOffset, float[] dst) {
+        for (int i = 0; i < table.length; i++) dst[i] = src[srcOffset + i] * table[i];
+    }
+
+    /**
+     * @param windowType The type of window (one of WINDOW_*)
+     * @param length The number of samples in a frame
+     * @return The sum of the squares of the coefficients of the given window, for normalizing power spectra
+     */
+    public static double getPowerSum(int windowType, int length) {
+        double total = 0;
+        for (float w : getTable(windowType, length)) total += w * w;
+        return total;
+    }
+
+    private static float[] computeTable(int windowType, int length) {
+        float[] table = new float[length];
+        for (int i = 0; i < length; i++) {
+            double phase = 2.0 * Math.PI * i / length;
+            switch (windowType) {
+                case WINDOW_RECTANGULAR:
+                    table[i] = 1.0f;
+                    break;
+                case WINDOW_HANN:
+                    table[i] = (float) (0.5 * (1.0 - Math.cos(phase)));
+                    break;
+                case WINDOW_BLACKMAN:
+                    table[i] = (float) (0.42 - 0.5 * Math.cos(phase) + 0.08 * Math.cos(2 * phase));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown window type: " + windowType);
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,73 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that AudiogramCurve passes through its points without inventing dips or peaks between them
+ */
+public class AudiogramCurveTest {
+
+    /**
+     * Tested frequencies out of order, with a dip at 1000 Hz and a repeat of 500 Hz whose value should be ignored
+     */
+    private static final float[] FREQS = {2000, 250, 1000, 500, 4000, 500};
+    private static final double[] VALUES = {30, 60, 20, 40, 80, 99};
+
+    private static final int STEPS_PER_PIECE = 200;
+
+    @Test
+    public void passesThroughFirstValueAtEachFrequency() {
+        AudiogramCurve curve = new AudiogramCurve(FREQS, VALUES, FREQS.length);
+        assertEquals(5, curve.size());
+        for (int i = 0; i < FREQS.length - 1; i++) assertEquals(VALUES[i], curve.value(FREQS[i]), 1e-9);
+        assertEquals(40, curve.value(500), 1e-9);
+    }
+
+    @Test
+    public void staysBetweenNeighbouringValues() {
+        AudiogramCurve curve = new AudiogramCurve(FREQS, VALUES, FREQS.length);
+        float[] sorted = {250, 500, 1000, 2000, 4000};
+        double[] values = {60, 40, 20, 30, 80};
+        for (int i = 0; i < sorted.length - 1; i++) {
+            double low = Math.min(values[i], values[i + 1]), high = Math.max(values[i], values[i + 1]);
+            double last = values[i];
+            for (int s = 1; s < STEPS_PER_PIECE; s++) {
+                float freq = (float) (sorted[i] * Math.pow(sorted[i + 1] / sorted[i], (double) s / STEPS_PER_PIECE));
+                double value = curve.value(freq);
+                assertTrue(freq + " Hz: " + value, value >= low - 1e-9 && value <= high + 1e-9);
+                // and monotone within each piece
+                assertTrue(freq + " Hz", values[i + 1] >= values[i] ? value >= last - 1e-9 : value <= last + 1e-9);
+                last = value;
+            }
+        }
+    }
+
+    @Test
+    public void reproducesValuesLinearInLogFreq() {
+        float[] freqs = {125, 250, 1000, 8000};
+        double[] values = new double[freqs.length];
+        for (int i = 0; i < freqs.length; i++) values[i] = 10 + 5 * Math.log(freqs[i]);
+        AudiogramCurve curve = new AudiogramCurve(freqs, values, freqs.length);
+        for (float freq = 130; freq < 8000; freq *= 1.1f)
+            assertEquals(10 + 5 * Math.log(freq), curve.value(freq), 1e-6);
+    }
+
+    @Test
+    public void usesNearestValueOutsideTestedFrequencies() {
+        AudiogramCurve curve = new AudiogramCurve(FREQS, VALUES, FREQS.length);
+        assertEquals(60, curve.value(100), 0);
+        assertEquals(60, curve.value(0), 0);
+        assertEquals(80, curve.value(10000), 0);
+
+        AudiogramCurve single = new AudiogramCurve(new float[]{1000}, new double[]{25}, 1);
+        assertEquals(25, single.value(200), 0);
+        assertEquals(25, single.value(5000), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noFrequenciesIsAnError() {
+        new AudiogramCurve(new float[0], new double[0], 0);
+    }
+}
@@ -0,0 +1,102 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks Bootstrap intervals from CalibrationTestResults, whose interpolated prediction at a tested frequency and
+ * volume is just the proportion of its trials that were heard
+ */
+public class BootstrapTest {
+
+    private static final int N_RESAMPLES = 400;
+
+    private static final float[] FREQS = {500, 1000, 2000};
+
+    private static final double[] VOLS = {20, 40, 80};
+
+    /**
+     * @return Results with trialsPerVol trials of each tone in FREQS x VOLS: the quietest volume never heard, the
+     * loudest always heard, and the middle one heard 60% of the time
+     */
+    private static CalibrationTestResults makeResults(int trialsPerVol) {
+        CalibrationTestResults results = new CalibrationTestResults(
+                new BackgroundNoiseType(BackgroundNoiseType.NOISE_TYPE_NONE, 0), "sine-calibration");
+        for (float freq : FREQS)
+            for (int t = 0; t < trialsPerVol; t++) {
+                results.addResult(new FreqVolPair(freq, VOLS[0]), false);
+                results.addResult(new FreqVolPair(freq, VOLS[1]), t % 5 < 3);
+                results.addResult(new FreqVolPair(freq, VOLS[2]), true);
+            }
+        return results;
+    }
+
+    private static Bootstrap.Estimate[] estimate(Bootstrap bootstrap, PredictorResults results) {
+        float[] freqs = {1000, 1000, 1000, 1414};
+        double[] vols = {VOLS[0], VOLS[1], VOLS[2], 50};
+        return bootstrap.getProbabilities(results, freqs, vols, freqs.length, Bootstrap.DEFAULT_LEVEL);
+    }
+
+    @Test
+    public void sameSeedGivesSameIntervalsOnAnyPool() {
+        CalibrationTestResults results = makeResults(5);
+        ForkJoinPool single = new ForkJoinPool(1), several = new ForkJoinPool(4);
+        try {
+            Bootstrap.Estimate[] a = estimate(new Bootstrap(single, N_RESAMPLES, 45), results);
+            Bootstrap.Estimate[] b = estimate(new Bootstrap(several, N_RESAMPLES, 45), results);
+            for (int i = 0; i < a.length; i++) {
+                assertEquals(a[i].lower, b[i].lower, 0);
+                assertEquals(a[i].upper, b[i].upper, 0);
+            }
+        } finally {
+            single.shutdown();
+            several.shutdown();
+        }
+    }
+
+    @Test
+    public void intervalsSurroundEstimates() {
+        CalibrationTestResults results = makeResults(5);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            Bootstrap.Estimate[] estimates = estimate(new Bootstrap(pool, N_RESAMPLES, 45), results);
+
+            // tones that were always or never heard can't vary
+            assertEquals(0, estimates[0].lower, 0);
+            assertEquals(0, estimates[0].upper, 0);
+            assertEquals(1, estimates[2].lower, 0);
+            assertEquals(1, estimates[2].upper, 0);
+
+            // 3 of 5 heard: the interval of a binomial proportion with 5 trials is wide
+            assertEquals(0.6, estimates[1].estimate, 1e-6);
+            assertTrue(estimates[1].toString(), estimates[1].lower <= 0.4 && estimates[1].upper >= 0.8);
+
+            for (Bootstrap.Estimate e : estimates) {
+                assertTrue(e.toString(), 0 <= e.lower && e.lower <= e.estimate + 1e-6);
+                assertTrue(e.toString(), e.estimate - 1e-6 <= e.upper && e.upper <= 1);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void moreTrialsGiveNarrowerIntervals() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            Bootstrap bootstrap = new Bootstrap(pool, N_RESAMPLES, 45);
+            Bootstrap.Estimate few = estimate(bootstrap, makeResults(5))[1];
+            Bootstrap.Estimate many = estimate(bootstrap, makeResults(50))[1];
+            assertEquals(few.estimate, many.estimate, 1e-6);
+            assertTrue(few + " vs " + many, many.upper - many.lower < (few.upper - few.lower) / 2);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
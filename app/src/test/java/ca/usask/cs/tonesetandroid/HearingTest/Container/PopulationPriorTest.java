@@ -0,0 +1,43 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Scanner;
+
+import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the standard deviations given by PopulationPrior for priors read from file
+ */
+public class PopulationPriorTest {
+
+    private static final BackgroundNoiseType NOISE = new BackgroundNoiseType(BackgroundNoiseType.NOISE_TYPE_NONE, 0);
+
+    @Test
+    public void sdIsFlooredButFileKeepsSampleSD() throws IOException {
+        // three participants with almost the same threshold at 1000 Hz, and a wider spread at 2000 Hz
+        String file = "0,0,1000.0,3,3.0,0.01\n0,0,2000.0,3,3.5,0.8\n";
+        PopulationPrior prior = PopulationPrior.read(new Scanner(file));
+        assertTrue(prior.hasPrior(NOISE));
+        assertEquals(PopulationPrior.MIN_SD, prior.getLogThresholdSD(1000, NOISE), 1e-12);
+        assertEquals(0.8, prior.getLogThresholdSD(2000, NOISE), 1e-12);
+        assertEquals(3.0, prior.getLogThresholdMean(1000, NOISE), 1e-12);
+
+        StringWriter out = new StringWriter();
+        prior.write(out);
+        PopulationPrior reread = PopulationPrior.read(new Scanner(out.toString()));
+        assertEquals(PopulationPrior.MIN_SD, reread.getLogThresholdSD(1000, NOISE), 1e-12);
+        assertTrue(out.toString().contains(",0.01"));
+    }
+
+    @Test
+    public void sdIsNaNWithoutEnoughParticipants() {
+        PopulationPrior prior = PopulationPrior.read(new Scanner("0,0,1000.0,2,3.0,0.0\n"));
+        assertFalse(prior.hasPrior(NOISE));
+        assertTrue(Double.isNaN(prior.getLogThresholdSD(1000, NOISE)));
+    }
+}
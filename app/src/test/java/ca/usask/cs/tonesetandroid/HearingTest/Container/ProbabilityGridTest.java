@@ -0,0 +1,111 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import ca.usask.cs.tonesetandroid.Control.BackgroundNoiseType;
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the probabilities read from CalibrationTestResults' ProbabilityGrids with the exact ones
+ */
+public class ProbabilityGridTest {
+
+    private static final float[] FREQS = {200, 500, 1000, 2000, 4000, 8000};
+
+    private static final double[] VOL_MULTIPLIERS = {0.5, 0.8, 1, 1.25, 2};
+
+    private static final int TRIALS_PER_VOL = 5, N_QUERIES = 20000;
+
+    /**
+     * @return Calibration results for a simulated listener, with different volumes tested at each frequency
+     */
+    private static CalibrationTestResults simulateCalibration(Random random) {
+        CalibrationTestResults results = new CalibrationTestResults(
+                new BackgroundNoiseType(BackgroundNoiseType.NOISE_TYPE_NONE, 0), "sine-calibration");
+        for (float freq : FREQS) {
+            double threshold = 30 + freq / 100;
+            for (double multiplier : VOL_MULTIPLIERS)
+                for (int t = 0; t < TRIALS_PER_VOL; t++) {
+                    double vol = threshold * multiplier;
+                    double pHeard = 1 / (1 + Math.exp(-6 * Math.log(multiplier)));
+                    results.addResult(new FreqVolPair(freq, vol), random.nextDouble() < pHeard);
+                }
+        }
+        return results;
+    }
+
+    /**
+     * Fill freqs and vols with tones spread evenly on log scales over and beyond the grid's range
+     */
+    private static void randomTones(float[] freqs, double[] vols, Random random) {
+        for (int i = 0; i < freqs.length; i++) {
+            freqs[i] = (float) (ProbabilityGrid.MIN_FREQ / 2 *
+                    Math.pow(ProbabilityGrid.MAX_FREQ / ProbabilityGrid.MIN_FREQ * 4, random.nextDouble()));
+            vols[i] = ProbabilityGrid.MIN_VOL / 2 *
+                    Math.pow(ProbabilityGrid.MAX_VOL / ProbabilityGrid.MIN_VOL * 4, random.nextDouble());
+        }
+    }
+
+    /**
+     * @return The largest difference between the grid's and the exact probabilities of the given model at the tones
+     */
+    private static double maxDifference(CalibrationTestResults results, int model, float[] freqs, double[] vols) {
+        int n = freqs.length;
+        double[] exact = new double[n], fromGrid = new double[n];
+        results.getProbabilities(freqs, vols, exact, n, model);
+        results.getProbabilitiesFromGrid(freqs, vols, fromGrid, n, model);
+        double max = 0;
+        for (int i = 0; i < n; i++) max = Math.max(max, Math.abs(fromGrid[i] - exact[i]));
+        return max;
+    }
+
+    @Test
+    public void interpolatedGridIsExact() {
+        Random random = new Random(37);
+        CalibrationTestResults results = simulateCalibration(random);
+        float[] freqs = new float[N_QUERIES];
+        double[] vols = new double[N_QUERIES];
+        randomTones(freqs, vols, random);
+
+        // the only differences are from the model's float arithmetic
+        assertEquals(0, maxDifference(results, CalibrationTestResults.MODEL_INTERPOLATED, freqs, vols), 1e-5);
+        ProbabilityGrid grid = results.getProbabilityGrid(CalibrationTestResults.MODEL_INTERPOLATED);
+        assertEquals(0, grid.getExactProportion(), 0);
+        assertTrue(grid.maxError() < 1e-5);
+    }
+
+    @Test
+    public void logisticGridMeetsTolerance() {
+        Random random = new Random(37);
+        CalibrationTestResults results = simulateCalibration(random);
+        float[] freqs = new float[N_QUERIES];
+        double[] vols = new double[N_QUERIES];
+        randomTones(freqs, vols, random);
+
+        double difference = maxDifference(results, CalibrationTestResults.MODEL_LOGISTIC, freqs, vols);
+        ProbabilityGrid grid = results.getProbabilityGrid(CalibrationTestResults.MODEL_LOGISTIC);
+        assertTrue("max error " + grid.maxError(), grid.maxError() <= ProbabilityGrid.TOLERANCE);
+        assertTrue("difference " + difference, difference <= ProbabilityGrid.TOLERANCE);
+        assertTrue("exact proportion " + grid.getExactProportion(), grid.getExactProportion() < 0.5);
+    }
+
+    @Test
+    public void gridIsRebuiltWhenResultsChange() {
+        Random random = new Random(37);
+        CalibrationTestResults results = simulateCalibration(random);
+        float[] freqs = {1500};
+        double[] vols = {45};
+        double[] out = new double[1];
+        results.getProbabilitiesFromGrid(freqs, vols, out, 1, CalibrationTestResults.MODEL_INTERPOLATED);
+        assertEquals(0, results.getProbabilityGridCost(CalibrationTestResults.MODEL_INTERPOLATED));
+
+        for (int t = 0; t < 20; t++) results.addResult(new FreqVolPair(1500, 45), true);
+        assertTrue(results.getProbabilityGridCost(CalibrationTestResults.MODEL_INTERPOLATED) > 0);
+        results.getProbabilitiesFromGrid(freqs, vols, out, 1, CalibrationTestResults.MODEL_INTERPOLATED);
+        assertEquals(results.getProbability(1500, 45, CalibrationTestResults.MODEL_INTERPOLATED), out[0], 1e-6);
+    }
+}
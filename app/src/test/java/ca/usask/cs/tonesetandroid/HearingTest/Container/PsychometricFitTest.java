@@ -0,0 +1,64 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Container;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fits PsychometricFit.fitLogistic() to results whose true curve is known
+ */
+public class PsychometricFitTest {
+
+    private static final double LOG_THRESHOLD = 3, SLOPE = 6;
+
+    private static double trueProbability(double vol) {
+        return 1 / (1 + Math.exp(-SLOPE * (Math.log(vol) - LOG_THRESHOLD)));
+    }
+
+    @Test
+    public void recoversThresholdAndSlopeFromManyTrials() {
+        int n = 9, trialsPerVol = 1000;
+        double[] vols = new double[n];
+        int[] nHeard = new int[n], nTrials = new int[n];
+        for (int i = 0; i < n; i++) {
+            vols[i] = Math.exp(LOG_THRESHOLD + (i - 4) * 0.25);
+            nTrials[i] = trialsPerVol;
+            nHeard[i] = (int) Math.round(trialsPerVol * trueProbability(vols[i]));
+        }
+
+        PsychometricFit fit = PsychometricFit.fitLogistic(vols, nHeard, nTrials, n);
+        assertEquals(LOG_THRESHOLD, fit.logThreshold(), 0.01);
+        assertEquals(SLOPE, fit.slope, 0.1);
+        for (int i = 0; i < n; i++) assertEquals(trueProbability(vols[i]), fit.probability(vols[i]), 0.01);
+    }
+
+    @Test
+    public void separatedResultsGiveFiniteIncreasingCurve() {
+        // never heard at the 3 quietest volumes, always heard at the 3 loudest
+        double[] vols = {10, 14, 20, 28, 40, 56};
+        int[] nHeard = {0, 0, 0, 3, 3, 3}, nTrials = {3, 3, 3, 3, 3, 3};
+
+        PsychometricFit fit = PsychometricFit.fitLogistic(vols, nHeard, nTrials, vols.length);
+        assertTrue(fit.slope > 0 && ! Double.isInfinite(fit.slope));
+        assertTrue(fit.threshold() > 20 && fit.threshold() < 28);
+        assertTrue(fit.probability(10) < 0.1);
+        assertTrue(fit.probability(56) > 0.9);
+        assertEquals(0, fit.probability(0), 0);
+    }
+
+    @Test
+    public void volumeAtInvertsProbability() {
+        double[] vols = {10, 20, 40};
+        int[] nHeard = {1, 3, 5}, nTrials = {5, 5, 5};
+        PsychometricFit fit = PsychometricFit.fitLogistic(vols, nHeard, nTrials, vols.length);
+
+        assertEquals(0.5, fit.probability(fit.threshold()), 1e-9);
+        assertEquals(fit.threshold(), fit.volumeAt(0.5), 1e-9);
+        for (double p : new double[]{0.1, 0.25, 0.75, 0.9}) assertEquals(p, fit.probability(fit.volumeAt(p)), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noTrialsIsAnError() {
+        PsychometricFit.fitLogistic(new double[]{10}, new int[]{0}, new int[]{0}, 1);
+    }
+}
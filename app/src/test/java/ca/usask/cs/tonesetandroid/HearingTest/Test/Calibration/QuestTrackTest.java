@@ -0,0 +1,74 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Test.Calibration;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs QuestTrack against simulated listeners whose thresholds are known
+ */
+public class QuestTrackTest {
+
+    /**
+     * Run a track to completion against a listener who hears every tone at or above exp(logThreshold) and none below
+     *
+     * @return The number of distinct volumes played
+     */
+    private static int runDeterministic(QuestTrack track, double logThreshold) {
+        double lastVol = Double.NaN;
+        int nDistinct = 0;
+        while (! track.isComplete()) {
+            double vol = track.nextVolume();
+            assertFalse("volume is NaN", Double.isNaN(vol));
+            if (vol != lastVol) nDistinct++;
+            lastVol = vol;
+            track.update(vol, Math.log(vol) >= logThreshold);
+        }
+        return nDistinct;
+    }
+
+    /**
+     * @return True with the probability of hearing a tone at vol, for a listener following QuestTrack's own
+     * psychometric function
+     */
+    private static boolean simulateResponse(double vol, double logThreshold, Random random) {
+        double pHeard = QuestTrack.FALSE_ALARM_RATE + (1 - QuestTrack.FALSE_ALARM_RATE - QuestTrack.LAPSE_RATE) /
+                (1 + Math.exp(-QuestTrack.SLOPE * (Math.log(vol) - logThreshold)));
+        return random.nextDouble() < pHeard;
+    }
+
+    @Test
+    public void findsThresholdAwayFromPriorMean() {
+        double priorMean = 3.0, logThreshold = 3.7;
+        int nRuns = 200;
+        double sumError = 0, sumSquaredError = 0;
+        Random random = new Random(49);
+        for (int run = 0; run < nRuns; run++) {
+            QuestTrack track = new QuestTrack(1000, priorMean, AdaptiveSineCalibrationTest.MIN_PRIOR_SD,
+                                              Math.exp(1.5), Math.exp(5.5));
+            while (! track.isComplete()) {
+                double vol = track.nextVolume();
+                track.update(vol, simulateResponse(vol, logThreshold, random));
+            }
+            assertTrue(track.getNumTrials() >= QuestTrack.MIN_TRIALS);
+            double error = track.getMean() - logThreshold;
+            sumError += error;
+            sumSquaredError += error * error;
+        }
+        // the estimates are centred on the listener's threshold, not pulled back to the prior
+        assertEquals(0, sumError / nRuns, 0.1);
+        assertTrue("RMS error " + Math.sqrt(sumSquaredError / nRuns), Math.sqrt(sumSquaredError / nRuns) < 0.2);
+    }
+
+    @Test
+    public void narrowPriorPlacesTrialsNearPriorMean() {
+        // with a prior this narrow, the tails of the posterior are subnormal and underflow when updated
+        QuestTrack track = new QuestTrack(1000, 3.0, 0.1, Math.exp(1.5), Math.exp(5.5));
+        assertEquals(3.0, Math.log(track.nextVolume()), 0.1);
+        int nDistinct = runDeterministic(track, 3.3);
+        assertTrue("only played " + nDistinct + " distinct volumes", nDistinct > 1);
+        assertTrue("posterior mean didn't move: " + track.getMean(), track.getMean() > 3.05);
+    }
+}
@@ -0,0 +1,83 @@
+package ca.usask.cs.tonesetandroid.HearingTest.Test.Reduce;
+
+import org.junit.Test;
+
+import ca.usask.cs.tonesetandroid.HearingTest.Tone.FreqVolPair;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds fixed response sequences to StaircaseTrack, so that a change to its constants or rules that would change how
+ * saved ReduceTests are replayed (see ReduceTest.ResultsBuilder) shows up here
+ */
+public class StaircaseTrackTest {
+
+    /**
+     * The smallest step of a staircase, as a factor of volume
+     */
+    private static final double STEP = 1 - ReduceTest.HEARING_TEST_REDUCE_RATE;
+
+    private static final double START_VOL = 100;
+
+    /**
+     * Heard, missed, heard, missed, heard: the step goes 4, 2, 1, and the last two trials are the 2 reversals at the
+     * smallest step
+     */
+    private static final boolean[] RESPONSES = {true, false, true, false, true};
+
+    /**
+     * The volume of each trial of RESPONSES, in smallest steps below START_VOL
+     */
+    private static final int[] STEPS_BELOW_START = {0, 4, 2, 3, 2};
+
+    @Test
+    public void convergesAfterFinalReversals() {
+        StaircaseTrack track = new StaircaseTrack(1000, START_VOL);
+        assertTrue(Double.isNaN(track.getFloor()));
+
+        for (int i = 0; i < RESPONSES.length; i++) {
+            assertFalse("complete before trial " + i, track.isComplete());
+            double vol = track.getVolume();
+            assertEquals("volume of trial " + i, START_VOL * Math.pow(STEP, STEPS_BELOW_START[i]), vol, 1e-9);
+            track.update(vol, RESPONSES[i]);
+        }
+        assertTrue(track.isComplete());
+        assertEquals(RESPONSES.length, track.getNumTrials());
+
+        // geometric mean of the reversals at 3 and 2 steps down, then one step quieter
+        assertEquals(START_VOL * Math.pow(STEP, 3.5), track.getFloor(), 1e-9);
+    }
+
+    @Test
+    public void stopsAtMaxTrialsWithoutReversals() {
+        StaircaseTrack track = new StaircaseTrack(1000, START_VOL);
+        while (! track.isComplete()) track.update(track.getVolume(), true);
+        assertEquals(StaircaseTrack.MAX_TRIALS, track.getNumTrials());
+
+        // never reversed, so the floor is the quietest volume played
+        double lowest = START_VOL * Math.pow(STEP, StaircaseTrack.INITIAL_STEPS * (StaircaseTrack.MAX_TRIALS - 1));
+        assertEquals(lowest, track.getFloor(), lowest * 1e-9);
+    }
+
+    @Test
+    public void firstVolumeIsOneInitialStepBelowRamp() {
+        assertEquals(START_VOL * Math.pow(STEP, StaircaseTrack.INITIAL_STEPS),
+                     StaircaseTrack.getFirstVolume(START_VOL), 1e-9);
+    }
+
+    @Test
+    public void replayGivesSameFloor() {
+        StaircaseTrack track = new StaircaseTrack(1000, START_VOL);
+        ReduceTest.ResultsBuilder builder = new ReduceTest.ResultsBuilder();
+        for (boolean heard : RESPONSES) {
+            double vol = track.getVolume();
+            track.update(vol, heard);
+            builder.addStaircaseResult(1000, vol, heard);
+        }
+
+        FreqVolPair[] replayed = builder.build().getResults();
+        assertEquals(1, replayed.length);
+        assertEquals(1000, replayed[0].freq(), 0);
+        assertEquals(track.getFloor(), replayed[0].vol(), 1e-9);
+    }
+}
@@ -0,0 +1,190 @@
+package ca.usask.cs.tonesetandroid.build;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * Analyses audio files on a JVM at build time and writes a spectral index that the app reads with
+ * ca.usask.cs.tonesetandroid.Spectral.SpectralIndex, so the device never has to analyse the audio it ships with.
+ *
+ * The analysis is the same as Model.topNFrequencies() performs on the device: each file is read as one stream of
+ * 16-bit little-endian samples from its first byte (header and all), split into frames of frameSize samples, windowed
+ * with a periodic Hann window and transformed, and the loudest bins of each frame are kept. Frames don't overlap (the
+ * hop size equals the frame size), so the app can find the frame nearest to any position it would have analysed.
+ *
+ * This is a plain-Java FFT rather than the "noise" library the app uses, because noise is native Android code and
+ * can't run at build time. Both compute the same unnormalized power spectrum.
+ *
+ * Index format (big-endian, as written by DataOutputStream; keep in sync with SpectralIndex.read()):
+ *
+ *      int     MAGIC
+ *      int     VERSION
+ *      int     sample rate
+ *      int     frame size (= hop size)
+ *      int     peaks per frame
+ *      int     number of entries
+ *      for each entry:
+ *          UTF     name (file name without extension, ie. the resource entry name)
+ *          long    total samples
+ *          int     number of frames
+ *          for each frame:
+ *              float[peaks per frame]  peak frequencies in Hz, loudest first
+ *              float[peaks per frame]  peak powers
+ *              float                   RMS of the frame's samples
+ */
+public class SpectralIndexBuilder {
+
+    public static final int MAGIC = 0x53504958;  // "SPIX"
+    public static final int VERSION = 1;
+
+    private final int sampleRate;
+    private final int frameSize;
+    private final int peaksPerFrame;
+
+    private final float[] window;
+
+    // FFT tables and buffers, reused for every frame
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final int[] bitReverse;
+    private final double[] re;
+    private final double[] im;
+    private final float[] power;
+
+    /**
+     * @param sampleRate The sample rate of the audio files in Hz
+     * @param frameSize The number of samples per frame (a power of two)
+     * @param peaksPerFrame The number of loudest bins to keep for each frame
+     */
+    public SpectralIndexBuilder(int sampleRate, int frameSize, int peaksPerFrame) {
+        if (frameSize < 2 || (frameSize & (frameSize - 1)) != 0)
+            throw new IllegalArgumentException("frameSize not a power of 2: " + frameSize);
+        if (peaksPerFrame < 1 || peaksPerFrame > frameSize / 2 + 1)
+            throw new IllegalArgumentException("peaksPerFrame out of range: " + peaksPerFrame);
+
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.peaksPerFrame = peaksPerFrame;
+
+        // periodic Hann window, computed in float exactly as WindowFunction does
+        this.window = new float[frameSize];
+        for (int i = 0; i < frameSize; i++)
+            this.window[i] = (float) (0.5 * (1.0 - Math.cos(2.0 * Math.PI * i / frameSize)));
+
+        this.cosTable = new double[frameSize / 2];
+        this.sinTable = new double[frameSize / 2];
+        for (int i = 0; i < frameSize / 2; i++) {
+            this.cosTable[i] = Math.cos(2.0 * Math.PI * i / frameSize);
+            this.sinTable[i] = Math.sin(2.0 * Math.PI * i / frameSize);
+        }
+        int bits = Integer.numberOfTrailingZeros(frameSize);
+        this.bitReverse = new int[frameSize];
+        for (int i = 0; i < frameSize; i++) this.bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+
+        this.re = new double[frameSize];
+        this.im = new double[frameSize];
+        this.power = new float[frameSize / 2 + 1];
+    }
+
+    /**
+     * Analyse each of the given files and write the index to out
+     */
+    public void write(ArrayList<File> files, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(this.sampleRate);
+        data.writeInt(this.frameSize);
+        data.writeInt(this.peaksPerFrame);
+        data.writeInt(files.size());
+        for (File file : files) {
+            String name = file.getName();
+            int dot = name.lastIndexOf('.');
+            data.writeUTF(dot == -1 ? name : name.substring(0, dot));
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            try {
+                this.writeEntry(in, file.length() / 2, data);
+            } finally {
+                in.close();
+            }
+        }
+        data.flush();
+    }
+
+    private void writeEntry(InputStream in, long totalSamples, DataOutputStream data) throws IOException {
+        int nFrames = (int) (totalSamples / this.frameSize);
+        data.writeLong(totalSamples);
+        data.writeInt(nFrames);
+
+        float[] frame = new float[this.frameSize];
+        int[] peakBins = new int[this.peaksPerFrame];
+        for (int f = 0; f < nFrames; f++) {
+            double sumSquares = 0;
+            for (int i = 0; i < this.frameSize; i++) {
+                int lo = in.read(), hi = in.read();
+                if (hi == -1) throw new IOException("Unexpected end of file");
+                frame[i] = (short) (hi << 8 | lo) / (float) -Short.MIN_VALUE;
+                sumSquares += frame[i] * frame[i];
+            }
+
+            this.powerSpectrum(frame);
+            this.loudestBins(peakBins);
+            for (int bin : peakBins) data.writeFloat((float) bin * this.sampleRate / this.frameSize);
+            for (int bin : peakBins) data.writeFloat(this.power[bin]);
+            data.writeFloat((float) Math.sqrt(sumSquares / this.frameSize));
+        }
+    }
+
+    /**
+     * Window the frame and store the power in each bin from DC to Nyquist in this.power
+     */
+    private void powerSpectrum(float[] frame) {
+        int n = this.frameSize;
+        for (int i = 0; i < n; i++) {
+            this.re[this.bitReverse[i]] = frame[i] * this.window[i];
+            this.im[this.bitReverse[i]] = 0;
+        }
+
+        // iterative radix-2 decimation-in-time
+        for (int size = 2; size <= n; size *= 2) {
+            int half = size / 2, step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0; k < half; k++) {
+                    double c = this.cosTable[k * step], s = this.sinTable[k * step];
+                    int a = start + k, b = a + half;
+                    double tRe = this.re[b] * c + this.im[b] * s;
+                    double tIm = this.im[b] * c - this.re[b] * s;
+                    this.re[b] = this.re[a] - tRe;
+                    this.im[b] = this.im[a] - tIm;
+                    this.re[a] += tRe;
+                    this.im[a] += tIm;
+                }
+            }
+        }
+
+        for (int i = 0; i < this.power.length; i++)
+            this.power[i] = (float) (this.re[i] * this.re[i] + this.im[i] * this.im[i]);
+    }
+
+    /**
+     * Store the indices of the loudest bins of this.power into bins, loudest first. Ties go to the lower bin
+     */
+    private void loudestBins(int[] bins) {
+        int count = 0;
+        for (int i = 0; i < this.power.length; i++) {
+            if (count == bins.length && this.power[i] <= this.power[bins[count - 1]]) continue;
+            int j = count < bins.length ? count++ : count - 1;
+            while (j > 0 && this.power[bins[j - 1]] < this.power[i]) {
+                bins[j] = bins[j - 1];
+                j--;
+            }
+            bins[j] = i;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package ca.usask.cs.tonesetandroid.build;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A task that analyses every .wav file in a directory (ie. res/raw) and writes a spectral index to be packaged as an
+ * asset. See SpectralIndexBuilder for the analysis and the file format.
+ *
+ * Only re-runs when the audio files or the settings change
+ */
+public class SpectralIndexTask extends DefaultTask {
+
+    private File rawDir;
+
+    private File outputFile;
+
+    private int sampleRate = 44100;     // Model.OUTPUT_SAMPLE_RATE
+
+    private int frameSize = 1024;       // Model.WAV_FRAME_SIZE
+
+    private int peaksPerFrame = 3;
+
+    @TaskAction
+    public void generate() throws IOException {
+        File[] wavs = this.rawDir.listFiles();
+        ArrayList<File> files = new ArrayList<>();
+        if (wavs != null) {
+            Arrays.sort(wavs);  // keep the output identical from build to build
+            for (File file : wavs) if (file.getName().toLowerCase().endsWith(".wav")) files.add(file);
+        }
+
+        File parent = this.outputFile.getParentFile();
+        if (! parent.exists() && ! parent.mkdirs()) throw new IOException("Unable to create directory " + parent);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(this.outputFile));
+        try {
+            new SpectralIndexBuilder(this.sampleRate, this.frameSize, this.peaksPerFrame).write(files, out);
+        } finally {
+            out.close();
+        }
+        getLogger().info("Wrote spectral index of " + files.size() + " files to " + this.outputFile);
+    }
+
+    @InputDirectory
+    public File getRawDir() {
+        return this.rawDir;
+    }
+
+    public void setRawDir(File rawDir) {
+        this.rawDir = rawDir;
+    }
+
+    @OutputFile
+    public File getOutputFile() {
+        return this.outputFile;
+    }
+
+    public void setOutputFile(File outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    @Input
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Input
+    public int getFrameSize() {
+        return this.frameSize;
+    }
+
+    public void setFrameSize(int frameSize) {
+        this.frameSize = frameSize;
+    }
+
+    @Input
+    public int getPeaksPerFrame() {
+        return this.peaksPerFrame;
+    }
+
+    public void setPeaksPerFrame(int peaksPerFrame) {
+        this.peaksPerFrame = peaksPerFrame;
+    }
+}